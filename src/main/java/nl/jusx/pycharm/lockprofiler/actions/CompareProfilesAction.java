@@ -0,0 +1,56 @@
+package nl.jusx.pycharm.lockprofiler.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import nl.jusx.pycharm.lockprofiler.service.ProfileHighlightService;
+import org.jetbrains.annotations.NotNull;
+
+import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE_ARRAY;
+
+/**
+ * Compares two selected .pclprof files, the first selected being the base, or compares one selected
+ * .pclprof file with the profile that is currently shown
+ */
+public class CompareProfilesAction extends AnAction {
+    private static final Logger logger = Logger.getInstance(CompareProfilesAction.class.getName());
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        VirtualFile[] files = e.getData(VIRTUAL_FILE_ARRAY);
+        Project project = e.getProject();
+        boolean enabled = project != null && files != null && (files.length == 2 ||
+                (files.length == 1 && project.getService(ProfileHighlightService.class).hasProfile()));
+        e.getPresentation().setVisible(files != null && files.length > 0 &&
+                VisualiseProfilerActionGroup.isProfile(files[0]));
+        e.getPresentation().setEnabled(enabled);
+        super.update(e);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        VirtualFile[] files = event.getData(VIRTUAL_FILE_ARRAY);
+        if (files == null || files.length < 1 || files.length > 2) {
+            logger.error("Can only compare one or two profile files");
+            return;
+        }
+        for (VirtualFile file : files) {
+            if (!VisualiseProfilerActionGroup.isProfile(file)) {
+                logger.error("Can not compare profile file (" + file + ")");
+                return;
+            }
+        }
+
+        Project currentProject = event.getProject();
+        assert currentProject != null;
+
+        ProfileHighlightService profileHighlightService = currentProject.getService(ProfileHighlightService.class);
+        if (files.length == 2) {
+            profileHighlightService.compareProfiles(files[0], files[1]);
+        } else {
+            profileHighlightService.compareProfiles(null, files[0]);
+        }
+    }
+}
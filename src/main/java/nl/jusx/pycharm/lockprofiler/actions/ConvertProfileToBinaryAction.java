@@ -0,0 +1,87 @@
+package nl.jusx.pycharm.lockprofiler.actions;
+
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import nl.jusx.pycharm.lockprofiler.profile.BinaryProfileFormat;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE;
+
+/**
+ * Converts a JSON .pclprof file to the binary format of {@link BinaryProfileFormat}
+ *
+ * The binary file is written next to the original as `<name>.bin.pclprof`, also for a compressed `<name>.pclprof.gz`.
+ */
+public class ConvertProfileToBinaryAction extends AnAction {
+    private static final Logger logger = Logger.getInstance(ConvertProfileToBinaryAction.class.getName());
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        VirtualFile profileFile = e.getData(VIRTUAL_FILE);
+        // The file is converted through its nio path, so only enable this action for local files
+        e.getPresentation().setVisible(VisualiseProfilerActionGroup.isProfile(profileFile));
+        e.getPresentation().setEnabled(profileFile != null && profileFile.isInLocalFileSystem());
+        super.update(e);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        VirtualFile profileFile = event.getData(VIRTUAL_FILE);
+        if (!VisualiseProfilerActionGroup.isProfile(profileFile)) {
+            logger.error("Can not convert profile file (" + profileFile + ")");
+            return;
+        }
+
+        Project currentProject = event.getProject();
+        assert currentProject != null;
+
+        Path source = profileFile.toNioPath();
+        String name = profileFile.getName();
+        name = name.substring(0, name.lastIndexOf(".pclprof"));
+        Path target = source.resolveSibling(name + ".bin.pclprof");
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(currentProject, "Converting " + profileFile.getName()) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                if (BinaryProfileFormat.isBinaryProfile(source)) {
+                    notify(currentProject, source + " already is a binary profile", NotificationType.INFORMATION);
+                    return;
+                }
+                ProfileSchema schema = ProfileSchema.FromFile(source.toString());
+                if (schema == null) {
+                    notify(currentProject, "Could not load " + source, NotificationType.ERROR);
+                    return;
+                }
+                try {
+                    BinaryProfileFormat.write(schema, target);
+                } catch (IOException e) {
+                    logger.warn("Could not write binary profile " + target, e);
+                    notify(currentProject, "Could not write " + target + ": " + e.getMessage(), NotificationType.ERROR);
+                    return;
+                }
+                LocalFileSystem.getInstance().refreshAndFindFileByNioFile(target);
+                notify(currentProject, "Converted profile to " + target, NotificationType.INFORMATION);
+            }
+        });
+    }
+
+    private static void notify(Project project, String content, NotificationType type) {
+        NotificationGroupManager.getInstance().getNotificationGroup("Line Profiler Notifications")
+                .createNotification(content, type)
+                .notify(project);
+    }
+}
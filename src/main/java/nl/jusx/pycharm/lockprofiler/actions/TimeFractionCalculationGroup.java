@@ -0,0 +1,66 @@
+package nl.jusx.pycharm.lockprofiler.actions;
+
+import com.intellij.openapi.actionSystem.ActionGroup;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.project.Project;
+import nl.jusx.pycharm.lockprofiler.service.ProfileHighlightService;
+import nl.jusx.pycharm.lockprofiler.service.TimeFractionCalculation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE;
+
+/**
+ * Editor menu to choose what the wait times of lines are normalised by before they are colored
+ */
+public class TimeFractionCalculationGroup extends ActionGroup {
+    private final AnAction[] children;
+
+    public TimeFractionCalculationGroup() {
+        TimeFractionCalculation[] calculations = TimeFractionCalculation.values();
+        children = new AnAction[calculations.length];
+        for (int i = 0; i < calculations.length; i++) {
+            children[i] = new SelectCalculationAction(calculations[i]);
+        }
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project currentProject = e.getProject();
+        // Only show this menu for files with visualizations
+        e.getPresentation().setVisible(currentProject != null &&
+                currentProject.getService(ProfileHighlightService.class).containsVisualizations(e.getData(VIRTUAL_FILE)));
+        super.update(e);
+    }
+
+    @Override
+    public AnAction @NotNull [] getChildren(@Nullable AnActionEvent e) {
+        return children;
+    }
+
+    private static final class SelectCalculationAction extends ToggleAction {
+        private final TimeFractionCalculation calculation;
+
+        SelectCalculationAction(TimeFractionCalculation calculation) {
+            super(calculation.getLabel());
+            this.calculation = calculation;
+        }
+
+        @Override
+        public boolean isSelected(@NotNull AnActionEvent e) {
+            Project currentProject = e.getProject();
+            return currentProject != null &&
+                    currentProject.getService(ProfileHighlightService.class).getTimeFractionCalculation() == calculation;
+        }
+
+        @Override
+        public void setSelected(@NotNull AnActionEvent e, boolean state) {
+            Project currentProject = e.getProject();
+            if (state && currentProject != null) {
+                currentProject.getService(ProfileHighlightService.class).setTimeFractionCalculation(calculation);
+            }
+        }
+    }
+}
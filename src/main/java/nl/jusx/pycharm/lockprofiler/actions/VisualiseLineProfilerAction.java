@@ -8,7 +8,6 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.content.Content;
-import nl.jusx.pycharm.lockprofiler.profile.Profile;
 import nl.jusx.pycharm.lockprofiler.render.LockProfilerToolWindowFactory;
 import nl.jusx.pycharm.lockprofiler.service.ProfileHighlightService;
 import nl.jusx.pycharm.lockprofiler.service.TimeFractionCalculation;
@@ -19,10 +18,16 @@ import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE;
 public class VisualiseLineProfilerAction extends AnAction {
     private static final Logger logger = Logger.getInstance(VisualiseLineProfilerAction.class.getName());
 
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(VisualiseProfilerActionGroup.isProfile(e.getData(VIRTUAL_FILE)));
+        super.update(e);
+    }
+
     @Override
     public void actionPerformed(@NotNull AnActionEvent event) {
         VirtualFile profileFile = event.getData(VIRTUAL_FILE);
-        if (profileFile == null || profileFile.getExtension() == null || !profileFile.getExtension().equals("pclprof")) {
+        if (!VisualiseProfilerActionGroup.isProfile(profileFile)) {
             logger.error("Can not load profile file (" + profileFile + ")");
             return;
         }
@@ -32,9 +37,8 @@ public class VisualiseLineProfilerAction extends AnAction {
 
         ProfileHighlightService profileHighlightService = currentProject.getService(ProfileHighlightService.class);
 
-        Profile profile = Profile.fromPclprof(profileFile);
-
-        profileHighlightService.setProfile(profile);
+        // Parsing and preparing the visualization happens in a background task
+        profileHighlightService.loadProfile(profileFile);
     }
 
     protected TimeFractionCalculation withTimeFractionCalculation() {
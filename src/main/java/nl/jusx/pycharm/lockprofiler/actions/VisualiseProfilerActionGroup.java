@@ -4,16 +4,54 @@ import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.intellij.openapi.actionSystem.CommonDataKeys.VIRTUAL_FILE_ARRAY;
 
 public class VisualiseProfilerActionGroup extends DefaultActionGroup {
     @Override
     public void update(@NotNull AnActionEvent e) {
-        VirtualFile file = e.getData(VIRTUAL_FILE);
-        if (file == null || file.getExtension() == null) {
-            e.getPresentation().setVisible(false);
-        } else e.getPresentation().setVisible(file.getExtension().equals("pclprof"));
+        e.getPresentation().setVisible(!getProfiles(e).isEmpty());
         super.update(e);
     }
+
+    /**
+     * @return whether the file is a .pclprof file, or a gzip-compressed .pclprof.gz file
+     */
+    static boolean isProfile(@Nullable VirtualFile file) {
+        return file != null && !file.isDirectory() &&
+                (file.getName().endsWith(".pclprof") || file.getName().endsWith(".pclprof.gz"));
+    }
+
+    /**
+     * Returns the selected .pclprof files, or the .pclprof files in a selected directory
+     *
+     * @return profiles, empty if anything else is selected
+     */
+    static List<VirtualFile> getProfiles(@NotNull AnActionEvent e) {
+        VirtualFile[] files = e.getData(VIRTUAL_FILE_ARRAY);
+        List<VirtualFile> profiles = new ArrayList<>();
+        if (files == null || files.length == 0) {
+            return profiles;
+        }
+        if (files.length == 1 && files[0].isDirectory()) {
+            for (VirtualFile child : files[0].getChildren()) {
+                if (isProfile(child)) {
+                    profiles.add(child);
+                }
+            }
+            return profiles;
+        }
+        for (VirtualFile file : files) {
+            if (!isProfile(file)) {
+                profiles.clear();
+                break;
+            }
+            profiles.add(file);
+        }
+        return profiles;
+    }
 }
@@ -0,0 +1,44 @@
+package nl.jusx.pycharm.lockprofiler.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import nl.jusx.pycharm.lockprofiler.service.ProfileHighlightService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Merges the .pclprof files of the workers of one run, selected as files or as the directory that contains them,
+ * and visualizes the merged profile
+ */
+public class VisualiseProfilesAction extends AnAction {
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabled(VisualiseProfilerActionGroup.getProfiles(e).size() > 1);
+        super.update(e);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        List<VirtualFile> profileFiles = VisualiseProfilerActionGroup.getProfiles(event);
+        Project currentProject = event.getProject();
+        if (profileFiles.isEmpty() || currentProject == null) {
+            return;
+        }
+
+        int choice = Messages.showDialog(currentProject,
+                "Merge " + profileFiles.size() + " profiles into one, or keep the locks of each worker apart?",
+                "Visualize Profiles",
+                new String[]{"Merge Workers", "Keep Workers Apart", Messages.getCancelButton()},
+                0, Messages.getQuestionIcon());
+        if (choice != 0 && choice != 1) {
+            return;
+        }
+
+        ProfileHighlightService profileHighlightService = currentProject.getService(ProfileHighlightService.class);
+        profileHighlightService.loadProfiles(profileFiles, choice == 1);
+    }
+}
@@ -2,6 +2,8 @@ package nl.jusx.pycharm.lockprofiler.executor;
 
 import com.intellij.execution.configurations.RunProfile;
 import com.intellij.execution.configurations.RunProfileState;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.execution.ui.RunContentDescriptor;
@@ -14,9 +16,9 @@ import com.intellij.openapi.wm.ToolWindowManager;
 import com.jetbrains.python.run.AbstractPythonRunConfiguration;
 import com.jetbrains.python.run.PythonRunConfiguration;
 import com.jetbrains.python.run.PythonRunner;
-import nl.jusx.pycharm.lockprofiler.profile.Profile;
 import nl.jusx.pycharm.lockprofiler.service.ProfileHighlightService;
 import nl.jusx.pycharm.lockprofiler.service.TimeFractionCalculation;
+import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
 import nl.jusx.pycharm.lockprofiler.utils.LineProfilerPycharmSdkUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.concurrency.Promise;
@@ -25,6 +27,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class ProfileRunner extends PythonRunner {
@@ -46,13 +49,23 @@ public class ProfileRunner extends PythonRunner {
      *
      * If a .pclprof file is written during execution it is visualized after completion
      *
+     * No thread waits for the execution: a process listener starts loading the profile in the background when the
+     * process terminates. Starting an execution cancels a profile load that is still in progress, and the profile
+     * of an execution is not loaded once a newer execution has been started.
+     *
      * Location of the .pclprof file is defined with the `line-profiler-pycharm` environment
      * variable:
      *  PC_LINE_PROFILER_STATS_FILENAME
+     *
+     * With PC_LINE_PROFILER_COMPRESS set, the helper package writes a gzip-compressed .pclprof.gz file instead.
+     *
+     * While the execution runs, deltas that are appended to the file in PC_LINE_PROFILER_LIVE_FILENAME
+     * are shown as a live profile, see {@link nl.jusx.pycharm.lockprofiler.profile.LiveProfile}
      */
     @Override
     protected @NotNull Promise<RunContentDescriptor> execute(@NotNull ExecutionEnvironment env, @NotNull RunProfileState state) {
         ProfileHighlightService profileHighlightService = env.getProject().getService(ProfileHighlightService.class);
+        int run = profileHighlightService.startRun();
         ApplicationManager.getApplication().invokeLater(profileHighlightService::disposeAllVisualizations);
 
         PythonRunConfiguration runConfiguration = (PythonRunConfiguration) env.getRunProfile();
@@ -88,36 +101,82 @@ public class ProfileRunner extends PythonRunner {
             pclprofPath = Paths.get(runConfiguration.getWorkingDirectory(), pclprofFilename + ".pclprof");
         }
 
-        // Remove file if it already exists
+        // A compressed profile is written next to where the uncompressed one would be
+        Path compressedPclprofPath = Paths.get(pclprofPath + ".gz");
+
+        // Remove files if they already exist
+        for (Path path : new Path[]{pclprofPath, compressedPclprofPath}) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not remove already existing " + path + " for Profile Line execution");
+            }
+        }
+
+        // A delta log of an earlier execution would be merged into the live profile of this one
+        Path deltaLogPath = Paths.get(pclprofPath + ".live");
         try {
-            Files.deleteIfExists(pclprofPath);
+            Files.deleteIfExists(deltaLogPath);
         } catch (IOException e) {
-            throw new RuntimeException("Could not remove already existing " + pclprofPath + " for Profile Line execution");
+            throw new RuntimeException("Could not remove already existing " + deltaLogPath + " for Profile Line execution");
         }
 
-        // Set the environment variable for `line-profile-pycharm`
+        // Set the environment variables for `line-profile-pycharm`
         runConfiguration.getEnvs().put("PC_LINE_PROFILER_STATS_FILENAME", pclprofFilename);
+        runConfiguration.getEnvs().put("PC_LINE_PROFILER_LIVE_FILENAME", deltaLogPath.toAbsolutePath().toString());
+        if (SettingsState.getInstance().isCompressProfiles()) {
+            runConfiguration.getEnvs().put("PC_LINE_PROFILER_COMPRESS", "1");
+        }
 
         // Truly start the python execution
         Promise<RunContentDescriptor> promise = super.execute(env, state);
 
-        // After creating an execution, the environment variable can be removed again from our run config
+        // After creating an execution, the environment variables can be removed again from our run config
         promise.then(runContentDescriptor -> {
             runConfiguration.getEnvs().remove("PC_LINE_PROFILER_STATS_FILENAME");
+            runConfiguration.getEnvs().remove("PC_LINE_PROFILER_LIVE_FILENAME");
+            runConfiguration.getEnvs().remove("PC_LINE_PROFILER_COMPRESS");
             return runContentDescriptor;
         });
 
         // Add listener to process completion that triggers profile visualization
-        promise.onSuccess(runContentDescriptor -> ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        promise.onSuccess(runContentDescriptor -> {
             ProcessHandler ph = runContentDescriptor.getProcessHandler();
             if (ph == null) {
                 logger.error("Could not get processhandler after starting Line Profile run");
                 return;
             }
-            if (ph.waitFor()) {
-                triggerPclprofVisualization(env.getProject(), pclprofPath);
+            // Show the profile while the execution is running, as far as the delta log goes
+            ApplicationManager.getApplication().invokeLater(() -> profileHighlightService.startLiveProfile(deltaLogPath));
+
+            long start = System.nanoTime();
+            AtomicBoolean handled = new AtomicBoolean();
+            Runnable onTerminated = () -> {
+                if (!handled.compareAndSet(false, true)) {
+                    return;
+                }
+                logger.info(String.format("Profile Lines execution finished in %.1f ms",
+                        (System.nanoTime() - start) / 1e6));
+                if (!profileHighlightService.isLatestRun(run)) {
+                    // The live profile and the visualization belong to the newer execution
+                    return;
+                }
+                ApplicationManager.getApplication().invokeLater(profileHighlightService::stopLiveProfile);
+                // A helper package that does not support compression ignores the request and writes a .pclprof
+                triggerPclprofVisualization(env.getProject(), run,
+                        Files.exists(compressedPclprofPath) ? compressedPclprofPath : pclprofPath);
+            };
+            ph.addProcessListener(new ProcessAdapter() {
+                @Override
+                public void processTerminated(@NotNull ProcessEvent event) {
+                    onTerminated.run();
+                }
+            });
+            // A short execution may have terminated before the listener was added
+            if (ph.isProcessTerminated()) {
+                onTerminated.run();
             }
-        }));
+        });
 
         return promise;
     }
@@ -128,9 +187,10 @@ public class ProfileRunner extends PythonRunner {
      * The .pclprof file should have been created by `line-profiler-pycharm` python package
      *
      * @param project project
+     * @param run id of the execution that wrote the file, see {@link ProfileHighlightService#startRun()}
      * @param pclprofPath path to .pclprof file
      */
-    private void triggerPclprofVisualization(Project project, Path pclprofPath) {
+    private void triggerPclprofVisualization(Project project, int run, Path pclprofPath) {
         if (!Files.exists(pclprofPath)) {
             // No .pclprof file has been created during profile, visualization not possible
             return;
@@ -138,10 +198,11 @@ public class ProfileRunner extends PythonRunner {
 
         ProfileHighlightService profileHighlightService = project.getService(ProfileHighlightService.class);
 
-        Profile profile = Profile.fromPclprof(pclprofPath);
-
+        // The profile is parsed in a background task with progress
         ApplicationManager.getApplication().invokeLater(() -> {
-            profileHighlightService.setProfile(profile);
-        });
+            if (profileHighlightService.isLatestRun(run)) {
+                profileHighlightService.loadProfile(pclprofPath);
+            }
+        }, project.getDisposed());
     }
 }
@@ -0,0 +1,165 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link LineTable} that keeps all columns in primitive arrays on the heap
+ */
+public final class ArrayLineTable extends LineTable {
+    private final String[] files;
+    private final int[] fileStarts;
+    private final int[] fileIds;
+    private final int[] lines;
+    private final long[] lockHashes;
+    private final long[][] columns;
+
+    ArrayLineTable(String[] files, int[] fileStarts, int[] fileIds, int[] lines, long[] lockHashes, long[][] columns) {
+        this.files = files;
+        this.fileStarts = fileStarts;
+        this.fileIds = fileIds;
+        this.lines = lines;
+        this.lockHashes = lockHashes;
+        this.columns = columns;
+    }
+
+    @Override
+    public int size() {
+        return lines.length;
+    }
+
+    @Override
+    protected long stored(int row, int column) {
+        return columns[column][row];
+    }
+
+    @Override
+    public int fileCount() {
+        return files.length;
+    }
+
+    @Override
+    public String file(int fileId) {
+        return files[fileId];
+    }
+
+    @Override
+    public int fileStart(int fileId) {
+        return fileStarts[fileId];
+    }
+
+    @Override
+    public int fileEnd(int fileId) {
+        return fileStarts[fileId + 1];
+    }
+
+    @Override
+    public int fileId(int row) {
+        return fileIds[row];
+    }
+
+    @Override
+    public int line(int row) {
+        return lines[row];
+    }
+
+    @Override
+    public long lockHash(int row) {
+        return lockHashes[row];
+    }
+
+    /**
+     * Collects rows in any order and sorts them by (file, line, lock hash) when built
+     */
+    public static final class Builder {
+        private final Map<String, Integer> fileIdByPath = new HashMap<>();
+        private String[] files = new String[16];
+        private int[] fileIds = new int[1024];
+        private int[] lines = new int[1024];
+        private long[] lockHashes = new long[1024];
+        private long[][] columns = newColumns(1024);
+        private int size;
+
+        /**
+         * @return interned id of a file, to be passed to {@link #add}
+         */
+        public int internFile(String path) {
+            Integer id = fileIdByPath.get(path);
+            if (id == null) {
+                id = fileIdByPath.size();
+                if (id == files.length) {
+                    files = Arrays.copyOf(files, id * 2);
+                }
+                files[id] = path;
+                fileIdByPath.put(path, id);
+            }
+            return id;
+        }
+
+        /**
+         * @param fileId id returned by {@link #internFile}
+         * @param values all 12 .pclprof values of the row, in {@link Metric} order
+         */
+        public void add(int fileId, int line, long lockHash, long[] values) {
+            if (size == lines.length) {
+                int capacity = size * 2;
+                fileIds = Arrays.copyOf(fileIds, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                lockHashes = Arrays.copyOf(lockHashes, capacity);
+                columns = growColumns(columns, capacity);
+            }
+            fileIds[size] = fileId;
+            lines[size] = line;
+            lockHashes[size] = lockHash;
+            storeRow(columns, size, values);
+            size++;
+        }
+
+        public ArrayLineTable build() {
+            // Renumber files in path order
+            int numFiles = fileIdByPath.size();
+            String[] sortedFiles = Arrays.copyOf(files, numFiles);
+            Arrays.sort(sortedFiles);
+            int[] remap = new int[numFiles];
+            for (int newId = 0; newId < numFiles; newId++) {
+                remap[fileIdByPath.get(sortedFiles[newId])] = newId;
+            }
+
+            int[] fi = fileIds;
+            int[] ln = lines;
+            long[] lh = lockHashes;
+            int[] order = IndexSort.range(0, size);
+            IndexSort.sort(order, (a, b) -> {
+                int cmp = Integer.compare(remap[fi[a]], remap[fi[b]]);
+                if (cmp == 0) {
+                    cmp = Integer.compare(ln[a], ln[b]);
+                }
+                if (cmp == 0) {
+                    cmp = Long.compare(lh[a], lh[b]);
+                }
+                return cmp;
+            });
+
+            int[] sortedFileIds = new int[size];
+            int[] sortedLines = new int[size];
+            long[] sortedLockHashes = new long[size];
+            for (int i = 0; i < size; i++) {
+                sortedFileIds[i] = remap[fi[order[i]]];
+                sortedLines[i] = ln[order[i]];
+                sortedLockHashes[i] = lh[order[i]];
+            }
+
+            int[] fileStarts = new int[numFiles + 1];
+            for (int i = 0; i < size; i++) {
+                fileStarts[sortedFileIds[i] + 1]++;
+            }
+            for (int f = 0; f < numFiles; f++) {
+                fileStarts[f + 1] += fileStarts[f];
+            }
+
+            return new ArrayLineTable(sortedFiles, fileStarts, sortedFileIds, sortedLines, sortedLockHashes,
+                    permuteColumns(columns, order));
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary .pclprof format, which is memory-mapped when loaded instead of parsed
+ *
+ * All values are little endian. Layout:
+ * <pre>
+ * header        magic "PCLPROF\0", int version, int stored metric count, int string count, int lock count,
+ *               int file count, int reserved, long row count, long offsets of the four sections below
+ * string table  per string: int byte length, UTF-8 bytes
+ * lock table    per lock:   long hash, int name string index, int reserved, long[metric count]
+ * file index    per file:   int path string index, int first row, int row after last row, int reserved
+ * rows          per row:    int file id, int line, long lock hash, long[metric count]
+ * </pre>
+ * Lock and row records have a fixed width, so a row is found by its index alone. Rows are sorted like a
+ * {@link LineTable}, the file index gives the row range of every file.
+ */
+public final class BinaryProfileFormat {
+    private static final byte[] MAGIC = {'P', 'C', 'L', 'P', 'R', 'O', 'F', 0};
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 72;
+    static final int LOCK_RECORD_SIZE = 16 + 8 * Metric.STORED;
+    static final int FILE_RECORD_SIZE = 16;
+    static final int ROW_RECORD_SIZE = 16 + 8 * Metric.STORED;
+
+    private BinaryProfileFormat() {
+    }
+
+    /**
+     * @return whether the file starts with the magic bytes of the binary format
+     */
+    public static boolean isBinaryProfile(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until the magic is complete or the file ends
+            }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a profile in binary format, reading the stats of one file at a time
+     */
+    public static void write(ProfileSchema schema, Path path) throws IOException {
+        LockTable locks = schema.lock_stats;
+        ProfileFiles files = schema.file_stats;
+
+        // Strings are deduplicated, file paths come first so a file's string index equals its id
+        Map<String, Integer> stringIndex = new HashMap<>();
+        String[] strings = new String[files.fileCount() + locks.size()];
+        int numStrings = 0;
+        for (int f = 0; f < files.fileCount(); f++) {
+            strings[numStrings] = files.file(f);
+            stringIndex.put(files.file(f), numStrings++);
+        }
+        int[] lockNames = new int[locks.size()];
+        for (int l = 0; l < locks.size(); l++) {
+            Integer idx = stringIndex.get(locks.name(l));
+            if (idx == null) {
+                idx = numStrings;
+                strings[numStrings++] = locks.name(l);
+                stringIndex.put(locks.name(l), idx);
+            }
+            lockNames[l] = idx;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_SIZE);
+
+            long stringTableOffset = channel.position();
+            for (int s = 0; s < numStrings; s++) {
+                byte[] bytes = strings[s].getBytes(StandardCharsets.UTF_8);
+                ensureRemaining(channel, buf, 4);
+                buf.putInt(bytes.length);
+                int written = 0;
+                while (written < bytes.length) {
+                    ensureRemaining(channel, buf, 1);
+                    int n = Math.min(buf.remaining(), bytes.length - written);
+                    buf.put(bytes, written, n);
+                    written += n;
+                }
+            }
+            // Align the fixed-width records to 8 bytes
+            while (positionOf(channel, buf) % 8 != 0) {
+                ensureRemaining(channel, buf, 1);
+                buf.put((byte) 0);
+            }
+
+            long lockTableOffset = positionOf(channel, buf);
+            for (int l = 0; l < locks.size(); l++) {
+                ensureRemaining(channel, buf, LOCK_RECORD_SIZE);
+                buf.putLong(locks.hash(l));
+                buf.putInt(lockNames[l]);
+                buf.putInt(0);
+                for (int c = 0; c < Metric.STORED; c++) {
+                    buf.putLong(locks.stored(l, c));
+                }
+            }
+
+            // The rows are written file by file through cursors, so that a lazily decoded profile is not decoded
+            // as a whole. The file index is written after them, once their row ranges are known.
+            long fileIndexOffset = positionOf(channel, buf);
+            flush(channel, buf);
+            long rowsOffset = fileIndexOffset + (long) files.fileCount() * FILE_RECORD_SIZE;
+            channel.position(rowsOffset);
+            int[] fileStarts = new int[files.fileCount() + 1];
+            int numRows = 0;
+            for (int f = 0; f < files.fileCount(); f++) {
+                StatsCursor cursor = files.cursor(f);
+                while (cursor.next()) {
+                    LineTable table = cursor.table();
+                    int row = cursor.row();
+                    ensureRemaining(channel, buf, ROW_RECORD_SIZE);
+                    buf.putInt(f);
+                    buf.putInt(table.line(row));
+                    buf.putLong(table.lockHash(row));
+                    for (int c = 0; c < Metric.STORED; c++) {
+                        buf.putLong(table.stored(row, c));
+                    }
+                    numRows++;
+                }
+                fileStarts[f + 1] = numRows;
+            }
+            flush(channel, buf);
+
+            ByteBuffer fileIndex = ByteBuffer.allocate(files.fileCount() * FILE_RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int f = 0; f < files.fileCount(); f++) {
+                fileIndex.putInt(f);
+                fileIndex.putInt(fileStarts[f]);
+                fileIndex.putInt(fileStarts[f + 1]);
+                fileIndex.putInt(0);
+            }
+            fileIndex.flip();
+            long indexPosition = fileIndexOffset;
+            while (fileIndex.hasRemaining()) {
+                indexPosition += channel.write(fileIndex, indexPosition);
+            }
+
+            buf.put(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(Metric.STORED);
+            buf.putInt(numStrings);
+            buf.putInt(locks.size());
+            buf.putInt(files.fileCount());
+            buf.putInt(0);
+            buf.putLong(numRows);
+            buf.putLong(stringTableOffset);
+            buf.putLong(lockTableOffset);
+            buf.putLong(fileIndexOffset);
+            buf.putLong(rowsOffset);
+            buf.flip();
+            long position = 0;
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+        }
+    }
+
+    private static long positionOf(FileChannel channel, ByteBuffer buf) throws IOException {
+        return channel.position() + buf.position();
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            flush(channel, buf);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * Maps a binary profile into memory
+     *
+     * Only the string table and the lock table are copied to the heap. The rows stay in the mapped file and
+     * are read on access, so opening is independent of the number of rows.
+     *
+     * Every count, offset and string index in the file is checked before it is used, so a truncated or corrupt
+     * file fails with an IOException instead of an unchecked exception.
+     */
+    public static ProfileSchema read(Path path) throws IOException {
+        try {
+            return map(path);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // The checks below should leave no room for these, a file that still causes one is corrupt as well
+            throw new IOException("Corrupt binary profile: " + path, e);
+        }
+    }
+
+    private static ProfileSchema map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not a binary profile: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary profile: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary profile version " + version + ": " + path);
+            }
+            int metricCount = header.getInt();
+            if (metricCount != Metric.STORED) {
+                throw new IOException("Unexpected metric count " + metricCount + ": " + path);
+            }
+            int numStrings = header.getInt();
+            int numLocks = header.getInt();
+            int numFiles = header.getInt();
+            header.getInt();
+            long numRows = header.getLong();
+            long stringTableOffset = header.getLong();
+            long lockTableOffset = header.getLong();
+            long fileIndexOffset = header.getLong();
+            long rowsOffset = header.getLong();
+            // Sections follow each other in header order, and the records of each fit before the next one
+            long stringTableSize = lockTableOffset - stringTableOffset;
+            check(numStrings >= 0 && numLocks >= 0 && numFiles >= 0 && numRows >= 0 && numRows <= Integer.MAX_VALUE
+                    && stringTableOffset >= HEADER_SIZE && stringTableSize >= 0
+                    // Every string takes at least its length
+                    && numStrings <= stringTableSize / 4
+                    && rowsOffset - stringTableOffset <= Integer.MAX_VALUE
+                    && lockTableOffset + (long) numLocks * LOCK_RECORD_SIZE <= fileIndexOffset
+                    && fileIndexOffset + (long) numFiles * FILE_RECORD_SIZE <= rowsOffset
+                    && rowsOffset + numRows * ROW_RECORD_SIZE <= fileSize, path);
+
+            ByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY, stringTableOffset, rowsOffset - stringTableOffset)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            meta.limit((int) stringTableSize);
+            String[] strings = new String[numStrings];
+            for (int s = 0; s < numStrings; s++) {
+                check(meta.remaining() >= 4, path);
+                int length = meta.getInt();
+                check(length >= 0 && length <= meta.remaining(), path);
+                byte[] bytes = new byte[length];
+                meta.get(bytes);
+                strings[s] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            meta.limit(meta.capacity());
+
+            meta.position((int) stringTableSize);
+            long[] hashes = new long[numLocks];
+            String[] names = new String[numLocks];
+            long[][] lockColumns = StatColumns.newColumns(numLocks);
+            for (int l = 0; l < numLocks; l++) {
+                hashes[l] = meta.getLong();
+                int name = meta.getInt();
+                check(name >= 0 && name < numStrings && (l == 0 || hashes[l - 1] < hashes[l]), path);
+                names[l] = strings[name];
+                meta.getInt();
+                for (int c = 0; c < Metric.STORED; c++) {
+                    lockColumns[c][l] = meta.getLong();
+                }
+            }
+
+            meta.position((int) (fileIndexOffset - stringTableOffset));
+            String[] files = new String[numFiles];
+            int[] fileStarts = new int[numFiles + 1];
+            for (int f = 0; f < numFiles; f++) {
+                int file = meta.getInt();
+                int start = meta.getInt();
+                int end = meta.getInt();
+                meta.getInt();
+                // The row ranges of the files are contiguous and cover all rows
+                check(file >= 0 && file < numStrings && start == fileStarts[f] && end >= start && end <= numRows,
+                        path);
+                files[f] = strings[file];
+                // Files are found by binary search and joined by path, so their paths must be ascending
+                check(f == 0 || files[f - 1].compareTo(files[f]) < 0, path);
+                fileStarts[f + 1] = end;
+            }
+            check(fileStarts[numFiles] == numRows, path);
+
+            MappedLineTable lineTable = new MappedLineTable(files, fileStarts, (int) numRows,
+                    mapRows(channel, rowsOffset, (int) numRows));
+            return new ProfileSchema(new LockTable(hashes, names, lockColumns), ProfileFiles.of(lineTable));
+        }
+    }
+
+    private static void check(boolean valid, Path path) throws IOException {
+        if (!valid) {
+            throw new IOException("Corrupt binary profile: " + path);
+        }
+    }
+
+    /**
+     * Maps the rows in segments of {@link MappedLineTable#SEGMENT_ROWS}, a single mapping being limited to 2 GB
+     */
+    private static ByteBuffer[] mapRows(FileChannel channel, long rowsOffset, int numRows) throws IOException {
+        int numSegments = (int) (((long) numRows + MappedLineTable.SEGMENT_ROWS - 1) / MappedLineTable.SEGMENT_ROWS);
+        ByteBuffer[] segments = new ByteBuffer[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            long firstRow = (long) s * MappedLineTable.SEGMENT_ROWS;
+            long rows = Math.min(MappedLineTable.SEGMENT_ROWS, numRows - firstRow);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    rowsOffset + firstRow * ROW_RECORD_SIZE, rows * ROW_RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+}
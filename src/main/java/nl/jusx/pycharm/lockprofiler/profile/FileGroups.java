@@ -0,0 +1,102 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * The rows of one file grouped by line, and its lines grouped by their innermost function or class
+ *
+ * Both are aggregated bottom-up, in one pass over the rows of the file and one over its lines. Scope group 0
+ * holds the lines outside of all functions and classes, group s + 1 holds the lines of scope s.
+ */
+public final class FileGroups {
+    private final LineTable table;
+    private final StatGroups lines;
+    private final StatGroups scopes;
+    private final String[] scopeLabels;
+    // First line of each scope group, starting at 1, 0 for the module
+    private final int[] scopeStarts;
+
+    private FileGroups(LineTable table, StatGroups lines, StatGroups scopes, String[] scopeLabels,
+                       int[] scopeStarts) {
+        this.table = table;
+        this.lines = lines;
+        this.scopes = scopes;
+        this.scopeLabels = scopeLabels;
+        this.scopeStarts = scopeStarts;
+    }
+
+    /**
+     * Groups the rows of a file of a profile, from the table returned by {@link ProfileFiles#stats(int)}, so
+     * only that file is decoded
+     *
+     * @param names qualified name of each scope
+     * @param classes whether each scope is a class, as opposed to a function
+     * @param starts first line of each scope, in ascending order, so a nested scope comes after its parent
+     * @param ends last line of each scope
+     */
+    public static FileGroups compute(ProfileFiles files, int fileId, String[] names, boolean[] classes, int[] starts,
+                                     int[] ends) {
+        LineTable table = files.stats(fileId);
+        int tableFileId = table.findFile(files.file(fileId));
+        StatGroups lines = tableFileId < 0 ? StatGroups.lines(table, 0, 0)
+                : StatGroups.lines(table, table.fileStart(tableFileId), table.fileEnd(tableFileId));
+        int[] lineNumbers = new int[lines.size()];
+        for (int line = 0; line < lineNumbers.length; line++) {
+            lineNumbers[line] = table.line(lines.member(line, 0));
+        }
+        int[] groups = ScopeStats.innermost(starts, ends, lineNumbers);
+        for (int line = 0; line < groups.length; line++) {
+            groups[line]++;
+        }
+        StatGroups scopes = StatGroups.of(lines, 0, groups, names.length + 1);
+
+        String[] scopeLabels = new String[names.length + 1];
+        int[] scopeStarts = new int[names.length + 1];
+        scopeLabels[0] = "<module>";
+        for (int scope = 0; scope < names.length; scope++) {
+            scopeLabels[scope + 1] = (classes[scope] ? "class " : "def ") + names[scope];
+            scopeStarts[scope + 1] = starts[scope];
+        }
+        return new FileGroups(table, lines, scopes, scopeLabels, scopeStarts);
+    }
+
+    /**
+     * @return table that holds the rows of the file, the members of {@link #lines()}
+     */
+    public LineTable table() {
+        return table;
+    }
+
+    /**
+     * @return rows of the file grouped by line, in line order
+     */
+    public StatGroups lines() {
+        return lines;
+    }
+
+    /**
+     * @return lines of the file grouped by scope, a group without members has no profiled lines
+     */
+    public StatGroups scopes() {
+        return scopes;
+    }
+
+    /**
+     * @return line number of a line group, starting at 1
+     */
+    public int line(int lineGroup) {
+        return table.line(lines.member(lineGroup, 0));
+    }
+
+    /**
+     * @return "def name" or "class name" of a scope group, "&lt;module&gt;" for group 0
+     */
+    public String scopeLabel(int scopeGroup) {
+        return scopeLabels[scopeGroup];
+    }
+
+    /**
+     * @return first line of a scope group, starting at 1, 0 for the module
+     */
+    public int scopeStart(int scopeGroup) {
+        return scopeStarts[scopeGroup];
+    }
+}
@@ -0,0 +1,49 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * Files of a profile that was built in memory, each file with its own table
+ */
+final class FileTables extends ProfileFiles {
+    // Sorted paths
+    private final String[] files;
+    private final LineTable[] tables;
+    private LineTable all;
+
+    FileTables(String[] files, LineTable[] tables) {
+        this.files = files;
+        this.tables = tables;
+    }
+
+    @Override
+    public int fileCount() {
+        return files.length;
+    }
+
+    @Override
+    public String file(int fileId) {
+        return files[fileId];
+    }
+
+    @Override
+    public LineTable stats(int fileId) {
+        return tables[fileId];
+    }
+
+    @Override
+    public synchronized LineTable all() {
+        if (all == null) {
+            ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+            long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+            for (int f = 0; f < files.length; f++) {
+                int fileId = builder.internFile(files[f]);
+                LineTable table = tables[f];
+                for (int row = 0; row < table.size(); row++) {
+                    table.values(row, values);
+                    builder.add(fileId, table.line(row), table.lockHash(row), values);
+                }
+            }
+            all = builder.build();
+        }
+        return all;
+    }
+}
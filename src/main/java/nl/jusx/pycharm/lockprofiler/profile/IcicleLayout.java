@@ -0,0 +1,279 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.util.Arrays;
+
+/**
+ * Layout of an icicle chart of a profile: files on top, then their functions and classes, then their lines,
+ * then their locks, each frame as wide as its share of a total time metric
+ *
+ * Frames are stored in primitive arrays ordered by depth and then by position, so the frames of a depth that
+ * overlap a range are found with a binary search. Positions and widths are fractions of the total, so the
+ * layout does not depend on the size of the chart. Frames of children are ordered by the metric, largest first.
+ */
+public final class IcicleLayout {
+    public static final int FILE_DEPTH = 0;
+    public static final int SCOPE_DEPTH = 1;
+    public static final int LINE_DEPTH = 2;
+    public static final int LOCK_DEPTH = 3;
+    public static final int DEPTHS = 4;
+
+    private final Metric metric;
+    private final long total;
+    // Frames of depth d are depthStarts[d] up to depthStarts[d + 1]
+    private final int[] depthStarts;
+    private final double[] xs;
+    private final double[] widths;
+    private final long[] values;
+    private final String[] labels;
+    private final int[] fileIds;
+    // Line to navigate to, starting at 1, 0 for the start of the file
+    private final int[] lines;
+
+    private IcicleLayout(Metric metric, long total, int[] depthStarts, double[] xs, double[] widths, long[] values,
+                         String[] labels, int[] fileIds, int[] lines) {
+        this.metric = metric;
+        this.total = total;
+        this.depthStarts = depthStarts;
+        this.xs = xs;
+        this.widths = widths;
+        this.values = values;
+        this.labels = labels;
+        this.fileIds = fileIds;
+        this.lines = lines;
+    }
+
+    /**
+     * Lays out the frames of all files
+     *
+     * @param profiled files of the profile
+     * @param files groups of each file by file id
+     * @param metric a total, so that a frame is the sum of its children
+     */
+    public static IcicleLayout compute(ProfileFiles profiled, FileGroups[] files, LockTable locks, Metric metric) {
+        if (metric.isDerived() || metric.isMax()) {
+            throw new IllegalArgumentException("Frames can not be sized by " + metric.getLabel());
+        }
+        long[] fileValues = new long[files.length];
+        long total = 0;
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            StatGroups scopes = files[fileId].scopes();
+            for (int group = 0; group < scopes.size(); group++) {
+                fileValues[fileId] += scopes.get(group, metric);
+            }
+            total += fileValues[fileId];
+        }
+
+        Frames[] frames = new Frames[DEPTHS];
+        for (int depth = 0; depth < DEPTHS; depth++) {
+            frames[depth] = new Frames();
+        }
+        double x = 0;
+        long[] fileKeys = new long[files.length];
+        for (int fileId = 0; fileId < files.length; fileId++) {
+            fileKeys[fileId] = ~fileValues[fileId];
+        }
+        int[] fileOrder = IndexSort.range(0, files.length);
+        IndexSort.sortByKey(fileOrder, fileKeys);
+        for (int fileId : fileOrder) {
+            ProgressManager.checkCanceled();
+            if (fileValues[fileId] == 0) {
+                break;
+            }
+            double width = (double) fileValues[fileId] / total;
+            frames[FILE_DEPTH].add(x, width, fileValues[fileId], profiled.file(fileId), fileId, 0);
+            addScopes(frames, files[fileId], fileId, x, total, locks, metric);
+            x += width;
+        }
+
+        int size = 0;
+        int[] depthStarts = new int[DEPTHS + 1];
+        for (int depth = 0; depth < DEPTHS; depth++) {
+            depthStarts[depth] = size;
+            size += frames[depth].size;
+        }
+        depthStarts[DEPTHS] = size;
+        double[] xs = new double[size];
+        double[] widths = new double[size];
+        long[] values = new long[size];
+        String[] labels = new String[size];
+        int[] fileIds = new int[size];
+        int[] lines = new int[size];
+        for (int depth = 0; depth < DEPTHS; depth++) {
+            Frames f = frames[depth];
+            int start = depthStarts[depth];
+            System.arraycopy(f.xs, 0, xs, start, f.size);
+            System.arraycopy(f.widths, 0, widths, start, f.size);
+            System.arraycopy(f.values, 0, values, start, f.size);
+            System.arraycopy(f.labels, 0, labels, start, f.size);
+            System.arraycopy(f.fileIds, 0, fileIds, start, f.size);
+            System.arraycopy(f.lines, 0, lines, start, f.size);
+        }
+        return new IcicleLayout(metric, total, depthStarts, xs, widths, values, labels, fileIds, lines);
+    }
+
+    private static void addScopes(Frames[] frames, FileGroups file, int fileId, double x, long total,
+                                  LockTable locks, Metric metric) {
+        LineTable table = file.table();
+        StatGroups scopes = file.scopes();
+        StatGroups lineGroups = file.lines();
+        for (int scope : scopes.sortDescending(IndexSort.range(0, scopes.size()), metric)) {
+            long scopeValue = scopes.get(scope, metric);
+            if (scopeValue == 0) {
+                break;
+            }
+            int[] scopeLines = new int[scopes.memberCount(scope)];
+            for (int i = 0; i < scopeLines.length; i++) {
+                scopeLines[i] = scopes.member(scope, i);
+            }
+            scopeLines = lineGroups.sortDescending(scopeLines, metric);
+            // The first profiled line of a scope is where it is navigated to
+            int firstLine = file.scopeStart(scope) > 0 ? file.scopeStart(scope) : file.line(scopes.member(scope, 0));
+            frames[SCOPE_DEPTH].add(x, (double) scopeValue / total, scopeValue, file.scopeLabel(scope), fileId,
+                    firstLine);
+
+            double lineX = x;
+            for (int line : scopeLines) {
+                long lineValue = lineGroups.get(line, metric);
+                if (lineValue == 0) {
+                    break;
+                }
+                int lineNumber = file.line(line);
+                frames[LINE_DEPTH].add(lineX, (double) lineValue / total, lineValue, "Line " + lineNumber, fileId,
+                        lineNumber);
+
+                int[] rows = new int[lineGroups.memberCount(line)];
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i] = lineGroups.member(line, i);
+                }
+                double lockX = lineX;
+                for (int row : table.sortDescending(rows, metric)) {
+                    long lockValue = table.get(row, metric);
+                    if (lockValue == 0) {
+                        break;
+                    }
+                    String name = locks.nameOf(table.lockHash(row));
+                    frames[LOCK_DEPTH].add(lockX, (double) lockValue / total, lockValue, name == null ? "?" : name,
+                            fileId, lineNumber);
+                    lockX += (double) lockValue / total;
+                }
+                lineX += (double) lineValue / total;
+            }
+            x += (double) scopeValue / total;
+        }
+    }
+
+    /**
+     * Growable frames of one depth
+     */
+    private static final class Frames {
+        double[] xs = new double[16];
+        double[] widths = new double[16];
+        long[] values = new long[16];
+        String[] labels = new String[16];
+        int[] fileIds = new int[16];
+        int[] lines = new int[16];
+        int size;
+
+        void add(double x, double width, long value, String label, int fileId, int line) {
+            if (size == xs.length) {
+                int capacity = size * 2;
+                xs = Arrays.copyOf(xs, capacity);
+                widths = Arrays.copyOf(widths, capacity);
+                values = Arrays.copyOf(values, capacity);
+                labels = Arrays.copyOf(labels, capacity);
+                fileIds = Arrays.copyOf(fileIds, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+            }
+            xs[size] = x;
+            widths[size] = width;
+            values[size] = value;
+            labels[size] = label;
+            fileIds[size] = fileId;
+            lines[size] = line;
+            size++;
+        }
+    }
+
+    public Metric metric() {
+        return metric;
+    }
+
+    /**
+     * @return metric summed over the profile, which is the width of the chart
+     */
+    public long total() {
+        return total;
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public int depthStart(int depth) {
+        return depthStarts[depth];
+    }
+
+    public int depthEnd(int depth) {
+        return depthStarts[depth + 1];
+    }
+
+    /**
+     * @return start of the frame as a fraction of the total
+     */
+    public double x(int frame) {
+        return xs[frame];
+    }
+
+    /**
+     * @return width of the frame as a fraction of the total
+     */
+    public double width(int frame) {
+        return widths[frame];
+    }
+
+    public long value(int frame) {
+        return values[frame];
+    }
+
+    public String label(int frame) {
+        return labels[frame];
+    }
+
+    public int fileId(int frame) {
+        return fileIds[frame];
+    }
+
+    /**
+     * @return line of the frame, starting at 1, 0 for a file
+     */
+    public int line(int frame) {
+        return lines[frame];
+    }
+
+    /**
+     * @return first frame of a depth that ends after `x`, or the end of the depth if there is none
+     */
+    public int firstEndingAfter(int depth, double x) {
+        int low = depthStarts[depth];
+        int high = depthStarts[depth + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (xs[mid] + widths[mid] <= x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return frame of a depth that contains `x`, -1 if there is none
+     */
+    public int frameAt(int depth, double x) {
+        int frame = firstEndingAfter(depth, x);
+        return frame < depthStarts[depth + 1] && xs[frame] <= x ? frame : -1;
+    }
+}
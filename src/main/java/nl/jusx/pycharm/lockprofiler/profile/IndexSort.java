@@ -0,0 +1,123 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.Arrays;
+
+/**
+ * Stable sort of row indices, so that columnar data can be ordered without boxing rows
+ */
+public final class IndexSort {
+    public interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    // Bits of a key that one pass of the radix sort orders by
+    private static final int RADIX_BITS = 16;
+    // Smaller arrays are sorted by comparing keys
+    private static final int MIN_RADIX_SORT = 1 << 12;
+
+    private IndexSort() {
+    }
+
+    /**
+     * @return array with the indices `from` up to `to` (exclusive)
+     */
+    public static int[] range(int from, int to) {
+        int[] idx = new int[to - from];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = from + i;
+        }
+        return idx;
+    }
+
+    /**
+     * Sorts the indices in place with a stable merge sort
+     */
+    public static void sort(int[] idx, IndexComparator cmp) {
+        if (idx.length < 2) {
+            return;
+        }
+        int[] tmp = idx.clone();
+        mergeSort(tmp, idx, 0, idx.length, cmp);
+    }
+
+    /**
+     * Sorts the indices in place by a key per index with a stable radix sort, which takes linear time
+     *
+     * @param keys key of each index, indexed by the values in `idx`
+     */
+    public static void sortByKey(int[] idx, long[] keys) {
+        if (idx.length < 2) {
+            return;
+        }
+        if (idx.length < MIN_RADIX_SORT) {
+            // Clearing the digit counts would cost more than comparing
+            sort(idx, (a, b) -> Long.compare(keys[a], keys[b]));
+            return;
+        }
+        int[] src = idx;
+        int[] dst = new int[idx.length];
+        int[] counts = new int[1 << RADIX_BITS];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i : src) {
+                counts[digit(keys[i], shift)]++;
+            }
+            if (counts[digit(keys[src[0]], shift)] == src.length) {
+                // All keys have the same digit, this pass would not change the order
+                continue;
+            }
+            int offset = 0;
+            for (int d = 0; d < counts.length; d++) {
+                int count = counts[d];
+                counts[d] = offset;
+                offset += count;
+            }
+            for (int i : src) {
+                dst[counts[digit(keys[i], shift)]++] = i;
+            }
+            int[] sorted = dst;
+            dst = src;
+            src = sorted;
+        }
+        if (src != idx) {
+            System.arraycopy(src, 0, idx, 0, idx.length);
+        }
+    }
+
+    // Digit of a key for a pass of the radix sort, signed keys are ordered by flipping the sign bit
+    private static int digit(long key, int shift) {
+        return (int) (((key ^ Long.MIN_VALUE) >>> shift) & ((1 << RADIX_BITS) - 1));
+    }
+
+    // Sorts src[from, to) into dst[from, to); both arrays start out with the same contents
+    private static void mergeSort(int[] src, int[] dst, int from, int to, IndexComparator cmp) {
+        int length = to - from;
+        if (length < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int v = dst[i];
+                int j = i - 1;
+                while (j >= from && cmp.compare(dst[j], v) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
+                }
+                dst[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(dst, src, from, mid, cmp);
+        mergeSort(dst, src, mid, to, cmp);
+
+        if (cmp.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, from, dst, from, length);
+            return;
+        }
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && cmp.compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+}
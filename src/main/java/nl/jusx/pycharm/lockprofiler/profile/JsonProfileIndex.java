@@ -0,0 +1,342 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.google.gson.stream.JsonReader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lazily decoded JSON .pclprof file
+ *
+ * Loading scans the file once without parsing it, recording the byte range of every file in `file_stats`.
+ * The stats of a file are decoded from its byte range when they are first requested, and are kept through a
+ * soft reference, so memory use scales with the files that are in use instead of with the whole profile.
+ */
+final class JsonProfileIndex extends ProfileFiles {
+    private static final Logger logger = Logger.getInstance(JsonProfileIndex.class.getName());
+
+    private final Path path;
+    // Size and modification time at indexing, byte ranges are only valid for this version of the file
+    private final long size;
+    private final long lastModified;
+
+    private final String[] files;
+    private final long[] starts;
+    private final long[] ends;
+    private final SoftReference<LineTable>[] decoded;
+    private SoftReference<LineTable> decodedAll = new SoftReference<>(null);
+
+    @SuppressWarnings("unchecked")
+    private JsonProfileIndex(Path path, long size, long lastModified, String[] files, long[] starts, long[] ends) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.files = files;
+        this.starts = starts;
+        this.ends = ends;
+        this.decoded = new SoftReference[files.length];
+    }
+
+    /**
+     * Indexes a JSON profile. The lock stats are decoded right away, the file stats are not.
+     */
+    static ProfileSchema load(Path path) throws IOException {
+        return load(path, null);
+    }
+
+    /**
+     * Indexes a JSON profile, updating `digest` with every byte of the file in the same read
+     */
+    static ProfileSchema load(Path path, @Nullable MessageDigest digest) throws IOException {
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+
+        Scanner scanner = new Scanner();
+        try (InputStream file = Files.newInputStream(path);
+             InputStream in = ProfileSchema.digesting(file, digest)) {
+            scanner.scan(in, size);
+        }
+
+        // Order files by path, like the rows of a LineTable
+        int numFiles = scanner.files.size();
+        int[] order = IndexSort.range(0, numFiles);
+        IndexSort.sort(order, (a, b) -> scanner.files.get(a).compareTo(scanner.files.get(b)));
+        String[] files = new String[numFiles];
+        long[] starts = new long[numFiles];
+        long[] ends = new long[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            files[i] = scanner.files.get(order[i]);
+            starts[i] = scanner.fileStarts[order[i]];
+            ends[i] = scanner.fileEnds[order[i]];
+        }
+        JsonProfileIndex index = new JsonProfileIndex(path, size, lastModified, files, starts, ends);
+
+        LockTable.Builder locks = new LockTable.Builder();
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        if (scanner.lockStatsStart >= 0) {
+            try (JsonReader reader = index.openRange(scanner.lockStatsStart, scanner.lockStatsEnd)) {
+                ProfileSchema.ProfileParser.readLockStatsMap(reader, locks, values);
+            }
+        }
+        if (scanner.lockHashesStart >= 0) {
+            try (JsonReader reader = index.openRange(scanner.lockHashesStart, scanner.lockHashesEnd)) {
+                ProfileSchema.ProfileParser.readLockHashes(reader, locks);
+            }
+        }
+        return new ProfileSchema(locks.build(), index);
+    }
+
+    @Override
+    public int fileCount() {
+        return files.length;
+    }
+
+    @Override
+    public String file(int fileId) {
+        return files[fileId];
+    }
+
+    @Override
+    public LineTable stats(int fileId) {
+        synchronized (this) {
+            LineTable all = decodedAll.get();
+            if (all != null) {
+                return all;
+            }
+            LineTable table = decoded[fileId] == null ? null : decoded[fileId].get();
+            if (table != null) {
+                return table;
+            }
+        }
+        // Decoded outside of the lock, so that several files of one profile can be decoded in parallel
+        LineTable table = decodeFile(fileId);
+        synchronized (this) {
+            decoded[fileId] = new SoftReference<>(table);
+        }
+        return table;
+    }
+
+    @Override
+    public synchronized LineTable all() {
+        LineTable all = decodedAll.get();
+        if (all == null) {
+            try {
+                checkUnchanged();
+                all = ProfileSchema.parseJson(path).file_stats.all();
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                logger.warn("Could not decode " + path, e);
+                all = new ArrayLineTable.Builder().build();
+            }
+            decodedAll = new SoftReference<>(all);
+            // Per file tables are no longer needed
+            Arrays.fill(decoded, null);
+        }
+        return all;
+    }
+
+    private LineTable decodeFile(int fileId) {
+        ArrayLineTable.Builder lines = new ArrayLineTable.Builder();
+        int tableFileId = lines.internFile(files[fileId]);
+        try (JsonReader reader = openRange(starts[fileId], ends[fileId])) {
+            checkUnchanged();
+            ProfileSchema.ProfileParser.readLineStats(reader, lines, tableFileId,
+                    new long[ProfileSchema.NUM_LOCK_STATS]);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            logger.warn("Could not decode stats of " + files[fileId] + " from " + path, e);
+            lines = new ArrayLineTable.Builder();
+            lines.internFile(files[fileId]);
+        }
+        return lines.build();
+    }
+
+    private void checkUnchanged() throws IOException {
+        if (Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != lastModified) {
+            throw new IOException("Profile was changed after it was loaded: " + path);
+        }
+    }
+
+    /**
+     * @return reader over the bytes [start, end) of the profile
+     */
+    private JsonReader openRange(long start, long end) throws IOException {
+        byte[] bytes = new byte[Math.toIntExact(end - start)];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, start + buf.position()) < 0) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+            }
+        }
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the byte ranges of the top level `lock_stats` and `lock_hashes` values and of every file in
+     * `file_stats`, by tracking strings and nesting depth only
+     */
+    private static final class Scanner {
+        private static final int MAX_DEPTH = 64;
+
+        final List<String> files = new ArrayList<>();
+        long[] fileStarts = new long[64];
+        long[] fileEnds = new long[64];
+        long lockStatsStart = -1;
+        long lockStatsEnd = -1;
+        long lockHashesStart = -1;
+        long lockHashesEnd = -1;
+
+        private final boolean[] isObject = new boolean[MAX_DEPTH + 1];
+        private final ByteArrayOutputStream key = new ByteArrayOutputStream();
+        private int depth;
+        private boolean expectKey;
+        private boolean inString;
+        private boolean inKey;
+        private boolean escape;
+        private boolean keyHasEscape;
+        private String topKey;
+        private long valueStart;
+
+        // Bytes that change the scanner state outside of strings
+        private static final boolean[] STRUCTURAL = new boolean[256];
+
+        static {
+            for (char c : new char[]{'"', '{', '}', '[', ']', ','}) {
+                STRUCTURAL[c] = true;
+            }
+        }
+
+        void scan(InputStream in, long total) throws IOException {
+            byte[] buf = new byte[1 << 16];
+            long base = 0;
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                int i = 0;
+                while (i < n) {
+                    // Skip numbers, whitespace and plain string contents without touching the state
+                    if (inString && !inKey && !escape) {
+                        while (i < n && buf[i] != '"' && buf[i] != '\\') {
+                            i++;
+                        }
+                    } else if (!inString) {
+                        while (i < n && !STRUCTURAL[buf[i] & 0xff]) {
+                            i++;
+                        }
+                    }
+                    if (i < n) {
+                        accept(buf[i], base + i);
+                        i++;
+                    }
+                }
+                base += n;
+                LoadProgress.report(base, total);
+            }
+            if (depth != 0 || inString) {
+                throw new IOException("Unexpected end of profile");
+            }
+        }
+
+        private void accept(byte c, long offset) throws IOException {
+            if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                    keyHasEscape = true;
+                } else if (c == '"') {
+                    inString = false;
+                    if (inKey) {
+                        onKey();
+                    }
+                    return;
+                }
+                if (inKey && depth <= 2) {
+                    key.write(c);
+                }
+                return;
+            }
+
+            switch (c) {
+                case '"':
+                    inString = true;
+                    inKey = expectKey;
+                    keyHasEscape = false;
+                    key.reset();
+                    break;
+                case '{':
+                case '[':
+                    if (depth == MAX_DEPTH) {
+                        throw new IOException("Profile is nested too deeply");
+                    }
+                    depth++;
+                    isObject[depth] = c == '{';
+                    expectKey = c == '{';
+                    if (depth == 2 || (depth == 3 && "file_stats".equals(topKey))) {
+                        valueStart = offset;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 3 && "file_stats".equals(topKey)) {
+                        int f = files.size() - 1;
+                        fileStarts[f] = valueStart;
+                        fileEnds[f] = offset + 1;
+                    } else if (depth == 2 && "lock_stats".equals(topKey)) {
+                        lockStatsStart = valueStart;
+                        lockStatsEnd = offset + 1;
+                    } else if (depth == 2 && "lock_hashes".equals(topKey)) {
+                        lockHashesStart = valueStart;
+                        lockHashesEnd = offset + 1;
+                    }
+                    depth--;
+                    expectKey = false;
+                    break;
+                case ',':
+                    expectKey = isObject[depth];
+                    break;
+                default:
+                    // ':', whitespace, numbers and literals
+            }
+        }
+
+        private void onKey() throws IOException {
+            expectKey = false;
+            if (depth == 1) {
+                topKey = keyString();
+            } else if (depth == 2 && "file_stats".equals(topKey)) {
+                if (files.size() == fileStarts.length) {
+                    fileStarts = Arrays.copyOf(fileStarts, files.size() * 2);
+                    fileEnds = Arrays.copyOf(fileEnds, files.size() * 2);
+                }
+                files.add(keyString());
+            }
+        }
+
+        private String keyString() throws IOException {
+            String raw = key.toString(StandardCharsets.UTF_8);
+            if (!keyHasEscape) {
+                return raw;
+            }
+            try (JsonReader reader = new JsonReader(new StringReader('"' + raw + '"'))) {
+                return reader.nextString();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Wait times of the profiled lines of one file, with the denominators they can be normalised by
+ *
+ * All denominators of the file are computed once, in one pass over the lines, so the fraction of a line is O(1) for
+ * every normalisation. Lines that are not in a function belong to the module level, which counts as one
+ * function of its own. The longest line of the project is only asked for when a line is normalised by it,
+ * as it takes a pass over all files.
+ */
+public final class LineFractions {
+    // Line numbers as written by the profiler, starting at 1, in ascending order
+    private final int[] lines;
+    private final long[] waits;
+    // Index of the innermost function of each line
+    private final int[] functions;
+    private final long[] functionTotals;
+    private final long[] functionMaxima;
+    private final long fileTotal;
+    private final LongSupplier projectMax;
+
+    private LineFractions(int[] lines, long[] waits, int[] functions, long[] functionTotals, long[] functionMaxima,
+                          long fileTotal, LongSupplier projectMax) {
+        this.lines = lines;
+        this.waits = waits;
+        this.functions = functions;
+        this.functionTotals = functionTotals;
+        this.functionMaxima = functionMaxima;
+        this.fileTotal = fileTotal;
+        this.projectMax = projectMax;
+    }
+
+    /**
+     * @param lines line numbers in ascending order
+     * @param waits wait time of each line
+     * @param functionStarts first line of each function, in ascending order
+     * @param functionEnds last line of each function
+     * @param projectMax longest wait time of a line in the whole profile, see {@link Profile#getMaxLineWait()},
+     *                   which should be cheap to call again once it has been called
+     */
+    public static LineFractions compute(int[] lines, long[] waits, int[] functionStarts, int[] functionEnds,
+                                        LongSupplier projectMax) {
+        int moduleLevel = functionStarts.length;
+        int[] functions = new int[lines.length];
+        long[] functionTotals = new long[moduleLevel + 1];
+        long[] functionMaxima = new long[moduleLevel + 1];
+        long fileTotal = 0;
+
+        // Functions that contain the current line, innermost on top. Nested functions start after their parent.
+        int[] open = new int[Math.max(1, functionStarts.length)];
+        int numOpen = 0;
+        int next = 0;
+        for (int i = 0; i < lines.length; i++) {
+            int line = lines[i];
+            while (next < functionStarts.length && functionStarts[next] <= line) {
+                while (numOpen > 0 && functionEnds[open[numOpen - 1]] < functionStarts[next]) {
+                    numOpen--;
+                }
+                open[numOpen++] = next++;
+            }
+            while (numOpen > 0 && functionEnds[open[numOpen - 1]] < line) {
+                numOpen--;
+            }
+            int function = numOpen > 0 ? open[numOpen - 1] : moduleLevel;
+            functions[i] = function;
+            functionTotals[function] += waits[i];
+            functionMaxima[function] = Math.max(functionMaxima[function], waits[i]);
+            fileTotal += waits[i];
+        }
+        return new LineFractions(lines, waits, functions, functionTotals, functionMaxima, fileTotal, projectMax);
+    }
+
+    public int size() {
+        return lines.length;
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public long wait(int i) {
+        return waits[i];
+    }
+
+    public long fileTotal() {
+        return fileTotal;
+    }
+
+    public long functionTotal(int i) {
+        return functionTotals[functions[i]];
+    }
+
+    public long functionMax(int i) {
+        return functionMaxima[functions[i]];
+    }
+
+    public long projectMax() {
+        return projectMax.getAsLong();
+    }
+
+    /**
+     * @return `wait` divided by `denominator`, 0 if the denominator is 0
+     */
+    public static float fraction(long wait, long denominator) {
+        return denominator == 0 ? 0 : (float) wait / denominator;
+    }
+}
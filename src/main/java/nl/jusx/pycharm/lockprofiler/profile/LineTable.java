@@ -0,0 +1,91 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * Statistics per (file, line, lock), sorted by (file, line, lock hash)
+ *
+ * Files are interned: rows refer to a file by its id, and all rows of a file form one contiguous slice.
+ */
+public abstract class LineTable extends StatColumns {
+    public abstract int fileCount();
+
+    /**
+     * @return path of the file with the given id
+     */
+    public abstract String file(int fileId);
+
+    /**
+     * @return first row of the file
+     */
+    public abstract int fileStart(int fileId);
+
+    /**
+     * @return row after the last row of the file
+     */
+    public abstract int fileEnd(int fileId);
+
+    public abstract int fileId(int row);
+
+    /**
+     * @return line number as written by the profiler, starting at 1
+     */
+    public abstract int line(int row);
+
+    public abstract long lockHash(int row);
+
+    /**
+     * Finds the id of a file. File ids are assigned in path order.
+     *
+     * @return file id, or a negative value if the file is not in this table
+     */
+    public int findFile(String path) {
+        int lo = 0;
+        int hi = fileCount() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = file(mid).compareTo(path);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * @return row after the last row that has the same file and line as `row`
+     */
+    public int lineEnd(int row) {
+        int fileId = fileId(row);
+        int line = line(row);
+        int end = fileEnd(fileId);
+        int next = row + 1;
+        while (next < end && line(next) == line) {
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * @return cursor over all rows
+     */
+    public StatsCursor cursor() {
+        return new StatsCursor(this, 0, size());
+    }
+
+    /**
+     * @return cursor over the rows of one file
+     */
+    public StatsCursor cursor(int fileId) {
+        return new StatsCursor(this, fileStart(fileId), fileEnd(fileId));
+    }
+
+    /**
+     * @return cursor over a range of rows
+     */
+    public StatsCursor cursor(int start, int end) {
+        return new StatsCursor(this, start, end);
+    }
+}
@@ -0,0 +1,235 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.google.gson.stream.JsonReader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Profile of a process that is still running, built from an append-only delta log
+ *
+ * Every line of the log is a JSON object with the same schema as a .pclprof file, holding the stats that changed
+ * since the previous line. Counts and totals of a delta are added, maxima take the max. Only bytes that were
+ * appended since the last {@link #update()} are read, and only files that changed are rebuilt.
+ */
+public final class LiveProfile {
+    // Upper bound of log bytes merged per update, so a single update stays short after a burst of deltas
+    private static final int MAX_BYTES_PER_UPDATE = 16 << 20;
+
+    private final Path deltaLog;
+    private long position;
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+    private final RowAccumulator locks = new RowAccumulator();
+    private final Map<Long, String> lockNames = new HashMap<>();
+    private final Map<String, RowAccumulator> files = new HashMap<>();
+    private final Map<String, LineTable> fileTables = new HashMap<>();
+    private final Set<String> changedFiles = new HashSet<>();
+    private boolean changed;
+
+    public LiveProfile(Path deltaLog) {
+        this.deltaLog = deltaLog;
+    }
+
+    /**
+     * Result of an update: the merged profile so far, the files that changed since the previous update and the
+     * files that are no longer in the profile because the log was truncated
+     */
+    public static final class Update {
+        public final ProfileSchema schema;
+        public final List<String> changedFiles;
+        public final List<String> removedFiles;
+
+        Update(ProfileSchema schema, List<String> changedFiles, List<String> removedFiles) {
+            this.schema = schema;
+            this.changedFiles = changedFiles;
+            this.removedFiles = removedFiles;
+        }
+    }
+
+    /**
+     * Merges the deltas that were appended to the log since the previous update
+     *
+     * @return the update, or null if nothing changed
+     * @throws IOException if a delta is malformed. The other deltas are merged, and are part of the next update.
+     */
+    @Nullable
+    public synchronized Update update() throws IOException {
+        readAppended();
+        if (!changed) {
+            return null;
+        }
+        changed = false;
+
+        LockTable.Builder lockBuilder = new LockTable.Builder();
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        for (int row = 0; row < locks.size(); row++) {
+            locks.values(row, values);
+            lockBuilder.addStats(locks.lockHash(row), values);
+        }
+        lockNames.forEach(lockBuilder::addName);
+
+        // Only the tables of files that changed are rebuilt, the others are shared with the previous update
+        List<String> changedList = new ArrayList<>();
+        List<String> removedList = new ArrayList<>();
+        for (String file : changedFiles) {
+            RowAccumulator rows = files.get(file);
+            if (rows == null) {
+                // Profiled before the log was truncated, and not since
+                fileTables.remove(file);
+                removedList.add(file);
+                continue;
+            }
+            changedList.add(file);
+            ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+            int fileId = builder.internFile(file);
+            for (int row = 0; row < rows.size(); row++) {
+                rows.values(row, values);
+                builder.add(fileId, rows.line(row), rows.lockHash(row), values);
+            }
+            fileTables.put(file, builder.build());
+        }
+        changedFiles.clear();
+
+        String[] paths = fileTables.keySet().toArray(new String[0]);
+        Arrays.sort(paths);
+        LineTable[] tables = new LineTable[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            tables[i] = fileTables.get(paths[i]);
+        }
+        return new Update(new ProfileSchema(lockBuilder.build(), new FileTables(paths, tables)), changedList,
+                removedList);
+    }
+
+    private void readAppended() throws IOException {
+        try (FileChannel channel = FileChannel.open(deltaLog, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < position) {
+                // The log was truncated, so the process was restarted
+                reset();
+            }
+            long end = Math.min(size, position + MAX_BYTES_PER_UPDATE);
+            ByteBuffer buf = ByteBuffer.allocate((int) (end - position));
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    break;
+                }
+            }
+            position += buf.position();
+
+            byte[] bytes = buf.array();
+            int lineStart = 0;
+            IOException malformed = null;
+            for (int i = 0; i < buf.position(); i++) {
+                if (bytes[i] == '\n') {
+                    partialLine.write(bytes, lineStart, i - lineStart);
+                    byte[] line = partialLine.toByteArray();
+                    partialLine.reset();
+                    lineStart = i + 1;
+                    try {
+                        mergeLine(line);
+                    } catch (IOException e) {
+                        // Skipped, so that the deltas after it are still merged, and reported once they are
+                        if (malformed == null) {
+                            malformed = e;
+                        } else {
+                            malformed.addSuppressed(e);
+                        }
+                    }
+                }
+            }
+            // A line that is still being written is kept until its newline arrives
+            partialLine.write(bytes, lineStart, buf.position() - lineStart);
+            if (malformed != null) {
+                throw malformed;
+            }
+        } catch (NoSuchFileException e) {
+            // The process did not write a delta yet
+        }
+    }
+
+    private void reset() {
+        position = 0;
+        partialLine.reset();
+        changedFiles.addAll(fileTables.keySet());
+        files.clear();
+        fileTables.clear();
+        lockNames.clear();
+        locks.clear();
+        changed = true;
+    }
+
+    private void mergeLine(byte[] line) throws IOException {
+        if (line.length == 0 || (line.length == 1 && line[0] == '\r')) {
+            return;
+        }
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        try (JsonReader in = new JsonReader(new InputStreamReader(new ByteArrayInputStream(line), StandardCharsets.UTF_8))) {
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "lock_stats":
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            long lockHash = Long.parseLong(in.nextName());
+                            ProfileSchema.ProfileParser.readLockStats(in, values);
+                            locks.merge(0, lockHash, values);
+                        }
+                        in.endObject();
+                        break;
+                    case "lock_hashes":
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            long lockHash = Long.parseLong(in.nextName());
+                            lockNames.put(lockHash, in.nextString());
+                        }
+                        in.endObject();
+                        break;
+                    case "file_stats":
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            String file = in.nextName();
+                            RowAccumulator rows = files.computeIfAbsent(file, f -> new RowAccumulator());
+                            in.beginObject();
+                            while (in.hasNext()) {
+                                int lineNo = Integer.parseInt(in.nextName());
+                                in.beginObject();
+                                while (in.hasNext()) {
+                                    long lockHash = Long.parseLong(in.nextName());
+                                    ProfileSchema.ProfileParser.readLockStats(in, values);
+                                    rows.merge(lineNo, lockHash, values);
+                                }
+                                in.endObject();
+                            }
+                            in.endObject();
+                            changedFiles.add(file);
+                        }
+                        in.endObject();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            changed = true;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed delta in " + deltaLog, e);
+        }
+    }
+}
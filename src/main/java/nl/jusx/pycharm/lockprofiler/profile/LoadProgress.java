@@ -0,0 +1,65 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reports loading progress to the progress indicator of the current thread, if there is one,
+ * and makes loading cancellable
+ */
+final class LoadProgress {
+    private LoadProgress() {
+    }
+
+    /**
+     * @throws com.intellij.openapi.progress.ProcessCanceledException if loading was cancelled
+     */
+    static void report(long done, long total) {
+        ProgressManager.checkCanceled();
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        if (indicator != null && total > 0) {
+            indicator.setFraction(Math.min(1.0, (double) done / total));
+        }
+    }
+
+    /**
+     * Stream that reports every megabyte of bytes read, out of a total of `total` bytes
+     */
+    static InputStream reporting(InputStream in, long total) {
+        return new FilterInputStream(in) {
+            private static final int REPORT_INTERVAL = 1 << 20;
+            private long read;
+            private long nextReport = REPORT_INTERVAL;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    count(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    count(n);
+                }
+                return n;
+            }
+
+            private void count(int n) {
+                read += n;
+                if (read >= nextReport) {
+                    nextReport = read + REPORT_INTERVAL;
+                    report(read, total);
+                }
+            }
+        };
+    }
+}
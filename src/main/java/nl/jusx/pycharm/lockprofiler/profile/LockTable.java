@@ -0,0 +1,135 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Total statistics per lock, sorted by lock hash
+ */
+public final class LockTable extends StatColumns {
+    private final long[] hashes;
+    private final String[] names;
+    private final long[][] columns;
+
+    LockTable(long[] hashes, String[] names, long[][] columns) {
+        this.hashes = hashes;
+        this.names = names;
+        this.columns = columns;
+    }
+
+    @Override
+    public int size() {
+        return hashes.length;
+    }
+
+    @Override
+    protected long stored(int row, int column) {
+        return columns[column][row];
+    }
+
+    public long hash(int row) {
+        return hashes[row];
+    }
+
+    @Nullable
+    public String name(int row) {
+        return names[row];
+    }
+
+    /**
+     * @return row of the lock, or a negative value if the lock is not in this table
+     */
+    public int indexOf(long lockHash) {
+        return Arrays.binarySearch(hashes, lockHash);
+    }
+
+    @Nullable
+    public String nameOf(long lockHash) {
+        int row = indexOf(lockHash);
+        return row < 0 ? null : names[row];
+    }
+
+    /**
+     * Collects lock stats and lock names, which are listed separately in a .pclprof file
+     */
+    public static final class Builder {
+        private long[] statHashes = new long[16];
+        private long[][] statColumns = newColumns(16);
+        private int numStats;
+
+        private long[] nameHashes = new long[16];
+        private String[] nameValues = new String[16];
+        private int numNames;
+
+        public void addStats(long lockHash, long[] values) {
+            if (numStats == statHashes.length) {
+                statHashes = Arrays.copyOf(statHashes, numStats * 2);
+                statColumns = growColumns(statColumns, numStats * 2);
+            }
+            statHashes[numStats] = lockHash;
+            storeRow(statColumns, numStats, values);
+            numStats++;
+        }
+
+        public void addName(long lockHash, String name) {
+            if (numNames == nameHashes.length) {
+                nameHashes = Arrays.copyOf(nameHashes, numNames * 2);
+                nameValues = Arrays.copyOf(nameValues, numNames * 2);
+            }
+            nameHashes[numNames] = lockHash;
+            nameValues[numNames] = name;
+            numNames++;
+        }
+
+        /**
+         * Joins stats and names on lock hash. Locks that only have a name get zero stats,
+         * locks that only have stats are named by their hash.
+         */
+        public LockTable build() {
+            long[] sh = statHashes;
+            long[] nh = nameHashes;
+            int[] statOrder = IndexSort.range(0, numStats);
+            IndexSort.sort(statOrder, (a, b) -> Long.compare(sh[a], sh[b]));
+            int[] nameOrder = IndexSort.range(0, numNames);
+            IndexSort.sort(nameOrder, (a, b) -> Long.compare(nh[a], nh[b]));
+
+            int capacity = numStats + numNames;
+            long[] hashes = new long[capacity];
+            String[] names = new String[capacity];
+            long[][] columns = newColumns(capacity);
+            int size = 0;
+            int s = 0;
+            int n = 0;
+            while (s < numStats || n < numNames) {
+                long hash;
+                if (n >= numNames || (s < numStats && sh[statOrder[s]] <= nh[nameOrder[n]])) {
+                    hash = sh[statOrder[s]];
+                } else {
+                    hash = nh[nameOrder[n]];
+                }
+                hashes[size] = hash;
+                // Duplicate entries for a lock are collapsed, the last one wins
+                while (s < numStats && sh[statOrder[s]] == hash) {
+                    for (int c = 0; c < Metric.STORED; c++) {
+                        columns[c][size] = statColumns[c][statOrder[s]];
+                    }
+                    s++;
+                }
+                while (n < numNames && nh[nameOrder[n]] == hash) {
+                    names[size] = nameValues[nameOrder[n]];
+                    n++;
+                }
+                if (names[size] == null) {
+                    names[size] = Long.toString(hash);
+                }
+                size++;
+            }
+
+            for (int c = 0; c < Metric.STORED; c++) {
+                columns[c] = Arrays.copyOf(columns[c], size);
+            }
+            return new LockTable(Arrays.copyOf(hashes, size), Arrays.copyOf(names, size), columns);
+        }
+    }
+}
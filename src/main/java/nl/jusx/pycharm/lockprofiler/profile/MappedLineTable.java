@@ -0,0 +1,95 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link LineTable} that reads its rows from a memory-mapped binary profile, see {@link BinaryProfileFormat}
+ *
+ * Only the file index lives on the heap. The file of a row is looked up in the file index, which was checked when
+ * the profile was read, rather than taken from the row record.
+ */
+final class MappedLineTable extends LineTable {
+    static final int SEGMENT_SHIFT = 24;
+    static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_ROWS - 1;
+
+    private static final int LINE_OFFSET = 4;
+    private static final int LOCK_HASH_OFFSET = 8;
+    private static final int COLUMNS_OFFSET = 16;
+
+    private final String[] files;
+    private final int[] fileStarts;
+    private final ByteBuffer[] segments;
+    private final int size;
+
+    MappedLineTable(String[] files, int[] fileStarts, int size, ByteBuffer[] segments) {
+        this.files = files;
+        this.fileStarts = fileStarts;
+        this.size = size;
+        this.segments = segments;
+    }
+
+    private ByteBuffer segment(int row) {
+        return segments[row >>> SEGMENT_SHIFT];
+    }
+
+    private static int offset(int row) {
+        return (row & SEGMENT_MASK) * BinaryProfileFormat.ROW_RECORD_SIZE;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    protected long stored(int row, int column) {
+        return segment(row).getLong(offset(row) + COLUMNS_OFFSET + 8 * column);
+    }
+
+    @Override
+    public int fileCount() {
+        return files.length;
+    }
+
+    @Override
+    public String file(int fileId) {
+        return files[fileId];
+    }
+
+    @Override
+    public int fileStart(int fileId) {
+        return fileStarts[fileId];
+    }
+
+    @Override
+    public int fileEnd(int fileId) {
+        return fileStarts[fileId + 1];
+    }
+
+    @Override
+    public int fileId(int row) {
+        // Last file that starts at or before the row, which skips the empty files before it
+        int low = 0;
+        int high = files.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (fileStarts[mid] <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int line(int row) {
+        return segment(row).getInt(offset(row) + LINE_OFFSET);
+    }
+
+    @Override
+    public long lockHash(int row) {
+        return segment(row).getLong(offset(row) + LOCK_HASH_OFFSET);
+    }
+}
@@ -0,0 +1,68 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * The statistics that are kept per lock and per (line, lock), in .pclprof order
+ *
+ * The averages are not stored, they are derived from their total and the number of acquires or blocks.
+ */
+public enum Metric {
+    HITS("Hits", 0),
+    ACQUIRES("Acquires", 1),
+    BLOCKS("Blocks", 2),
+    TOTAL_WAIT("Total Wait", 3),
+    AVG_WAIT("Avg Wait", 3, 1),
+    MAX_WAIT("Max Wait", 4),
+    TOTAL_HOLD("Total Hold", 5),
+    AVG_HOLD("Avg Hold", 5, 1),
+    MAX_HOLD("Max Hold", 6),
+    TOTAL_BLOCK("Total Block", 7),
+    AVG_BLOCK("Avg Block", 7, 2),
+    MAX_BLOCK("Max Block", 8);
+
+    /** Number of metrics that are stored, the others are derived */
+    public static final int STORED = 9;
+
+    private static final Metric[] VALUES = values();
+
+    private final String label;
+    // Index of the stored column, or of the total for a derived average
+    final int column;
+    // Index of the stored count column a derived average is divided by, -1 for stored metrics
+    final int countColumn;
+
+    Metric(String label, int column) {
+        this(label, column, -1);
+    }
+
+    Metric(String label, int column, int countColumn) {
+        this.label = label;
+        this.column = column;
+        this.countColumn = countColumn;
+    }
+
+    public static Metric fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public boolean isDerived() {
+        return countColumn >= 0;
+    }
+
+    /**
+     * @return whether the metric is a maximum, which is combined by taking the max instead of the sum
+     */
+    public boolean isMax() {
+        return this == MAX_WAIT || this == MAX_HOLD || this == MAX_BLOCK;
+    }
+
+    /**
+     * @return whether the metric is a time in nanoseconds, as opposed to a count
+     */
+    public boolean isTime() {
+        return ordinal() >= TOTAL_WAIT.ordinal();
+    }
+}
@@ -6,25 +6,75 @@ import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
-import java.util.Map;
 
 public class Profile {
     private static final Logger logger = Logger.getInstance(Profile.class.getName());
     public final ProfileSchema schema;
+    // Longest wait time of a line over all files, -1 until it is computed
+    private volatile long maxLineWait = -1;
 
     private Profile(ProfileSchema schema, @Nullable String rootDirectory) {
         this.schema = schema;
     }
 
-    public Map<String, Map<Integer, Map<Long, ProfileSchema.LockStats>>> getProfiledFiles() {
+    /**
+     * @return the profiled files, of which the stats are decoded per file when first requested
+     */
+    public ProfileFiles getProfiledFiles() {
         return schema.file_stats;
     }
 
+    public LockTable getLockStats() {
+        return schema.lock_stats;
+    }
+
+    /**
+     * Returns the longest wait time of a line, summed over its locks, over all profiled files
+     *
+     * Computed once, in one pass over the stats of all files, later calls do not lock.
+     */
+    public long getMaxLineWait() {
+        long max = maxLineWait;
+        return max < 0 ? computeMaxLineWait() : max;
+    }
+
+    private synchronized long computeMaxLineWait() {
+        if (maxLineWait < 0) {
+            long max = 0;
+            ProfileFiles profiledFiles = getProfiledFiles();
+            for (int fileId = 0; fileId < profiledFiles.fileCount(); fileId++) {
+                StatsCursor cursor = profiledFiles.cursor(fileId);
+                while (cursor.nextLine()) {
+                    max = Math.max(max, lineWait(cursor));
+                }
+            }
+            maxLineWait = max;
+        }
+        return maxLineWait;
+    }
+
+    /**
+     * @return wait time of the line the cursor is on, summed over its locks
+     */
+    public static long lineWait(StatsCursor cursor) {
+        long wait = 0;
+        for (int row = cursor.row(); row < cursor.lineEnd(); row++) {
+            wait += cursor.table().get(row, Metric.TOTAL_WAIT);
+        }
+        return wait;
+    }
+
+    public static Profile fromSchema(ProfileSchema schema) {
+        return new Profile(schema, null);
+    }
+
     /**
      * Loads a .pclprof file into a Profile object
      *
      * The .pclprof file must have been created with our own python helper package line-profiler-pycharm.
-     * The .pclprof file contains Json data and is parsed with the gson library
+     * The .pclprof file contains Json data and is parsed with the gson library, or it has been converted to
+     * the binary format of {@link BinaryProfileFormat}, in which case it is memory-mapped. The format is
+     * detected by the magic bytes at the start of the file.
      *
      * @param profileFile .pclprof file to load
      * @return Profile object from .pclprof file
@@ -44,6 +94,23 @@ public class Profile {
         return fromPclprof(profileFile.toString(), profileFile.getParent().toString());
     }
 
+    /**
+     * Loads a .pclprof file through a cache of parsed profiles
+     *
+     * @param cache cache to load the profile through, null to load it directly
+     */
+    @Nullable
+    public static Profile fromPclprof(Path profileFile, @Nullable ProfileCache cache) {
+        if (cache == null) {
+            return fromPclprof(profileFile);
+        }
+        ProfileSchema data = cache.load(profileFile);
+        if (data == null) {
+            return null;
+        }
+        return new Profile(data, profileFile.getParent().toString());
+    }
+
     @Nullable
     public static Profile fromPclprof(VirtualFile profileFile) {
         return fromPclprof(profileFile.getPath(), profileFile.getParent().getPath());
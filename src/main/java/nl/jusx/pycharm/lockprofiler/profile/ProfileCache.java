@@ -0,0 +1,257 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of parsed JSON profiles, stored in the binary format of {@link BinaryProfileFormat}
+ *
+ * Entries are keyed by the content hash of a profile. A small key file maps (path, size, modification time)
+ * to that content hash, so a profile that did not change is found without reading it. A profile that was copied
+ * or touched is hashed once and then finds its existing entry.
+ *
+ * On a miss the profile is indexed and hashed in a single read, and its entry is written from the index in the
+ * background, decoding one file at a time. Entries are evicted least recently used first once they take more
+ * than the size budget; an entry's modification time is its last use.
+ */
+public final class ProfileCache {
+    private static final Logger logger = Logger.getInstance(ProfileCache.class.getName());
+    private static final String ENTRY_SUFFIX = ".pclprof";
+    private static final String KEY_SUFFIX = ".key";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Executor writer;
+    // Content hashes of entries that are being written
+    private final Set<String> writing = new HashSet<>();
+
+    /**
+     * @param maxBytes size budget of all entries together
+     * @param writer executor that writes new entries
+     */
+    public ProfileCache(Path directory, long maxBytes, Executor writer) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the cached profile of a file that did not change since it was cached, without reading the file
+     *
+     * @return cached profile, or null if the file is not cached
+     */
+    @Nullable
+    public ProfileSchema get(Path profile) {
+        try {
+            Path keyFile = directory.resolve(key(profile) + KEY_SUFFIX);
+            if (!Files.exists(keyFile)) {
+                return null;
+            }
+            String contentHash = Files.readString(keyFile, StandardCharsets.US_ASCII).trim();
+            return read(contentHash);
+        } catch (IOException e) {
+            logger.warn("Could not read cached profile of " + profile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads a profile from the cache, or indexes it and caches it in the background
+     *
+     * @return profile, or null if it could not be loaded
+     */
+    @Nullable
+    public ProfileSchema load(Path profile) {
+        if (BinaryProfileFormat.isBinaryProfile(profile)) {
+            // Binary profiles are already as fast to open as a cache entry
+            return ProfileSchema.FromFile(profile.toString());
+        }
+        ProfileSchema cached = get(profile);
+        if (cached != null) {
+            return cached;
+        }
+
+        String key;
+        String contentHash;
+        ProfileSchema schema;
+        try {
+            key = key(profile);
+            MessageDigest digest = sha256();
+            // Indexed like an uncached profile, so its files are only decoded when they are used. A compressed
+            // profile can not be indexed and is parsed, as it is without the cache.
+            schema = ProfileSchema.isCompressed(profile) ? ProfileSchema.parseJson(profile, digest)
+                    : JsonProfileIndex.load(profile, digest);
+            contentHash = hex(digest.digest());
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not load profile " + profile, e);
+            return null;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(directory.resolve(key + KEY_SUFFIX), contentHash, StandardCharsets.US_ASCII);
+            // A copy of a cached profile keeps using the existing entry
+            if (!Files.exists(directory.resolve(contentHash + ENTRY_SUFFIX))) {
+                scheduleWrite(profile, key, contentHash, schema);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not cache profile " + profile, e);
+        }
+        return schema;
+    }
+
+    @Nullable
+    private ProfileSchema read(String contentHash) throws IOException {
+        Path entry = directory.resolve(contentHash + ENTRY_SUFFIX);
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Evicted or not written yet
+            return null;
+        }
+        return BinaryProfileFormat.read(entry);
+    }
+
+    private void scheduleWrite(Path profile, String key, String contentHash, ProfileSchema schema) {
+        synchronized (writing) {
+            if (!writing.add(contentHash)) {
+                return;
+            }
+        }
+        writer.execute(() -> {
+            Path entry = directory.resolve(contentHash + ENTRY_SUFFIX);
+            Path tmp = directory.resolve(contentHash + ".tmp");
+            try {
+                if (!key.equals(key(profile))) {
+                    // The profile changed while it was indexed
+                    return;
+                }
+                BinaryProfileFormat.write(schema, tmp);
+                if (!key.equals(key(profile))) {
+                    // The profile changed while its files were decoded, which left them empty
+                    return;
+                }
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                evict();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not cache profile " + profile, e);
+            } finally {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    logger.warn("Could not remove " + tmp, e);
+                }
+                synchronized (writing) {
+                    writing.remove(contentHash);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes least recently used entries until the entries fit the size budget, and key files of removed entries
+     */
+    void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<Path> keys = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    entries.add(file);
+                } else if (name.endsWith(KEY_SUFFIX)) {
+                    keys.add(file);
+                }
+            });
+        }
+
+        long[] lastUsed = new long[entries.size()];
+        long[] sizes = new long[entries.size()];
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                lastUsed[i] = Files.getLastModifiedTime(entries.get(i)).toMillis();
+                sizes[i] = Files.size(entries.get(i));
+            } catch (IOException e) {
+                // Removed meanwhile, or unreadable, it is not counted and evicted last
+                logger.info("Could not read " + entries.get(i) + ": " + e.getMessage());
+                lastUsed[i] = Long.MAX_VALUE;
+                sizes[i] = 0;
+            }
+            total += sizes[i];
+        }
+        int[] order = IndexSort.range(0, entries.size());
+        IndexSort.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            try {
+                Files.delete(entries.get(order[i]));
+                total -= sizes[order[i]];
+            } catch (IOException e) {
+                // An entry that is still mapped can not be removed on every platform
+                logger.info("Could not evict " + entries.get(order[i]) + ": " + e.getMessage());
+            }
+        }
+
+        for (Path keyFile : keys) {
+            try {
+                String contentHash = Files.readString(keyFile, StandardCharsets.US_ASCII).trim();
+                if (!Files.exists(directory.resolve(contentHash + ENTRY_SUFFIX)) && !isWriting(contentHash)) {
+                    Files.deleteIfExists(keyFile);
+                }
+            } catch (IOException e) {
+                logger.info("Could not check " + keyFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isWriting(String contentHash) {
+        synchronized (writing) {
+            return writing.contains(contentHash);
+        }
+    }
+
+    /**
+     * @return hash of the path, size and modification time of a profile
+     */
+    private static String key(Path profile) throws IOException {
+        MessageDigest digest = sha256();
+        String key = profile.toAbsolutePath() + "\0" + Files.size(profile) + "\0" +
+                Files.getLastModifiedTime(profile).toMillis();
+        return hex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,239 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Differences between a base profile and another profile of the same program
+ *
+ * Locks are matched by name, because lock hashes differ between runs. Locks that share a name within one
+ * profile are summed, locks without a name can not be matched and each get a row of their own. Lines are matched by (file, line), with the stats of all locks of a line summed.
+ * Both joins are linear: locks through a hash map on name, lines with a merge of the files and lines that
+ * both profiles already keep sorted.
+ */
+public final class ProfileDiff {
+    /**
+     * Metrics that are compared
+     */
+    public static final Metric[] METRICS = {Metric.HITS, Metric.TOTAL_WAIT, Metric.TOTAL_HOLD, Metric.TOTAL_BLOCK};
+
+    private final Rows locks;
+    private final String[] lockNames;
+
+    private final Rows lines;
+    private final String[] files;
+    // Rows of file `f` are fileStarts[f] until fileStarts[f + 1]
+    private final int[] fileStarts;
+    private final int[] lineNumbers;
+
+    private ProfileDiff(Rows locks, String[] lockNames, Rows lines, String[] files, int[] fileStarts, int[] lineNumbers) {
+        this.locks = locks;
+        this.lockNames = lockNames;
+        this.lines = lines;
+        this.files = files;
+        this.fileStarts = fileStarts;
+        this.lineNumbers = lineNumbers;
+    }
+
+    public int lockCount() {
+        return locks.size;
+    }
+
+    /**
+     * @return name of a lock, null for a lock without a name
+     */
+    @Nullable
+    public String lockName(int row) {
+        return lockNames[row];
+    }
+
+    public long lockBase(int row, int metric) {
+        return locks.base[metric][row];
+    }
+
+    public long lockOther(int row, int metric) {
+        return locks.other[metric][row];
+    }
+
+    public int fileCount() {
+        return files.length;
+    }
+
+    public String file(int fileId) {
+        return files[fileId];
+    }
+
+    public int fileStart(int fileId) {
+        return fileStarts[fileId];
+    }
+
+    public int fileEnd(int fileId) {
+        return fileStarts[fileId + 1];
+    }
+
+    /**
+     * @return file of a line row
+     */
+    public int fileId(int row) {
+        int low = 0;
+        int high = files.length - 1;
+        // Last file that starts at or before the row, files without rows start where the next file does
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (fileStarts[mid] <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int lineCount() {
+        return lines.size;
+    }
+
+    public int line(int row) {
+        return lineNumbers[row];
+    }
+
+    public long lineBase(int row, int metric) {
+        return lines.base[metric][row];
+    }
+
+    public long lineOther(int row, int metric) {
+        return lines.other[metric][row];
+    }
+
+    /**
+     * Relative change from `base` to `other`
+     *
+     * @return fraction of base, infinite if only `other` is non-zero
+     */
+    public static double relative(long base, long other) {
+        if (base == 0) {
+            return other == 0 ? 0 : Math.signum(other) * Double.POSITIVE_INFINITY;
+        }
+        return (double) (other - base) / base;
+    }
+
+    /**
+     * Compares two profiles, `base` being the earlier run
+     */
+    public static ProfileDiff compare(ProfileSchema base, ProfileSchema other) {
+        Rows locks = new Rows();
+        Map<String, Integer> lockRows = new HashMap<>();
+        String[] lockNames = new String[16];
+        for (int side = 0; side < 2; side++) {
+            LockTable lockStats = side == 0 ? base.lock_stats : other.lock_stats;
+            for (int row = 0; row < lockStats.size(); row++) {
+                String name = lockStats.name(row);
+                Integer diffRow = name == null ? null : lockRows.get(name);
+                if (diffRow == null) {
+                    diffRow = locks.add();
+                    if (name != null) {
+                        lockRows.put(name, diffRow);
+                    }
+                    if (diffRow == lockNames.length) {
+                        lockNames = Arrays.copyOf(lockNames, diffRow * 2);
+                    }
+                    lockNames[diffRow] = name;
+                }
+                locks.addStats(side, diffRow, lockStats, row);
+            }
+        }
+
+        Rows lines = new Rows();
+        int[] lineNumbers = new int[16];
+        ProfileFiles baseFiles = base.file_stats;
+        ProfileFiles otherFiles = other.file_stats;
+        String[] files = new String[baseFiles.fileCount() + otherFiles.fileCount()];
+        int[] fileStarts = new int[files.length + 1];
+        int numFiles = 0;
+        int b = 0;
+        int o = 0;
+        while (b < baseFiles.fileCount() || o < otherFiles.fileCount()) {
+            LoadProgress.report(b + o, files.length);
+            int cmp;
+            if (b == baseFiles.fileCount()) {
+                cmp = 1;
+            } else if (o == otherFiles.fileCount()) {
+                cmp = -1;
+            } else {
+                cmp = baseFiles.file(b).compareTo(otherFiles.file(o));
+            }
+            files[numFiles] = cmp <= 0 ? baseFiles.file(b) : otherFiles.file(o);
+            fileStarts[numFiles] = lines.size;
+            StatsCursor baseCursor = cmp <= 0 ? baseFiles.cursor(b++) : null;
+            StatsCursor otherCursor = cmp >= 0 ? otherFiles.cursor(o++) : null;
+            boolean baseValid = baseCursor != null && baseCursor.nextLine();
+            boolean otherValid = otherCursor != null && otherCursor.nextLine();
+            while (baseValid || otherValid) {
+                int line;
+                if (!otherValid || (baseValid && baseCursor.line() < otherCursor.line())) {
+                    line = baseCursor.line();
+                } else {
+                    line = otherCursor.line();
+                }
+                int row = lines.add();
+                if (row == lineNumbers.length) {
+                    lineNumbers = Arrays.copyOf(lineNumbers, row * 2);
+                }
+                lineNumbers[row] = line;
+                if (baseValid && baseCursor.line() == line) {
+                    lines.addLine(0, row, baseCursor);
+                    baseValid = baseCursor.nextLine();
+                }
+                if (otherValid && otherCursor.line() == line) {
+                    lines.addLine(1, row, otherCursor);
+                    otherValid = otherCursor.nextLine();
+                }
+            }
+            numFiles++;
+        }
+        fileStarts[numFiles] = lines.size;
+
+        return new ProfileDiff(
+                locks, Arrays.copyOf(lockNames, locks.size),
+                lines, Arrays.copyOf(files, numFiles), Arrays.copyOf(fileStarts, numFiles + 1),
+                Arrays.copyOf(lineNumbers, lines.size));
+    }
+
+    /**
+     * Columns of the compared metrics of both profiles, indexed by metric index in {@link #METRICS} and row
+     */
+    private static final class Rows {
+        int size;
+        long[][] base = new long[METRICS.length][16];
+        long[][] other = new long[METRICS.length][16];
+
+        int add() {
+            if (size == base[0].length) {
+                for (int m = 0; m < METRICS.length; m++) {
+                    base[m] = Arrays.copyOf(base[m], size * 2);
+                    other[m] = Arrays.copyOf(other[m], size * 2);
+                }
+            }
+            return size++;
+        }
+
+        void addStats(int side, int row, StatColumns stats, int statsRow) {
+            long[][] columns = side == 0 ? base : other;
+            for (int m = 0; m < METRICS.length; m++) {
+                columns[m][row] += stats.get(statsRow, METRICS[m]);
+            }
+        }
+
+        /**
+         * Adds the stats of all locks of the line the cursor is on
+         */
+        void addLine(int side, int row, StatsCursor cursor) {
+            for (int statsRow = cursor.row(); statsRow < cursor.lineEnd(); statsRow++) {
+                addStats(side, row, cursor.table(), statsRow);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * The profiled files of a profile and their line stats
+ *
+ * Stats are requested per file, so implementations can decode a file's stats only when it is first needed.
+ */
+public abstract class ProfileFiles {
+    public abstract int fileCount();
+
+    /**
+     * @return path of a file, files are ordered by path
+     */
+    public abstract String file(int fileId);
+
+    /**
+     * Returns a table that contains the stats of a file. This may be a table of just this file or a table of
+     * the whole profile, use {@link #cursor(int)} to iterate the rows of the file.
+     */
+    public abstract LineTable stats(int fileId);
+
+    /**
+     * @return stats of all files, which decodes the whole profile if that has not been done yet
+     */
+    public abstract LineTable all();
+
+    /**
+     * @return cursor over the rows of a file
+     */
+    public StatsCursor cursor(int fileId) {
+        LineTable table = stats(fileId);
+        int tableFileId = table.findFile(file(fileId));
+        if (tableFileId < 0) {
+            return table.cursor(0, 0);
+        }
+        return table.cursor(tableFileId);
+    }
+
+    /**
+     * @return file id, or a negative value if the file was not profiled
+     */
+    public int findFile(String path) {
+        int lo = 0;
+        int hi = fileCount() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = file(mid).compareTo(path);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * @return files of a table that is already available as a whole
+     */
+    public static ProfileFiles of(LineTable table) {
+        return new ProfileFiles() {
+            @Override
+            public int fileCount() {
+                return table.fileCount();
+            }
+
+            @Override
+            public String file(int fileId) {
+                return table.file(fileId);
+            }
+
+            @Override
+            public LineTable stats(int fileId) {
+                return table;
+            }
+
+            @Override
+            public StatsCursor cursor(int fileId) {
+                return table.cursor(fileId);
+            }
+
+            @Override
+            public LineTable all() {
+                return table;
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges the profiles of the workers of one program, e.g. the processes of a multiprocessing or gunicorn run,
+ * into one profile
+ *
+ * Counts and totals are summed, maxima take the max and averages follow from the merged totals and counts.
+ * Locks are merged by hash and their names are united. Files are merged with fork-join tasks, each task
+ * merging a range of files from all profiles, so merging scales with the number of cores.
+ *
+ * When the breakdown per worker is kept, the locks of different workers are not merged: every worker gets
+ * its own lock hashes and its worker name is appended to its lock names.
+ */
+public final class ProfileMerger {
+    // Number of files a fork-join task merges without splitting further
+    private static final int FILES_PER_TASK = 4;
+
+    private final List<ProfileSchema> profiles;
+    private final List<String> workers;
+    private final boolean keepWorkers;
+    private final String[] files;
+    private final LineTable[] tables;
+    private final @Nullable ProgressIndicator indicator;
+    private final AtomicInteger mergedFiles = new AtomicInteger();
+
+    private ProfileMerger(List<ProfileSchema> profiles, List<String> workers, boolean keepWorkers) {
+        this.profiles = profiles;
+        this.workers = workers;
+        this.keepWorkers = keepWorkers;
+        this.indicator = ProgressManager.getInstance().getProgressIndicator();
+
+        Set<String> paths = new HashSet<>();
+        for (ProfileSchema profile : profiles) {
+            for (int fileId = 0; fileId < profile.file_stats.fileCount(); fileId++) {
+                paths.add(profile.file_stats.file(fileId));
+            }
+        }
+        this.files = paths.toArray(new String[0]);
+        Arrays.sort(files);
+        this.tables = new LineTable[files.length];
+    }
+
+    /**
+     * Merges profiles into one. Merging reports its progress to the progress indicator of the calling thread
+     * and can be cancelled through it.
+     *
+     * @param workers name of the worker of each profile, used when the breakdown per worker is kept
+     * @param keepWorkers whether the locks of each worker are kept apart
+     */
+    public static ProfileSchema merge(List<ProfileSchema> profiles, List<String> workers, boolean keepWorkers) {
+        ProfileMerger merger = new ProfileMerger(profiles, workers, keepWorkers);
+        LockTable locks = merger.mergeLocks();
+        ForkJoinPool.commonPool().invoke(merger.new MergeFiles(0, merger.files.length));
+        return new ProfileSchema(locks, new FileTables(merger.files, merger.tables));
+    }
+
+    private LockTable mergeLocks() {
+        RowAccumulator stats = new RowAccumulator();
+        LockTable.Builder builder = new LockTable.Builder();
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        for (int worker = 0; worker < profiles.size(); worker++) {
+            LockTable lockStats = profiles.get(worker).lock_stats;
+            for (int row = 0; row < lockStats.size(); row++) {
+                long lockHash = lockHash(lockStats.hash(row), worker);
+                lockStats.values(row, values);
+                stats.merge(0, lockHash, values);
+                builder.addName(lockHash, keepWorkers
+                        ? lockStats.name(row) + " [" + workers.get(worker) + "]"
+                        : lockStats.name(row));
+            }
+        }
+        for (int row = 0; row < stats.size(); row++) {
+            stats.values(row, values);
+            builder.addStats(stats.lockHash(row), values);
+        }
+        return builder.build();
+    }
+
+    private LineTable mergeFile(int f) {
+        RowAccumulator rows = new RowAccumulator();
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        for (int worker = 0; worker < profiles.size(); worker++) {
+            ProfileFiles profileFiles = profiles.get(worker).file_stats;
+            int fileId = profileFiles.findFile(files[f]);
+            if (fileId < 0) {
+                continue;
+            }
+            StatsCursor cursor = profileFiles.cursor(fileId);
+            while (cursor.next()) {
+                cursor.table().values(cursor.row(), values);
+                rows.merge(cursor.line(), lockHash(cursor.lockHash(), worker), values);
+            }
+        }
+
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        int tableFileId = builder.internFile(files[f]);
+        for (int row = 0; row < rows.size(); row++) {
+            rows.values(row, values);
+            builder.add(tableFileId, rows.line(row), rows.lockHash(row), values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return hash of a lock of a worker in the merged profile
+     */
+    private long lockHash(long lockHash, int worker) {
+        return keepWorkers ? lockHash ^ ((worker + 1) * 0x9E3779B97F4A7C15L) : lockHash;
+    }
+
+    /**
+     * Merges the files `from` up to `to` (exclusive), splitting the range over several tasks if it is large
+     */
+    private final class MergeFiles extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        MergeFiles(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MergeFiles(from, mid), new MergeFiles(mid, to));
+                return;
+            }
+            for (int f = from; f < to; f++) {
+                if (indicator != null) {
+                    indicator.checkCanceled();
+                }
+                tables[f] = mergeFile(f);
+                int merged = mergedFiles.incrementAndGet();
+                if (indicator != null) {
+                    indicator.setFraction((double) merged / files.length);
+                }
+            }
+        }
+    }
+}
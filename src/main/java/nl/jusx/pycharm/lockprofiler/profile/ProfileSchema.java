@@ -1,127 +1,307 @@
 package nl.jusx.pycharm.lockprofiler.profile;
 
-import com.google.gson.*;
-
-import java.lang.reflect.Type;
-
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.text.DecimalFormatSymbols;
+import java.util.zip.GZIPInputStream;
 
 public class ProfileSchema {
-    static class LockStatsAdapter implements JsonDeserializer<LockStats> {
-        public LockStats deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext ctx) {
-            long[] items = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final Logger logger = Logger.getInstance(ProfileSchema.class.getName());
+    static final int NUM_LOCK_STATS = 12;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Pull parser for a whole .pclprof file
+     *
+     * The profile is read token by token straight into the columns of a {@link LockTable} and a
+     * {@link LineTable}, so no intermediate JSON trees or boxed maps are created while loading.
+     */
+    static final class ProfileParser {
+        private ProfileParser() {
+        }
+
+        static ProfileSchema read(JsonReader in) throws IOException {
+            LockTable.Builder locks = new LockTable.Builder();
+            ArrayLineTable.Builder lines = new ArrayLineTable.Builder();
+            long[] values = new long[NUM_LOCK_STATS];
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "lock_stats":
+                        readLockStatsMap(in, locks, values);
+                        break;
+                    case "lock_hashes":
+                        readLockHashes(in, locks);
+                        break;
+                    case "file_stats":
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            int fileId = lines.internFile(in.nextName());
+                            readLineStats(in, lines, fileId, values);
+                        }
+                        in.endObject();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ProfileSchema(locks.build(), ProfileFiles.of(lines.build()));
+        }
+
+        /**
+         * Reads the `lock_stats` object
+         */
+        static void readLockStatsMap(JsonReader in, LockTable.Builder locks, long[] values) throws IOException {
+            in.beginObject();
+            while (in.hasNext()) {
+                long lockHash = Long.parseLong(in.nextName());
+                readLockStats(in, values);
+                locks.addStats(lockHash, values);
+            }
+            in.endObject();
+        }
+
+        /**
+         * Reads the `lock_hashes` object
+         */
+        static void readLockHashes(JsonReader in, LockTable.Builder locks) throws IOException {
+            in.beginObject();
+            while (in.hasNext()) {
+                long lockHash = Long.parseLong(in.nextName());
+                locks.addName(lockHash, in.nextString());
+            }
+            in.endObject();
+        }
+
+        /**
+         * Reads the `{line: {lock_hash: [...]}}` object of one file in `file_stats`
+         */
+        static void readLineStats(JsonReader in, ArrayLineTable.Builder lines, int fileId, long[] values)
+                throws IOException {
+            in.beginObject();
+            while (in.hasNext()) {
+                int lineNo = Integer.parseInt(in.nextName());
+                in.beginObject();
+                while (in.hasNext()) {
+                    long lockHash = Long.parseLong(in.nextName());
+                    readLockStats(in, values);
+                    lines.add(fileId, lineNo, lockHash, values);
+                }
+                in.endObject();
+            }
+            in.endObject();
+        }
+
+        /**
+         * Reads one `[hits, acquires, ...]` array into `values`.
+         * Missing trailing values are 0, surplus values are ignored.
+         */
+        static void readLockStats(JsonReader in, long[] values) throws IOException {
             int i = 0;
-            for (JsonElement ele : json.getAsJsonArray()) {
-                items[i] = ele.getAsLong();
+            in.beginArray();
+            while (in.hasNext()) {
+                if (i < NUM_LOCK_STATS && in.peek() == JsonToken.NUMBER) {
+                    values[i] = in.nextLong();
+                } else {
+                    in.skipValue();
+                }
                 i++;
             }
-            return new LockStats(items[0], items[1], items[2], items[3], items[4], items[5], items[6], items[7], items[8], items[9], items[10], items[11]);
+            in.endArray();
+            for (; i < NUM_LOCK_STATS; i++) {
+                values[i] = 0;
+            }
         }
     }
-    public static class LockStats {
-        public long hits;
-        public long acquires;
-        public long blocks;
-        public long total_wait_time;
-        public long avg_wait_time;
-        public long max_wait_time;
-        public long total_hold_time;
-        public long avg_hold_time;
-        public long max_hold_time;
-        public long total_block_time;
-        public long avg_block_time;
-        public long max_block_time;
-
-        public LockStats(
-                long hits,
-                long acquires,
-                long blocks,
-                long total_wait_time,
-                long avg_wait_time,
-                long max_wait_time,
-                long total_hold_time,
-                long avg_hold_time,
-                long max_hold_time,
-                long total_block_time,
-                long avg_block_time,
-                long max_block_time
-        ) {
-            this.hits = hits;
-            this.acquires = acquires;
-            this.blocks = blocks;
-            this.total_wait_time = total_wait_time;
-            this.avg_wait_time = avg_wait_time;
-            this.max_wait_time = max_wait_time;
-            this.total_hold_time = total_hold_time;
-            this.avg_hold_time = avg_hold_time;
-            this.max_hold_time = max_hold_time;
-            this.total_block_time = total_block_time;
-            this.avg_block_time = avg_block_time;
-            this.max_block_time = max_block_time;
-        }
 
-//        public Long[] asArray() {
-//            return new Long[] {
-//                hits,
-//                acquires,
-//                total_acquire_time,
-//                avg_acquire_time,
-//                max_acquire_time,
-//                total_hold_time,
-//                avg_hold_time,
-//                max_hold_time
-//            };
-//        }
-    }
+    public final LockTable lock_stats;
+    public final ProfileFiles file_stats;
 
-    public Map<Long, LockStats> lock_stats;
-    private Map<Long, String> lock_hashes;
-    public Map<String, Map<Integer, Map<Long, LockStats>>> file_stats;
+    public ProfileSchema(LockTable lock_stats, ProfileFiles file_stats) {
+        this.lock_stats = lock_stats;
+        this.file_stats = file_stats;
+    }
 
     public String getLockName(long lock_hash) {
-        return lock_hashes.get(lock_hash);
+        return lock_stats.nameOf(lock_hash);
     }
 
     private static final int numUnits = 4;
-    private static final String[] unitLookup = {"%.0f ns", "%.3f \u03BCs", "%.3f ms", "%.3f s"};
+    private static final String[] unitLookup = {" ns", " \u03BCs", " ms", " s"};
+    // Decimal separator of the default locale, which String.format would use
+    private static final char decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
 
     public static String formatTime(long time) {
-        double timeNs = time;
+        StringBuilder text = new StringBuilder(16);
+        appendTime(text, time);
+        return text.toString();
+    }
 
+    /**
+     * Appends a time formatted like {@link #formatTime}, which allocates nothing if `text` has room for it
+     */
+    public static void appendTime(StringBuilder text, long time) {
         int idx = 0;
-        while (idx < (numUnits - 1) && timeNs > 1000) {
+        long unit = 1;
+        while (idx < (numUnits - 1) && time > unit * 1000) {
             idx++;
-            timeNs /= 1000;
+            unit *= 1000;
         }
 
-        return String.format(
-                unitLookup[idx],
-                timeNs
-        );
+        if (idx == 0) {
+            text.append(time);
+        } else {
+            // Thousandths of the unit, rounded half up
+            long thousandths = (time + unit / 2000) / (unit / 1000);
+            long fraction = thousandths % 1000;
+            text.append(thousandths / 1000).append(decimalSeparator);
+            if (fraction < 100) {
+                text.append('0');
+            }
+            if (fraction < 10) {
+                text.append('0');
+            }
+            text.append(fraction);
+        }
+        text.append(unitLookup[idx]);
     }
 
-    public static ProfileSchema FromFile(String profileFile) {
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(LockStats.class, new LockStatsAdapter())
-                .create();
-        JsonReader reader;
+    /**
+     * Parses a time like "1.5 ms", as formatted by {@link #formatTime}. A time without a unit is in milliseconds.
+     *
+     * @return time in nanoseconds, or -1 if the text is not a time
+     */
+    public static long parseTime(String text) {
+        String trimmed = text.trim().replace(decimalSeparator, '.');
+        int unitStart = trimmed.length();
+        while (unitStart > 0 && Character.isLetter(trimmed.charAt(unitStart - 1))) {
+            unitStart--;
+        }
+        long unit;
+        switch (trimmed.substring(unitStart)) {
+            case "ns":
+                unit = 1;
+                break;
+            case "us":
+            case "\u03BCs":
+                unit = 1000;
+                break;
+            case "":
+            case "ms":
+                unit = 1000_000;
+                break;
+            case "s":
+                unit = 1000_000_000;
+                break;
+            default:
+                return -1;
+        }
+        try {
+            double value = Double.parseDouble(trimmed.substring(0, unitStart).trim());
+            return value >= 0 ? Math.round(value * unit) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
+    /**
+     * Formats a time difference, always with its sign
+     */
+    public static String formatSignedTime(long time) {
+        return (time < 0 ? "-" : "+") + formatTime(Math.abs(time));
+    }
+
+    /**
+     * Loads a .pclprof file, either the JSON written by the helper package or the binary format of
+     * {@link BinaryProfileFormat}, which is recognised by its magic bytes
+     *
+     * JSON profiles are only indexed here, the stats of a file are decoded when they are first requested.
+     * Loading reports its progress to the progress indicator of the calling thread and can be cancelled through it.
+     *
+     * @return the profile, or null if the file can not be read or is not a valid profile
+     */
+    public static ProfileSchema FromFile(String profileFile) {
+        Path path = Paths.get(profileFile);
         try {
-            reader = new JsonReader(new FileReader(profileFile));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (BinaryProfileFormat.isBinaryProfile(path)) {
+                return BinaryProfileFormat.read(path);
+            }
+            if (isCompressed(path)) {
+                // A compressed profile can not be read at random offsets, so it is decompressed and parsed
+                // in a single streaming pass instead of being indexed
+                return parseJson(path);
+            }
+            return JsonProfileIndex.load(path);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // A malformed profile makes the parser throw unchecked exceptions too, such as on an unexpected token
+            logger.warn("Could not load profile " + profileFile, e);
             return null;
         }
+    }
 
-        ProfileSchema profile = gson.fromJson(reader, ProfileSchema.class);
-        return profile;
+    /**
+     * Parses a whole JSON .pclprof file at once, decompressing it on the fly if it is gzip-compressed
+     */
+    static ProfileSchema parseJson(Path path) throws IOException {
+        return parseJson(path, null);
     }
 
-}
+    /**
+     * Parses a profile, updating `digest` with every byte of the file, as stored, in the same read
+     */
+    static ProfileSchema parseJson(Path path, @Nullable MessageDigest digest) throws IOException {
+        boolean compressed = isCompressed(path);
+        long size = Files.size(path);
+        // Each stream is a resource, so the file is closed when a corrupt gzip header fails the one on top of it
+        try (InputStream file = Files.newInputStream(path);
+             InputStream raw = digesting(LoadProgress.reporting(file, size), digest);
+             InputStream in = compressed ? new GZIPInputStream(raw, STREAM_BUFFER_SIZE) : raw;
+             JsonReader reader = new JsonReader(new BufferedReader(
+                     new InputStreamReader(in, StandardCharsets.UTF_8), STREAM_BUFFER_SIZE))) {
+            ProfileSchema schema = ProfileParser.read(reader);
+            if (digest != null) {
+                // Bytes after the profile, such as trailing whitespace, are part of its content too
+                raw.transferTo(OutputStream.nullOutputStream());
+            }
+            return schema;
+        }
+    }
 
+    /**
+     * @return stream that updates `digest` with every byte read through it, or `in` itself without a digest
+     */
+    static InputStream digesting(InputStream in, @Nullable MessageDigest digest) {
+        return digest == null ? in : new DigestInputStream(in, digest);
+    }
 
+    /**
+     * @return whether the file starts with the gzip magic bytes, as a .pclprof.gz file does
+     */
+    public static boolean isCompressed(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.read() == (GZIPInputStream.GZIP_MAGIC & 0xff) && in.read() == (GZIPInputStream.GZIP_MAGIC >> 8);
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
+}
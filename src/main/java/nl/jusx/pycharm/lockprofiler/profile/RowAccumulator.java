@@ -0,0 +1,92 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.Arrays;
+
+/**
+ * Mutable rows of stats keyed by (line, lock hash), which deltas are merged into
+ *
+ * Rows are found through an open addressing hash table of row indices, so merging allocates nothing
+ * but the occasional growth of the columns.
+ */
+final class RowAccumulator {
+    private int size;
+    private int[] lines = new int[16];
+    private long[] lockHashes = new long[16];
+    private long[][] columns = StatColumns.newColumns(16);
+    // Row index + 1 per slot, 0 for an empty slot
+    private int[] slots = new int[32];
+
+    int size() {
+        return size;
+    }
+
+    int line(int row) {
+        return lines[row];
+    }
+
+    long lockHash(int row) {
+        return lockHashes[row];
+    }
+
+    void clear() {
+        size = 0;
+        lines = new int[16];
+        lockHashes = new long[16];
+        columns = StatColumns.newColumns(16);
+        slots = new int[32];
+    }
+
+    /**
+     * Writes all 12 .pclprof values of a row, in {@link Metric} order
+     */
+    void values(int row, long[] values) {
+        StatColumns.loadRow(columns, row, values);
+    }
+
+    /**
+     * Merges a delta of all 12 .pclprof values into the row of (line, lock hash), adding the row if needed
+     */
+    void merge(int line, long lockHash, long[] values) {
+        int mask = slots.length - 1;
+        int slot = hash(line, lockHash) & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (lines[row] == line && lockHashes[row] == lockHash) {
+                StatColumns.mergeRow(columns, row, values);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == lines.length) {
+            lines = Arrays.copyOf(lines, size * 2);
+            lockHashes = Arrays.copyOf(lockHashes, size * 2);
+            columns = StatColumns.growColumns(columns, size * 2);
+        }
+        lines[size] = line;
+        lockHashes[size] = lockHash;
+        StatColumns.mergeRow(columns, size, values);
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hash(lines[row], lockHashes[row]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+
+    private static int hash(int line, long lockHash) {
+        long h = lockHash * 0x9E3779B97F4A7C15L + line;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+}
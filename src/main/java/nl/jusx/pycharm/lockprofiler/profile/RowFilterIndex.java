@@ -0,0 +1,181 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Indexes of the rows of a lock table or line table, to filter them by lock name, file path prefix and minimum
+ * total wait without scanning every row
+ *
+ * <ul>
+ *     <li>Lock names are found with a {@link TrigramIndex}. The rows of each lock are listed per lock, so
+ *     finding the rows of the matching locks only touches those rows.</li>
+ *     <li>Files are ordered by path and rows by file, so the files with a path prefix, and their rows, are one
+ *     range that two binary searches find.</li>
+ *     <li>Rows are sorted by total wait, so the rows with at least a minimum wait are the tail of that order
+ *     that one binary search finds.</li>
+ * </ul>
+ */
+public final class RowFilterIndex {
+    private final int rowCount;
+    private final TrigramIndex lockNames;
+    // Rows of each lock of lockNames, from lockRows[lockRowStarts[lock]] up to lockRows[lockRowStarts[lock + 1]],
+    // null if the rows are the locks
+    private final @Nullable int[] lockRowStarts;
+    private final @Nullable int[] lockRows;
+    // Null if the rows are the locks
+    private final @Nullable LineTable lines;
+    // Rows ordered by total wait, and their total waits
+    private final int[] waitRows;
+    private final long[] sortedWaits;
+
+    private RowFilterIndex(int rowCount, TrigramIndex lockNames, @Nullable int[] lockRowStarts,
+                           @Nullable int[] lockRows, @Nullable LineTable lines, StatColumns stats) {
+        this.rowCount = rowCount;
+        this.lockNames = lockNames;
+        this.lockRowStarts = lockRowStarts;
+        this.lockRows = lockRows;
+        this.lines = lines;
+
+        long[] waits = new long[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            waits[row] = stats.get(row, Metric.TOTAL_WAIT);
+        }
+        waitRows = IndexSort.range(0, rowCount);
+        IndexSort.sortByKey(waitRows, waits);
+        sortedWaits = new long[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            sortedWaits[i] = waits[waitRows[i]];
+        }
+    }
+
+    /**
+     * Indexes the rows of a lock table, one per lock
+     */
+    public static RowFilterIndex forLocks(LockTable locks) {
+        return new RowFilterIndex(locks.size(), new TrigramIndex(lockNames(locks)), null, null, null, locks);
+    }
+
+    /**
+     * Indexes the rows of a line table, one per line and lock
+     */
+    public static RowFilterIndex forLines(LineTable lines, LockTable locks) {
+        // Counting sort of the rows by lock
+        int[] lockRowStarts = new int[locks.size() + 2];
+        int[] rowLocks = new int[lines.size()];
+        for (int row = 0; row < lines.size(); row++) {
+            if ((row & 0xffff) == 0) {
+                ProgressManager.checkCanceled();
+            }
+            int lock = locks.indexOf(lines.lockHash(row));
+            // Rows of locks that are not in the lock table get an extra lock without a name
+            rowLocks[row] = lock < 0 ? locks.size() : lock;
+            lockRowStarts[rowLocks[row] + 1]++;
+        }
+        for (int lock = 0; lock + 1 < lockRowStarts.length; lock++) {
+            lockRowStarts[lock + 1] += lockRowStarts[lock];
+        }
+        int[] lockRows = new int[lines.size()];
+        int[] next = Arrays.copyOf(lockRowStarts, lockRowStarts.length - 1);
+        for (int row = 0; row < lines.size(); row++) {
+            lockRows[next[rowLocks[row]]++] = row;
+        }
+        return new RowFilterIndex(lines.size(), new TrigramIndex(lockNames(locks)), lockRowStarts, lockRows, lines,
+                lines);
+    }
+
+    private static String[] lockNames(LockTable locks) {
+        String[] names = new String[locks.size()];
+        for (int lock = 0; lock < names.length; lock++) {
+            String name = locks.name(lock);
+            names[lock] = name == null ? "" : name;
+        }
+        return names;
+    }
+
+    /**
+     * @return whether the rows can be filtered by file path, which lock tables can not
+     */
+    public boolean hasFiles() {
+        return lines != null;
+    }
+
+    /**
+     * Finds the rows that match all given conditions
+     *
+     * @param lockName substring of the lock name, ignoring case, or empty
+     * @param pathPrefix prefix of the file path, or empty. Ignored if the rows have no files.
+     * @param minWait minimum total wait in nanoseconds, or 0
+     * @return matching rows, or null if no condition was given
+     */
+    @Nullable
+    public BitSet filter(String lockName, String pathPrefix, long minWait) {
+        BitSet rows = null;
+        if (!lockName.isEmpty()) {
+            rows = new BitSet(rowCount);
+            for (int lock : lockNames.find(lockName)) {
+                if (lockRows == null) {
+                    rows.set(lock);
+                } else {
+                    for (int i = lockRowStarts[lock]; i < lockRowStarts[lock + 1]; i++) {
+                        rows.set(lockRows[i]);
+                    }
+                }
+            }
+        }
+        if (!pathPrefix.isEmpty() && lines != null) {
+            int from = prefixStart(pathPrefix);
+            // No path with the prefix comes after the prefix followed by the largest char
+            int to = prefixStart(pathPrefix + Character.MAX_VALUE);
+            int rowFrom = from < to ? lines.fileStart(from) : 0;
+            int rowTo = from < to ? lines.fileEnd(to - 1) : 0;
+            if (rows == null) {
+                rows = new BitSet(rowCount);
+                rows.set(rowFrom, rowTo);
+            } else {
+                rows.clear(rowTo, rowCount);
+                rows.clear(0, rowFrom);
+            }
+        }
+        if (minWait > 0) {
+            BitSet waitRows = new BitSet(rowCount);
+            for (int i = waitStart(minWait); i < rowCount; i++) {
+                waitRows.set(this.waitRows[i]);
+            }
+            if (rows == null) {
+                rows = waitRows;
+            } else {
+                rows.and(waitRows);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return first file id with a path at or after `path`
+     */
+    private int prefixStart(String path) {
+        int fileId = lines.findFile(path);
+        return fileId < 0 ? -(fileId + 1) : fileId;
+    }
+
+    /**
+     * @return first index of sortedWaits with a wait of at least `minWait`
+     */
+    private int waitStart(long minWait) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedWaits[mid] < minWait) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
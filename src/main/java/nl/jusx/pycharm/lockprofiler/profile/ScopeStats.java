@@ -0,0 +1,162 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * Statistics of the lines of one file rolled up into the functions and classes that contain them
+ *
+ * One row per scope. A line counts for every scope it is in, so a class includes its methods and a function
+ * includes the functions nested in it. Counts and totals are summed, maxima take the max, averages follow
+ * from the result.
+ */
+public final class ScopeStats extends StatColumns {
+    private final String[] names;
+    private final boolean[] classes;
+    // First and last line of each scope, starting at 1 like the profiler
+    private final int[] starts;
+    private final int[] ends;
+    // Number of profiled lines in each scope
+    private final int[] lineCounts;
+    private final long[][] columns;
+
+    private ScopeStats(String[] names, boolean[] classes, int[] starts, int[] ends, int[] lineCounts,
+                       long[][] columns) {
+        this.names = names;
+        this.classes = classes;
+        this.starts = starts;
+        this.ends = ends;
+        this.lineCounts = lineCounts;
+        this.columns = columns;
+    }
+
+    /**
+     * Rolls up the stats of a file in one pass over its rows
+     *
+     * @param names qualified name of each scope
+     * @param classes whether each scope is a class, as opposed to a function
+     * @param starts first line of each scope, in ascending order, so a nested scope comes after its parent
+     * @param ends last line of each scope
+     * @param cursor cursor over the rows of the file, see {@link ProfileFiles#cursor(int)}
+     */
+    public static ScopeStats compute(String[] names, boolean[] classes, int[] starts, int[] ends,
+                                     StatsCursor cursor) {
+        int numScopes = starts.length;
+        int[] lineCounts = new int[numScopes];
+        long[][] columns = newColumns(numScopes);
+        long[] values = new long[Metric.STORED];
+        boolean[] maxColumns = new boolean[Metric.STORED];
+        for (Metric metric : METRICS) {
+            if (!metric.isDerived()) {
+                maxColumns[metric.column] = metric.isMax();
+            }
+        }
+
+        // Scopes that contain the current line, innermost on top
+        int[] open = new int[Math.max(1, numScopes)];
+        int numOpen = 0;
+        int next = 0;
+        int previousLine = 0;
+        while (cursor.next()) {
+            int line = cursor.line();
+            while (next < numScopes && starts[next] <= line) {
+                while (numOpen > 0 && ends[open[numOpen - 1]] < starts[next]) {
+                    numOpen--;
+                }
+                open[numOpen++] = next++;
+            }
+            while (numOpen > 0 && ends[open[numOpen - 1]] < line) {
+                numOpen--;
+            }
+            if (numOpen == 0) {
+                previousLine = line;
+                continue;
+            }
+
+            for (int c = 0; c < Metric.STORED; c++) {
+                values[c] = cursor.table().stored(cursor.row(), c);
+            }
+            boolean firstRowOfLine = line != previousLine;
+            previousLine = line;
+            for (int o = 0; o < numOpen; o++) {
+                int scope = open[o];
+                if (firstRowOfLine) {
+                    lineCounts[scope]++;
+                }
+                for (int c = 0; c < Metric.STORED; c++) {
+                    long[] column = columns[c];
+                    column[scope] = maxColumns[c] ? Math.max(column[scope], values[c]) : column[scope] + values[c];
+                }
+            }
+        }
+        return new ScopeStats(names, classes, starts, ends, lineCounts, columns);
+    }
+
+    /**
+     * Finds the innermost scope of each line
+     *
+     * @param starts first line of each scope, in ascending order, so a nested scope comes after its parent
+     * @param ends last line of each scope
+     * @param lines lines in ascending order
+     * @return innermost scope of each line, -1 for a line outside all scopes
+     */
+    public static int[] innermost(int[] starts, int[] ends, int[] lines) {
+        int[] scopes = new int[lines.length];
+        // Scopes that contain the current line, innermost on top
+        int[] open = new int[Math.max(1, starts.length)];
+        int numOpen = 0;
+        int next = 0;
+        for (int i = 0; i < lines.length; i++) {
+            while (next < starts.length && starts[next] <= lines[i]) {
+                while (numOpen > 0 && ends[open[numOpen - 1]] < starts[next]) {
+                    numOpen--;
+                }
+                open[numOpen++] = next++;
+            }
+            while (numOpen > 0 && ends[open[numOpen - 1]] < lines[i]) {
+                numOpen--;
+            }
+            scopes[i] = numOpen == 0 ? -1 : open[numOpen - 1];
+        }
+        return scopes;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    protected long stored(int row, int column) {
+        return columns[column][row];
+    }
+
+    /**
+     * @return name of the scope, qualified by the scopes it is nested in
+     */
+    public String name(int scope) {
+        return names[scope];
+    }
+
+    public boolean isClass(int scope) {
+        return classes[scope];
+    }
+
+    /**
+     * @return first line of the scope, starting at 1
+     */
+    public int start(int scope) {
+        return starts[scope];
+    }
+
+    /**
+     * @return last line of the scope, starting at 1
+     */
+    public int end(int scope) {
+        return ends[scope];
+    }
+
+    /**
+     * @return number of profiled lines in the scope, 0 if it has no stats
+     */
+    public int lineCount(int scope) {
+        return lineCounts[scope];
+    }
+}
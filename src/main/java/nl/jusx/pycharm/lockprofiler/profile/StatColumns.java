@@ -0,0 +1,126 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.Arrays;
+
+/**
+ * Rows of lock statistics stored column-wise, with one primitive column per stored {@link Metric}
+ */
+public abstract class StatColumns {
+    // All metrics in ordinal order, values() would copy the array for every row
+    static final Metric[] METRICS = Metric.values();
+
+    /**
+     * @return number of rows
+     */
+    public abstract int size();
+
+    /**
+     * @param row row index
+     * @param column stored column index, see {@link Metric#STORED}
+     */
+    protected abstract long stored(int row, int column);
+
+    public long get(int row, Metric metric) {
+        if (metric.isDerived()) {
+            long count = stored(row, metric.countColumn);
+            return count == 0 ? 0 : stored(row, metric.column) / count;
+        }
+        return stored(row, metric.column);
+    }
+
+    /**
+     * @return some rows ordered by a metric, largest first, equal rows keep their order
+     */
+    public int[] sortDescending(int[] rows, Metric metric) {
+        // Keyed by position, as the rows may be a few rows of a large table
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            // Inverting the bits sorts the largest first
+            keys[i] = ~get(rows[i], metric);
+        }
+        int[] order = IndexSort.range(0, rows.length);
+        IndexSort.sortByKey(order, keys);
+        int[] sorted = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            sorted[i] = rows[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Writes all 12 .pclprof values of a row, in {@link Metric} order
+     */
+    void values(int row, long[] values) {
+        for (Metric metric : METRICS) {
+            values[metric.ordinal()] = get(row, metric);
+        }
+    }
+
+    /**
+     * Copies the stored columns of a row from all 12 .pclprof values, in {@link Metric} order
+     */
+    static void storeRow(long[][] columns, int row, long[] values) {
+        for (Metric metric : METRICS) {
+            if (!metric.isDerived()) {
+                columns[metric.column][row] = values[metric.ordinal()];
+            }
+        }
+    }
+
+    /**
+     * Adds all 12 .pclprof values of a delta to the stored columns of a row.
+     * Counts and totals are summed, maxima take the max, averages follow from the result.
+     */
+    static void mergeRow(long[][] columns, int row, long[] values) {
+        for (Metric metric : METRICS) {
+            if (metric.isDerived()) {
+                continue;
+            }
+            long[] column = columns[metric.column];
+            long value = values[metric.ordinal()];
+            column[row] = metric.isMax() ? Math.max(column[row], value) : column[row] + value;
+        }
+    }
+
+    /**
+     * Writes all 12 .pclprof values of a row of stored columns, in {@link Metric} order
+     */
+    static void loadRow(long[][] columns, int row, long[] values) {
+        for (Metric metric : METRICS) {
+            if (metric.isDerived()) {
+                long count = columns[metric.countColumn][row];
+                values[metric.ordinal()] = count == 0 ? 0 : columns[metric.column][row] / count;
+            } else {
+                values[metric.ordinal()] = columns[metric.column][row];
+            }
+        }
+    }
+
+    static long[][] newColumns(int capacity) {
+        long[][] columns = new long[Metric.STORED][];
+        for (int c = 0; c < Metric.STORED; c++) {
+            columns[c] = new long[capacity];
+        }
+        return columns;
+    }
+
+    static long[][] growColumns(long[][] columns, int capacity) {
+        long[][] grown = new long[Metric.STORED][];
+        for (int c = 0; c < Metric.STORED; c++) {
+            grown[c] = Arrays.copyOf(columns[c], capacity);
+        }
+        return grown;
+    }
+
+    static long[][] permuteColumns(long[][] columns, int[] order) {
+        long[][] permuted = newColumns(order.length);
+        for (int c = 0; c < Metric.STORED; c++) {
+            long[] src = columns[c];
+            long[] dst = permuted[c];
+            for (int i = 0; i < order.length; i++) {
+                dst[i] = src[order[i]];
+            }
+        }
+        return permuted;
+    }
+}
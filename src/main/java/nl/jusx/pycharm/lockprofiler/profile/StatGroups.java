@@ -0,0 +1,105 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.util.Arrays;
+
+/**
+ * Rows of a {@link StatColumns} put into groups, with the stats of each group aggregated from its members
+ *
+ * Counts and totals are summed, maxima take the max, averages follow from the result. Groups can be grouped
+ * again, so a hierarchy such as rows, lines and files is aggregated bottom-up, one pass per level.
+ */
+public final class StatGroups extends StatColumns {
+    // Members of each group, from members[memberStarts[group]] up to members[memberStarts[group + 1]]
+    private final int[] memberStarts;
+    private final int[] members;
+    private final long[][] columns;
+
+    private StatGroups(int[] memberStarts, int[] members, long[][] columns) {
+        this.memberStarts = memberStarts;
+        this.members = members;
+        this.columns = columns;
+    }
+
+    /**
+     * Groups a range of rows in one pass over them
+     *
+     * @param stats stats of the rows
+     * @param from first row
+     * @param groups group of each row from `from` on, one per row
+     */
+    public static StatGroups of(StatColumns stats, int from, int[] groups, int numGroups) {
+        long[][] columns = newColumns(numGroups);
+        long[] values = new long[METRICS.length];
+        int[] memberStarts = new int[numGroups + 1];
+        for (int i = 0; i < groups.length; i++) {
+            if ((i & 0xffff) == 0) {
+                ProgressManager.checkCanceled();
+            }
+            stats.values(from + i, values);
+            mergeRow(columns, groups[i], values);
+            memberStarts[groups[i] + 1]++;
+        }
+        for (int group = 0; group < numGroups; group++) {
+            memberStarts[group + 1] += memberStarts[group];
+        }
+        int[] members = new int[groups.length];
+        int[] next = Arrays.copyOf(memberStarts, numGroups);
+        for (int i = 0; i < groups.length; i++) {
+            members[next[groups[i]]++] = from + i;
+        }
+        return new StatGroups(memberStarts, members, columns);
+    }
+
+    /**
+     * Sums the rows of each file, in file id order, decoding one file at a time rather than the whole profile.
+     * The groups have no members, as the rows of different files may be in different tables.
+     */
+    public static StatGroups files(ProfileFiles files) {
+        long[][] columns = newColumns(files.fileCount());
+        long[] values = new long[METRICS.length];
+        for (int fileId = 0; fileId < files.fileCount(); fileId++) {
+            ProgressManager.checkCanceled();
+            StatsCursor cursor = files.cursor(fileId);
+            while (cursor.next()) {
+                cursor.table().values(cursor.row(), values);
+                mergeRow(columns, fileId, values);
+            }
+        }
+        return new StatGroups(new int[files.fileCount() + 1], new int[0], columns);
+    }
+
+    /**
+     * Groups a range of rows of one file by line, in line order
+     */
+    public static StatGroups lines(LineTable table, int from, int to) {
+        int[] groups = new int[to - from];
+        int numLines = 0;
+        for (int row = from; row < to; row = table.lineEnd(row)) {
+            Arrays.fill(groups, row - from, table.lineEnd(row) - from, numLines++);
+        }
+        return of(table, from, groups, numLines);
+    }
+
+    @Override
+    public int size() {
+        return memberStarts.length - 1;
+    }
+
+    @Override
+    protected long stored(int row, int column) {
+        return columns[column][row];
+    }
+
+    public int memberCount(int group) {
+        return memberStarts[group + 1] - memberStarts[group];
+    }
+
+    /**
+     * @return row of the i-th member of a group, members are in row order
+     */
+    public int member(int group, int i) {
+        return members[memberStarts[group] + i];
+    }
+}
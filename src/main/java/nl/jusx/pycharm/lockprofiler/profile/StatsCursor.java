@@ -0,0 +1,84 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+/**
+ * Forward cursor over a range of {@link LineTable} rows
+ *
+ * <pre>
+ * StatsCursor c = table.cursor(fileId);
+ * while (c.next()) {
+ *     c.line(); c.get(Metric.TOTAL_WAIT); ...
+ * }
+ * </pre>
+ */
+public final class StatsCursor {
+    private final LineTable table;
+    private final int start;
+    private final int end;
+    private int row;
+
+    StatsCursor(LineTable table, int start, int end) {
+        this.table = table;
+        this.start = start;
+        this.end = end;
+        this.row = start - 1;
+    }
+
+    /**
+     * Moves to the next row
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() {
+        return ++row < end;
+    }
+
+    /**
+     * Moves to the first row of the next line, skipping the other locks of the current line
+     *
+     * @return false if there are no more rows
+     */
+    public boolean nextLine() {
+        if (row >= start && row < end) {
+            row = table.lineEnd(row) - 1;
+        }
+        return next();
+    }
+
+    /**
+     * @return table the rows of this cursor belong to
+     */
+    public LineTable table() {
+        return table;
+    }
+
+    public int row() {
+        return row;
+    }
+
+    /**
+     * @return row after the last row of the current line
+     */
+    public int lineEnd() {
+        return Math.min(table.lineEnd(row), end);
+    }
+
+    public int fileId() {
+        return table.fileId(row);
+    }
+
+    public String file() {
+        return table.file(table.fileId(row));
+    }
+
+    public int line() {
+        return table.line(row);
+    }
+
+    public long lockHash() {
+        return table.lockHash(row);
+    }
+
+    public long get(Metric metric) {
+        return table.get(row, metric);
+    }
+}
@@ -0,0 +1,115 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Index of the trigrams of a list of names, to find the names that contain a substring, ignoring case
+ *
+ * The postings are two parallel primitive arrays ordered by trigram, so a query is a binary search per trigram
+ * of the query. Only the names in the postings of its rarest trigram have to be checked.
+ */
+public final class TrigramIndex {
+    private final String[] lowerNames;
+    // Trigram of each posting and the name it occurs in, ordered by trigram and then by name
+    private final long[] trigrams;
+    private final int[] ids;
+
+    public TrigramIndex(String[] names) {
+        lowerNames = new String[names.length];
+        int numTrigrams = 0;
+        for (int id = 0; id < names.length; id++) {
+            lowerNames[id] = names[id].toLowerCase(Locale.ROOT);
+            numTrigrams += Math.max(0, lowerNames[id].length() - 2);
+        }
+
+        long[] keys = new long[numTrigrams];
+        int[] owners = new int[numTrigrams];
+        int p = 0;
+        for (int id = 0; id < names.length; id++) {
+            String name = lowerNames[id];
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                keys[p] = trigram(name, i);
+                owners[p] = id;
+                p++;
+            }
+        }
+        int[] order = IndexSort.range(0, numTrigrams);
+        // Stable, so the names of a trigram stay in ascending order
+        IndexSort.sortByKey(order, keys);
+
+        long[] trigrams = new long[numTrigrams];
+        int[] ids = new int[numTrigrams];
+        int size = 0;
+        for (int posting : order) {
+            // A name that has a trigram more than once is posted once
+            if (size > 0 && trigrams[size - 1] == keys[posting] && ids[size - 1] == owners[posting]) {
+                continue;
+            }
+            trigrams[size] = keys[posting];
+            ids[size] = owners[posting];
+            size++;
+        }
+        this.trigrams = Arrays.copyOf(trigrams, size);
+        this.ids = Arrays.copyOf(ids, size);
+    }
+
+    public int size() {
+        return lowerNames.length;
+    }
+
+    /**
+     * @return ids of the names that contain `query`, ignoring case, in ascending order
+     */
+    public int[] find(String query) {
+        String lower = query.toLowerCase(Locale.ROOT);
+        if (lower.length() < 3) {
+            // Too short for a trigram
+            return matching(IndexSort.range(0, lowerNames.length), lower);
+        }
+
+        int bestFrom = 0;
+        int bestTo = ids.length;
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            long trigram = trigram(lower, i);
+            int from = lowerBound(trigram);
+            int to = lowerBound(trigram + 1);
+            if (to - from < bestTo - bestFrom) {
+                bestFrom = from;
+                bestTo = to;
+            }
+        }
+        return matching(Arrays.copyOfRange(ids, bestFrom, bestTo), lower);
+    }
+
+    private int[] matching(int[] candidates, String lower) {
+        int size = 0;
+        for (int id : candidates) {
+            if (lowerNames[id].contains(lower)) {
+                candidates[size++] = id;
+            }
+        }
+        return Arrays.copyOf(candidates, size);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * @return index of the first posting with a trigram at or after `target`
+     */
+    private int lowerBound(long target) {
+        int low = 0;
+        int high = trigrams.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (trigrams[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,293 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import com.intellij.ide.ui.UISettings;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.ui.ImageUtil;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import nl.jusx.pycharm.lockprofiler.profile.IcicleLayout;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileFiles;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JComponent;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Icicle chart of an {@link IcicleLayout}: files on top and locks at the bottom, zoomed with the mouse wheel,
+ * panned by dragging, and a click on a frame navigates to its line
+ *
+ * The chart is painted from cached image tiles of a fixed width. Panning only renders the tiles that scroll into
+ * view, zooming renders the visible tiles once at the new scale. Frames narrower than a pixel are not painted one
+ * by one: a pixel column of them is filled once, and the rest of the frames in that column are skipped with a
+ * binary search, so rendering a tile depends on its width in pixels rather than on the number of frames. Labels
+ * are painted over the tiles, skipping frames too narrow for a label the same way.
+ */
+public final class IcicleChart extends JComponent {
+    private static final int TILE_WIDTH = 256;
+    private static final int MAX_TILES = 128;
+    private static final double MIN_VIEW_WIDTH = 1e-9;
+    private static final double ZOOM_STEP = 1.25;
+    private static final int LABEL_INSET = 3;
+    private static final int DRAG_THRESHOLD = 3;
+    private static final Color CULLED = new Color(0xB0, 0x90, 0x80);
+    private static final Color TEXT = Color.BLACK;
+    // Warm colors like a flame graph, a frame gets one by its label so that it keeps its color when zooming
+    private static final Color[] PALETTE = new Color[32];
+
+    static {
+        for (int i = 0; i < PALETTE.length; i++) {
+            float hue = 0.12f * i / (PALETTE.length - 1);
+            PALETTE[i] = Color.getHSBColor(hue, 0.55f + 0.2f * (i % 3) / 2, 0.95f);
+        }
+    }
+
+    private final Project project;
+    private @Nullable IcicleLayout layout;
+    private @Nullable ProfileFiles files;
+    // Visible part of the layout, as fractions of its total
+    private double viewX = 0;
+    private double viewWidth = 1;
+    // Tiles rendered at tileScale pixels per layout width and tileHeight, by tile index, least recently used first
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > MAX_TILES;
+        }
+    };
+    private double tileScale;
+    private int tileHeight;
+
+    public IcicleChart(Project project) {
+        this.project = project;
+        setOpaque(true);
+        // Registers the chart for tooltips, see getToolTipText(MouseEvent)
+        setToolTipText("");
+
+        MouseAdapter mouse = new MouseAdapter() {
+            private int pressX;
+            private double pressViewX;
+            private boolean dragged;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressX = e.getX();
+                pressViewX = viewX;
+                dragged = false;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                int dx = e.getX() - pressX;
+                dragged |= Math.abs(dx) >= DRAG_THRESHOLD;
+                if (dragged && getWidth() > 0) {
+                    setView(pressViewX - (double) dx / getWidth() * viewWidth, viewWidth);
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (!dragged) {
+                    navigate(frameAt(e.getX(), e.getY()));
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(e.getX(), Math.pow(ZOOM_STEP, e.getPreciseWheelRotation()));
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Shows a layout, zoomed out
+     *
+     * @param files files of the profile the layout was computed for
+     */
+    public void setIcicleLayout(@Nullable IcicleLayout layout, @Nullable ProfileFiles files) {
+        this.layout = layout;
+        this.files = files;
+        viewX = 0;
+        viewWidth = 1;
+        tiles.clear();
+        repaint();
+    }
+
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        // The tiles are painted with the colors and font of the previous theme
+        tiles.clear();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(JBUI.scale(400), IcicleLayout.DEPTHS * rowHeight());
+    }
+
+    private int rowHeight() {
+        return getFontMetrics(getFont()).getHeight() + JBUI.scale(4);
+    }
+
+    private void zoom(int anchorX, double factor) {
+        if (getWidth() == 0) {
+            return;
+        }
+        double newWidth = Math.max(MIN_VIEW_WIDTH, Math.min(1, viewWidth * factor));
+        // The point under the mouse stays where it is
+        double anchor = viewX + (double) anchorX / getWidth() * viewWidth;
+        setView(anchor - (double) anchorX / getWidth() * newWidth, newWidth);
+    }
+
+    private void setView(double x, double width) {
+        viewWidth = width;
+        viewX = Math.max(0, Math.min(1 - width, x));
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (layout == null || getWidth() == 0) {
+            return;
+        }
+
+        double scale = getWidth() / viewWidth;
+        if (scale != tileScale || getHeight() != tileHeight) {
+            tiles.clear();
+            tileScale = scale;
+            tileHeight = getHeight();
+        }
+        double left = viewX * scale;
+        long firstTile = (long) Math.floor(left / TILE_WIDTH);
+        long lastTile = (long) Math.floor((left + getWidth() - 1) / TILE_WIDTH);
+        for (long tile = firstTile; tile <= lastTile; tile++) {
+            BufferedImage image = tiles.get(tile);
+            if (image == null) {
+                image = renderTile(g, tile, scale);
+                tiles.put(tile, image);
+            }
+            UIUtil.drawImage(g, image, (int) Math.round(tile * TILE_WIDTH - left), 0, null);
+        }
+        paintLabels(g, scale, left);
+    }
+
+    private BufferedImage renderTile(Graphics context, long tile, double scale) {
+        BufferedImage image = ImageUtil.createImage(context, TILE_WIDTH, getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = (Graphics2D) image.getGraphics();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, TILE_WIDTH, getHeight());
+        int rowHeight = rowHeight();
+
+        double tileLeft = (double) tile * TILE_WIDTH;
+        double from = tileLeft / scale;
+        double to = (tileLeft + TILE_WIDTH) / scale;
+        for (int depth = 0; depth < IcicleLayout.DEPTHS; depth++) {
+            int y = depth * rowHeight;
+            int end = layout.depthEnd(depth);
+            for (int frame = layout.firstEndingAfter(depth, from); frame < end && layout.x(frame) < to; frame++) {
+                double frameX = layout.x(frame) * scale - tileLeft;
+                double frameWidth = layout.width(frame) * scale;
+                if (frameWidth < 1) {
+                    // Level of detail: the frames of this pixel column are filled once and skipped
+                    int column = (int) Math.floor(frameX);
+                    g.setColor(CULLED);
+                    g.fillRect(column, y, 1, rowHeight - 1);
+                    double nextColumn = (tileLeft + column + 1) / scale;
+                    frame = Math.max(frame, layout.firstEndingAfter(depth, nextColumn) - 1);
+                    continue;
+                }
+
+                int x = (int) Math.floor(frameX);
+                int width = Math.max(1, (int) Math.floor(frameX + frameWidth) - x - 1);
+                String label = layout.label(frame);
+                g.setColor(PALETTE[(label.hashCode() & 0x7fffffff) % PALETTE.length]);
+                g.fillRect(x, y, width, rowHeight - 1);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Paints the labels of the visible frames that are wide enough, over the tiles. Labels are not part of the
+     * tiles so that a frame that starts left of the view still shows its label at the left of the view.
+     */
+    private void paintLabels(Graphics g, double scale, double left) {
+        UISettings.setupAntialiasing(g);
+        g.setFont(getFont());
+        g.setColor(TEXT);
+        FontMetrics metrics = g.getFontMetrics();
+        int rowHeight = rowHeight();
+        int labelWidth = metrics.charWidth('m') * 3;
+        Shape clip = g.getClip();
+        // Frames that end before this distance from a frame start are too narrow for a label
+        double skip = labelWidth / scale;
+        double to = viewX + viewWidth;
+        for (int depth = 0; depth < IcicleLayout.DEPTHS; depth++) {
+            int y = depth * rowHeight;
+            int baseline = y + (rowHeight - metrics.getHeight()) / 2 + metrics.getAscent();
+            int end = layout.depthEnd(depth);
+            for (int frame = layout.firstEndingAfter(depth, viewX); frame < end && layout.x(frame) < to; frame++) {
+                int x = (int) Math.max(0, Math.floor(layout.x(frame) * scale - left));
+                double frameRight = (layout.x(frame) + layout.width(frame)) * scale - left;
+                int frameEnd = (int) Math.min(getWidth(), Math.floor(frameRight));
+                if (frameEnd - x < labelWidth) {
+                    frame = Math.max(frame, layout.firstEndingAfter(depth, layout.x(frame) + skip) - 1);
+                    continue;
+                }
+                g.setClip(clip);
+                g.clipRect(x, y, frameEnd - x - LABEL_INSET, rowHeight);
+                g.drawString(layout.label(frame), x + LABEL_INSET, baseline);
+            }
+        }
+        g.setClip(clip);
+    }
+
+    /**
+     * @return frame at a point of the chart, -1 if there is none
+     */
+    private int frameAt(int x, int y) {
+        int depth = y / rowHeight();
+        if (layout == null || getWidth() == 0 || depth >= IcicleLayout.DEPTHS) {
+            return -1;
+        }
+        return layout.frameAt(depth, viewX + (double) x / getWidth() * viewWidth);
+    }
+
+    @Nullable
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int frame = frameAt(event.getX(), event.getY());
+        if (frame < 0) {
+            return null;
+        }
+        return String.format("%s: %s %s (%.1f%%)", layout.label(frame), layout.metric().getLabel(),
+                ProfileSchema.formatTime(layout.value(frame)), 100.0 * layout.value(frame) / layout.total());
+    }
+
+    private void navigate(int frame) {
+        if (frame < 0 || files == null) {
+            return;
+        }
+        VirtualFile file = VirtualFileManager.getInstance().findFileByNioPath(
+                Paths.get(files.file(layout.fileId(frame))));
+        if (file != null) {
+            new OpenFileDescriptor(project, file, Math.max(0, layout.line(frame) - 1), 0).navigate(true);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.colors.EditorColorsListener;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.impl.FontInfo;
+import com.intellij.openapi.util.Key;
+import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+
+import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.*;
+
+/**
+ * Fonts, metrics and colors that the inlays of one editor are painted with
+ *
+ * Kept as user data of the editor and only created again when the editor font, its size (zoom), the color
+ * scheme or the maximum table alignment changes. Renderers measure their text once per cache, see {@link LineProfileInlayRenderer}.
+ */
+public final class InlayRenderCache {
+    private static final Key<InlayRenderCache> KEY = Key.create("nl.jusx.pycharm.lockprofiler.inlayRenderCache");
+    // Incremented when a color scheme or a setting changes, older caches are created again
+    private static volatile int cacheVersion;
+
+    final Font font;
+    final FontMetrics metrics;
+    final FontRenderContext fontRenderContext;
+    final Color textColor;
+    // Width of a space in the plain editor font
+    final int spaceWidth;
+    // Inlay tables that would start at or past this x are not aligned, see SettingsState#getTableAlignmentMaxColumns
+    final int maxAlignmentX;
+
+    private final EditorColorsScheme scheme;
+    private final String fontName;
+    private final int fontSize;
+    private final int version;
+
+    private InlayRenderCache(Editor editor) {
+        scheme = editor.getColorsScheme();
+        fontName = scheme.getEditorFontName();
+        fontSize = scheme.getEditorFontSize();
+        version = cacheVersion;
+
+        font = getFont(editor, Font.ITALIC);
+        fontRenderContext = FontInfo.getFontRenderContext(editor.getContentComponent());
+        metrics = FontInfo.getFontMetrics(font, fontRenderContext);
+        textColor = getAttributes(editor).getForegroundColor();
+        spaceWidth = getFontMetrics(editor).charWidth(' ');
+        maxAlignmentX = spaceWidth * SettingsState.getInstance().getTableAlignmentMaxColumns();
+    }
+
+    /**
+     * @return render cache of an editor, created again if it is outdated
+     */
+    public static InlayRenderCache get(Editor editor) {
+        InlayRenderCache cache = editor.getUserData(KEY);
+        if (cache == null || !cache.isValidFor(editor)) {
+            cache = new InlayRenderCache(editor);
+            editor.putUserData(KEY, cache);
+        }
+        return cache;
+    }
+
+    private boolean isValidFor(Editor editor) {
+        EditorColorsScheme editorScheme = editor.getColorsScheme();
+        return version == cacheVersion &&
+                editorScheme == scheme &&
+                editorScheme.getEditorFontSize() == fontSize &&
+                editorScheme.getEditorFontName().equals(fontName);
+    }
+
+    /**
+     * Outdates the render caches of all editors, so that they are created again when painted next
+     */
+    public static void outdateAll() {
+        cacheVersion++;
+    }
+
+    /**
+     * Outdates the render caches of all editors when a color scheme changes
+     */
+    public static final class SchemeListener implements EditorColorsListener {
+        @Override
+        public void globalSchemeChange(@Nullable EditorColorsScheme scheme) {
+            outdateAll();
+        }
+    }
+}
@@ -32,4 +32,15 @@ public class InlayRendererUtils {
     public static TextAttributes getAttributes(@NotNull Editor editor) {
         return editor.getColorsScheme().getAttributes(ATTRIBUTES_KEY);
     }
+
+    /**
+     * Color of a relative difference: red for an increase, green for a decrease, brighter for larger differences
+     */
+    public static Color getDiffColor(double relative) {
+        float strength = (float) Math.min(1.0, Math.abs(relative));
+        if (relative > 0) {
+            return new Color(0.3f + 0.7f * strength, 0.3f, 0.3f);
+        }
+        return new Color(0.3f, 0.3f + 0.6f * strength, 0.3f);
+    }
 }
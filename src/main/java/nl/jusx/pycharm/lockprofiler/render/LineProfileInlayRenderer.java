@@ -1,23 +1,23 @@
 package nl.jusx.pycharm.lockprofiler.render;
 
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorCustomElementRenderer;
 import com.intellij.openapi.editor.Inlay;
-import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.editor.colors.TextAttributesKey;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import nl.jusx.pycharm.lockprofiler.profile.IndexSort;
+import nl.jusx.pycharm.lockprofiler.profile.LineTable;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileDiff;
 import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
 import nl.jusx.pycharm.lockprofiler.service.ColorMapService;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
+import java.awt.font.TextLayout;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.stream.Collectors;
-
-import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.*;
 
 
 /**
@@ -28,123 +28,231 @@ import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.*;
 public class LineProfileInlayRenderer implements EditorCustomElementRenderer {
     public static final int RESULT_TABLE_STRING_MARGIN_BLOCKS = 3;
 
-    private final ProfileSchema schema;
-//    private final Map<Integer, ProfileSchema.LockStats> lock_stats;
-//    private final long timeDenominator;
     private final int lineNo;
-//    private final int numLocks;
-//    private final long total_acquire_time;
-//    private final long total_hold_time;
-//    private final long total_hits;
-    private final String text;
+    private String text;
     private final TableAlignment tableAlignment;
     private final int margin;
+    // Color of the color block, if it does not follow the colormap
+    private final @Nullable Color color;
+    // Fractions that the color block follows if it has no color, shared by the renderers of a file
+    private @Nullable TimeFractions timeFractions;
+    private int fractionIndex;
+    // Text measured with the render cache of the editor, null until the inlay is measured
+    private @Nullable Measured measured;
 
+    /**
+     * @param lineNo line number as written by the profiler, starting at 1
+     * @param text results table string, see {@link #formatLocks}
+     */
     public LineProfileInlayRenderer(
-            ProfileSchema schema,
             int lineNo,
-            Map<Long, ProfileSchema.LockStats> lock_stats,
+            String text,
 //          long timeDenominator,
             TableAlignment tableAlignment,
             int margin) {
+        this(lineNo, text, tableAlignment, margin, null);
+    }
+
+    /**
+     * @param color color of the color block, null to use the colormap
+     */
+    public LineProfileInlayRenderer(
+            int lineNo,
+            String text,
+            TableAlignment tableAlignment,
+            int margin,
+            @Nullable Color color) {
+        this(lineNo, text, tableAlignment, margin, color, null, 0);
+    }
+
+    /**
+     * @param timeFractions fractions of the lines of the file, the color block follows the colormap at the
+     *                      fraction of this line
+     * @param fractionIndex index of this line in the fractions
+     */
+    public LineProfileInlayRenderer(
+            int lineNo,
+            String text,
+            TableAlignment tableAlignment,
+            int margin,
+            TimeFractions timeFractions,
+            int fractionIndex) {
+        this(lineNo, text, tableAlignment, margin, null, timeFractions, fractionIndex);
+    }
+
+    private LineProfileInlayRenderer(
+            int lineNo,
+            String text,
+            TableAlignment tableAlignment,
+            int margin,
+            @Nullable Color color,
+            @Nullable TimeFractions timeFractions,
+            int fractionIndex) {
 
-        this.schema = schema;
-        //        this.lock_stats = lock_stats;
 //        this.timeDenominator = timeDenominator;
         this.lineNo = lineNo;
-//        this.numLocks = lock_stats.size();
-//        this.total_hits = lock_stats.values().stream().mapToLong(s -> s.hits).sum();
-//        this.total_acquire_time = lock_stats.values().stream().mapToLong(s -> s.total_acquire_time).sum();
-//        this.total_hold_time = lock_stats.values().stream().mapToLong(s -> s.total_hold_time).sum();
-        List<String> texts = lock_stats
-                .entrySet()
-                .stream()
-                .sorted(Comparator.comparingLong(e->e.getValue().total_wait_time))
-                .map(e -> {
-                    return String.format("%s %d %d %s %s",
-                        schema.getLockName(e.getKey()),
-                        e.getValue().hits,
-                        e.getValue().acquires,
-                        ProfileSchema.formatTime(e.getValue().total_wait_time),
-                        ProfileSchema.formatTime(e.getValue().total_hold_time)
-                    );})
-                .collect(Collectors.toList());
-
-        this.text = String.join("|", texts);
+        this.text = text;
         this.tableAlignment = tableAlignment;
         this.margin = margin;
+        this.color = color;
+        this.timeFractions = timeFractions;
+        this.fractionIndex = fractionIndex;
+    }
+
+    /**
+     * Replaces the text and the fractions of this line, such as on a refresh of a live profile
+     *
+     * @param fractionIndex index of this line in the new fractions
+     * @return whether the text changed, in which case the inlay must be updated as its width may have changed
+     */
+    public boolean update(String text, @Nullable TimeFractions timeFractions, int fractionIndex) {
+        this.timeFractions = timeFractions;
+        this.fractionIndex = fractionIndex;
+        if (text.equals(this.text)) {
+            return false;
+        }
+        this.text = text;
+        measured = null;
+        return true;
+    }
+
+    /**
+     * Formats the results table string of the locks of one line. This does not need the EDT.
+     *
+     * @param startRow first row of the line
+     * @param endRow row after the last row of the line
+     */
+    public static String formatLocks(ProfileSchema schema, LineTable lineStats, int startRow, int endRow) {
+        int[] rows = IndexSort.range(startRow, endRow);
+        IndexSort.sort(rows, (a, b) -> Long.compare(
+                lineStats.get(a, Metric.TOTAL_WAIT), lineStats.get(b, Metric.TOTAL_WAIT)));
+        List<String> texts = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            texts.add(String.format("%s %d %d %s %s",
+                    schema.getLockName(lineStats.lockHash(row)),
+                    lineStats.get(row, Metric.HITS),
+                    lineStats.get(row, Metric.ACQUIRES),
+                    ProfileSchema.formatTime(lineStats.get(row, Metric.TOTAL_WAIT)),
+                    ProfileSchema.formatTime(lineStats.get(row, Metric.TOTAL_HOLD))
+            ));
+        }
+        return String.join("|", texts);
+    }
+
+    /**
+     * Formats the differences of one line of a profile diff, signed. This does not need the EDT.
+     *
+     * @param row line row of the diff
+     */
+    public static String formatLineDiff(ProfileDiff diff, int row) {
+        StringBuilder text = new StringBuilder("\u0394");
+        for (int m = 0; m < ProfileDiff.METRICS.length; m++) {
+            Metric metric = ProfileDiff.METRICS[m];
+            long base = diff.lineBase(row, m);
+            long other = diff.lineOther(row, m);
+            text.append(' ').append(metric.getLabel()).append(' ')
+                    .append(metric.isTime()
+                            ? ProfileSchema.formatSignedTime(other - base)
+                            : String.format("%+d", other - base))
+                    .append(" (").append(LockProfilerToolWindow.formatRelative(ProfileDiff.relative(base, other)))
+                    .append(')');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Takes the lines that will get inlays into account for a table alignment before they are painted,
+     * so that the table does not move while their inlays are painted for the first time
+     *
+     * @param lineNumbers line numbers as written by the profiler, starting at 1
+     */
+    public static void precomputeAlignment(Editor editor, TableAlignment tableAlignment, int[] lineNumbers,
+                                           int margin) {
+        Document document = editor.getDocument();
+        for (int lineNo : lineNumbers) {
+            if (lineNo < 1 || lineNo > document.getLineCount()) {
+                continue;
+            }
+            // An inlay after the line end is painted where the line ends
+            int lineEndX = editor.offsetToXY(document.getLineEndOffset(lineNo - 1)).x;
+            tableAlignment.align(editor, lineEndX + RESULT_TABLE_STRING_MARGIN_BLOCKS * margin, lineNo - 1);
+        }
     }
 
     @Override
     public int calcWidthInPixels(@NotNull Inlay inlay) {
         // TODO this doesn't seem to take into account that the inlay may have blank space on the left due to tableAlignment
-        FontMetrics metrics = getFontMetrics(inlay.getEditor());
-
-        return RESULT_TABLE_STRING_MARGIN_BLOCKS * margin +
-                // 53 ' ' because of the results table string format (6 + 15 + 15 + 17)
-                metrics.charWidth(' ') * text.length();
+        return RESULT_TABLE_STRING_MARGIN_BLOCKS * margin + measure(inlay.getEditor()).textWidth;
     }
 
     @Override
     public void paint(@NotNull Inlay inlay, @NotNull Graphics g, @NotNull Rectangle targetRegion, @NotNull TextAttributes textAttributes) {
         Editor editor = inlay.getEditor();
-        paintTableAligned(editor, g, targetRegion.getLocation());
+        paintTableAligned(editor, g, targetRegion.x, targetRegion.y);
     }
 
-    private void paintTableAligned(@NotNull Editor editor, @NotNull Graphics g, @NotNull Point renderAnchor) {
+    /**
+     * Measures the text of this renderer with the render cache of an editor, once per cache
+     */
+    private Measured measure(@NotNull Editor editor) {
+        InlayRenderCache cache = InlayRenderCache.get(editor);
+        Measured measured = this.measured;
+        if (measured == null || measured.cache != cache) {
+            measured = new Measured(cache, text);
+            this.measured = measured;
+        }
+        return measured;
+    }
+
+    private void paintTableAligned(@NotNull Editor editor, @NotNull Graphics g, int x, int y) {
         // Table begins rendering x margins to the right
-        renderAnchor.x = tableAlignment.align(
-                editor, renderAnchor.x + RESULT_TABLE_STRING_MARGIN_BLOCKS * margin,
-                String.valueOf(lineNo - 1));
-//        System.out.printf("%d %d\n", renderAnchor.y, renderAnchor.x);
+        int tableX = tableAlignment.align(editor, x + RESULT_TABLE_STRING_MARGIN_BLOCKS * margin, lineNo - 1);
         // Color begins rendering 2 margins to the left of that
-        Point colorAnchor = renderAnchor.getLocation();
-        colorAnchor.x -= 2 * margin;
-
-        paintColorbar(editor, g, colorAnchor);
-        paintResultTableString(editor, g, renderAnchor);
+        paintColorbar(editor, g, tableX - 2 * margin, y);
+        paintResultTableString(editor, g, tableX, y);
     }
 
     /**
      * Paints the color block next to a line, visualizing the timefraction
      * @param editor editor to draw for
      * @param g graphic to draw in
-     * @param renderAnchor anchor for results rendering
      */
-    private void paintColorbar(@NotNull Editor editor, @NotNull Graphics g, @NotNull Point renderAnchor) {
-        ColorMapService colorMapService = ApplicationManager.getApplication().getService(ColorMapService.class);
-
-        float timeFraction = 1;//lock_stats.getTimeFraction(timeDenominator);
-        TextAttributesKey key = colorMapService.getTimeFractionTextAttributesKey(timeFraction);
-
-        Color color = EditorColorsManager.getInstance().getGlobalScheme().getAttributes(key).getBackgroundColor();
+    private void paintColorbar(@NotNull Editor editor, @NotNull Graphics g, int x, int y) {
+        Color color = this.color;
+        if (color == null) {
+            float timeFraction = timeFractions == null ? 1 : timeFractions.fraction(fractionIndex);
+            color = ColorMapService.getInstance().getTimeFractionColor(timeFraction);
+        }
 
         g.setColor(color);
-        g.fillRect(renderAnchor.x, renderAnchor.y,
-                margin, editor.getLineHeight());
+        g.fillRect(x, y, margin, editor.getLineHeight());
     }
 
-    private void paintResultTableString(@NotNull Editor editor, @NotNull Graphics g, @NotNull Point paintOrigin) {
-        Font font = getFont(editor, Font.ITALIC);
-        g.setFont(font);
-
-        Color textColor = getAttributes(editor).getForegroundColor();
-        g.setColor(textColor);
-
-        int x = paintOrigin.x;
-        int y = paintOrigin.y + editor.getAscent();
-
-        g.drawString(getResultTableString(x), x, y);
+    private void paintResultTableString(@NotNull Editor editor, @NotNull Graphics g, int x, int y) {
+        Measured measured = measure(editor);
+        if (text.isEmpty()) {
+            // An empty text can not be laid out
+            return;
+        }
+        if (measured.layout == null) {
+            // Laid out on the first paint, not when the inlay is added, so only painted inlays keep a layout
+            measured.layout = new TextLayout(text, measured.cache.font, measured.cache.fontRenderContext);
+        }
+        g.setColor(measured.cache.textColor);
+        measured.layout.draw((Graphics2D) g, x, y + editor.getAscent());
     }
 
-    private String getResultTableString(int x) {
-        return text;
-//        return String.format("%5d locks:%-3d hits:%-5d wait:%-10s hold:%-10s",
-//                x,
-//                numLocks,
-//                total_hits,
-//                ProfileSchema.formatTime(total_acquire_time),
-//                ProfileSchema.formatTime(total_hold_time)
-//        );
+    /**
+     * Text of a renderer laid out with the font of a render cache
+     */
+    private static final class Measured {
+        final InlayRenderCache cache;
+        final int textWidth;
+        @Nullable TextLayout layout;
+
+        Measured(InlayRenderCache cache, String text) {
+            this.cache = cache;
+            this.textWidth = cache.metrics.stringWidth(text);
+        }
     }
 }
@@ -2,27 +2,68 @@
 
 package nl.jusx.pycharm.lockprofiler.render;
 
+import com.intellij.ide.ui.UISettings;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.wm.ToolWindow;
-//import com.intellij.ui.treeStructure.treetable.TreeTable;
-//import com.intellij.ui.treeStructure.treetable.TreeTableModel;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.intellij.ui.treeStructure.treetable.TreeTable;
+import nl.jusx.pycharm.lockprofiler.profile.FileGroups;
+import nl.jusx.pycharm.lockprofiler.profile.IcicleLayout;
+import nl.jusx.pycharm.lockprofiler.profile.LineTable;
+import nl.jusx.pycharm.lockprofiler.profile.LockTable;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
 import nl.jusx.pycharm.lockprofiler.profile.Profile;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileDiff;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileFiles;
 import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
+import nl.jusx.pycharm.lockprofiler.profile.RowFilterIndex;
+import nl.jusx.pycharm.lockprofiler.profile.ScopeStats;
+import nl.jusx.pycharm.lockprofiler.service.PyScopes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableModel;
 import java.awt.*;
-import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class LockProfilerToolWindow implements Disposable {
     private Profile profile;
+    // Profile that is shown in the line table, which is filled lazily
+    private Profile lineTableProfile;
+    // Profile that is shown in the function table, which is filled lazily
+    private Profile scopeTableProfile;
+    // Profile that is shown in the tree, which is filled lazily
+    private Profile treeTableProfile;
+    // Profile that is shown in the icicle chart, which is laid out lazily, and its layout per icicle metric
+    private Profile icicleProfile;
+    private IcicleLayout[] icicleLayouts;
+    // Incremented by update, but not by a refresh of the live profile, so that a lazy tab that takes longer to
+    // build than a refresh is still shown
+    private int profileGeneration;
+    // Whether a lazy tab is being built, another build of it is not started meanwhile
+    private boolean lineTableBuilding;
+    private boolean scopeTableBuilding;
+    private boolean treeTableBuilding;
+    private boolean icicleBuilding;
     private Project project;
 
     private JPanel wrapper;
+    private JPanel filterBar;
+    private JTextField lockFilter;
+    private JTextField pathFilter;
+    private JTextField waitFilter;
     private JTabbedPane tabs;
     private JPanel lockContent;
     private JPanel lineContent;
@@ -30,153 +71,712 @@ public class LockProfilerToolWindow implements Disposable {
     private JScrollPane lockScroll;
     private JScrollPane lineScroll;
     private JTable lineTable;
+    private JPanel scopeContent;
+    private JScrollPane scopeScroll;
+    private JTable scopeTable;
+    private JPanel treeContent;
+    private JScrollPane treeScroll;
+    private JPanel icicleContent;
+    private JComboBox<Metric> icicleMetric;
+    private JPanel icicleHolder;
+    private final IcicleChart icicleChart;
+    private JPanel diffContent;
+    private JSplitPane diffSplit;
+    private JScrollPane lockDiffScroll;
+    private JScrollPane lineDiffScroll;
+    private JTable lockDiffTable;
+    private JTable lineDiffTable;
 
 
-    private static class LockTableModel extends DefaultTableModel {
-        private final int firstTimeColumn;
-        private final Class[] columnClass;
-        private final long[] maxTimes;
-
-        public LockTableModel(Object[][] data, Object[] columnNames, int firstTimeColumn) {
-            super(data, columnNames);
-            if (data.length > 0) {
-                columnClass = Arrays.stream(data[0]).map(Object::getClass).toArray(Class[]::new);
-                maxTimes = new long[data[0].length];
-                // TODO there's probably a better way to compute this
-                Arrays.stream(data).forEach(e -> {
-                    // NOTE: `- 3` to include `hits`, `acquires`, and `blocks`
-                    for (int i = firstTimeColumn - 3; i < e.length; i++) {
-                        maxTimes[i] = Math.max(maxTimes[i], (long) e[i]);
-                    }
-                });
+    /**
+     * Renderer of the metric columns of a {@link StatTableModel}, with a background that turns redder towards
+     * the maximum of the column, or of a {@link StatTreeModel}, with a background that turns redder towards the
+     * value of the parent node
+     *
+     * The text is formatted into a reused buffer and painted from it, and the backgrounds come from lookup tables
+     * of blended colors, so rendering a cell allocates nothing. The backgrounds are blended with the background
+     * of the table, or its selection background for selected rows, so they follow the IDE theme.
+     */
+    private static class TimeRenderer extends JComponent implements TableCellRenderer {
+        private static final int TEXT_INSET = 2;
+
+        private final StringBuilder text = new StringBuilder(32);
+        private char[] chars = new char[32];
+        private final HeatColors colors = new HeatColors();
+        private final HeatColors selectedColors = new HeatColors();
+
+        public TimeRenderer() {
+            setOpaque(true);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            Metric metric;
+            float fraction;
+            text.setLength(0);
+            if (value == null) {
+                // A placeholder row of a tree
+                metric = null;
+                fraction = 0;
+            } else if (value instanceof StatTreeModel.NodeValue) {
+                metric = ((StatTreeModel.NodeValue) value).getMetric();
+                fraction = ((StatTreeModel.NodeValue) value).getFraction();
+                appendValue(metric, ((Number) value).longValue());
             } else {
-                 columnClass = new Class[] {};
-                maxTimes = new long[] {};
+                StatTableModel model = (StatTableModel) table.getModel();
+                int modelColumn = table.convertColumnIndexToModel(column);
+                metric = model.getMetric(modelColumn);
+                long val = ((Number) value).longValue();
+                appendValue(metric, val);
+                long max = metric == null ? 0 : model.getMaxColumnValue(modelColumn);
+                fraction = max > 0 ? (float) val / max : 0;
+            }
+            if (text.length() > chars.length) {
+                chars = new char[2 * text.length()];
+            }
+            text.getChars(0, text.length(), chars, 0);
+
+            if (isSelected) {
+                setBackground(selectedColors.get(table.getSelectionBackground(), fraction));
+                setForeground(table.getSelectionForeground());
+            } else {
+                setBackground(colors.get(table.getBackground(), fraction));
+                setForeground(table.getForeground());
+            }
+            setFont(table.getFont());
+            return this;
+        }
+
+        private void appendValue(@Nullable Metric metric, long value) {
+            if (metric != null && metric.isTime()) {
+                ProfileSchema.appendTime(text, value);
+            } else {
+                text.append(value);
             }
-            this.firstTimeColumn = firstTimeColumn;
         }
 
         @Override
-        public boolean isCellEditable(int row, int column) {
-            return false;
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+
+            UISettings.setupAntialiasing(g);
+            FontMetrics metrics = getFontMetrics(getFont());
+            g.setFont(getFont());
+            g.setColor(getForeground());
+            int y = (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent();
+            g.drawChars(chars, 0, text.length(), TEXT_INSET, y);
         }
 
+        // Like DefaultTableCellRenderer, a renderer is only painted, so it does not need to be laid out or
+        // notify listeners when a cell changes its colors or font
         @Override
-        public Class<?> getColumnClass(int columnIndex) {
-            if (columnClass.length > 0) {
-                return columnClass[columnIndex];
+        public void invalidate() {
+        }
+
+        @Override
+        public void validate() {
+        }
+
+        @Override
+        public void revalidate() {
+        }
+
+        @Override
+        public void repaint(long tm, int x, int y, int width, int height) {
+        }
+
+        @Override
+        public void repaint(Rectangle r) {
+        }
+
+        @Override
+        public void repaint() {
+        }
+
+        @Override
+        protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+        }
+    }
+
+    /**
+     * Backgrounds of a {@link TimeRenderer}, quantised into levels that are blended once per base color
+     */
+    private static class HeatColors {
+        // Number of distinct backgrounds between the base color and the hottest color
+        private static final int LEVELS = 64;
+        // Share of the heat color in the background of the cell with the maximum of the column
+        private static final float MAX_HEAT = 0.7f;
+        private static final Color HEAT = Color.RED;
+
+        private final Color[] levels = new Color[LEVELS];
+        private Color base;
+
+        /**
+         * @param base background of a cell with value 0, the colors are blended again when it changes
+         * @param fraction fraction of the maximum of the column, from 0 to 1
+         */
+        Color get(Color base, float fraction) {
+            if (!base.equals(this.base)) {
+                for (int level = 0; level < LEVELS; level++) {
+                    levels[level] = blend(base, HEAT, MAX_HEAT * level / (LEVELS - 1));
+                }
+                this.base = base;
             }
-            return Long.class;
-//            if (columnIndex >= firstTimeColumn) {
-//                return Long.class;
-//            }
-//            return String.class;
+            int level = Math.round(Math.max(0, Math.min(1, fraction)) * (LEVELS - 1));
+            return levels[level];
         }
 
-        public long getMaxColumnValue(int columnIndex) {
-            return maxTimes[columnIndex];
+        private static Color blend(Color from, Color to, float weight) {
+            return new Color(
+                    Math.round(from.getRed() + (to.getRed() - from.getRed()) * weight),
+                    Math.round(from.getGreen() + (to.getGreen() - from.getGreen()) * weight),
+                    Math.round(from.getBlue() + (to.getBlue() - from.getBlue()) * weight));
         }
     }
 
-    private static class TimeRenderer extends JLabel implements TableCellRenderer {
-        private final int firstTimeColumn;
+    /**
+     * Renderer of the value columns of a diff table, which hold the base value, the other value, the difference
+     * and the relative difference of each metric of {@link ProfileDiff#METRICS}, see {@link #addDiffColumns}
+     */
+    private static class DiffRenderer extends DefaultTableCellRenderer {
+        private final int firstValueColumn;
 
-        public TimeRenderer(int firstTimeColumn) {
-            // TODO this makes selection highlight not show up on the affected cells, but is needed for background color
-            super.setOpaque(true);
-            this.firstTimeColumn = firstTimeColumn;
+        DiffRenderer(int firstValueColumn) {
+            this.firstValueColumn = firstValueColumn;
         }
 
         @Override
         public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
                                                        boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            int valueColumn = table.convertColumnIndexToModel(column) - firstValueColumn;
+            boolean time = ProfileDiff.METRICS[valueColumn / 4].isTime();
+            setHorizontalAlignment(SwingConstants.RIGHT);
+            setForeground(isSelected ? table.getSelectionForeground() : table.getForeground());
+            switch (valueColumn % 4) {
+                case 0:
+                case 1:
+                    long number = ((Number) value).longValue();
+                    setText(time ? ProfileSchema.formatTime(number) : String.valueOf(number));
+                    break;
+                case 2:
+                    long delta = ((Number) value).longValue();
+                    setText(time ? ProfileSchema.formatSignedTime(delta) : String.format("%+d", delta));
+                    break;
+                default:
+                    double relative = ((Number) value).doubleValue();
+                    setText(formatRelative(relative));
+                    if (time && !isSelected && relative != 0) {
+                        setForeground(InlayRendererUtils.getDiffColor(relative));
+                    }
+            }
+            return this;
+        }
+    }
+
+    // Metrics that the icicle chart can be sized by, the totals of which the frames add up
+    private static final Metric[] ICICLE_METRICS = {Metric.TOTAL_WAIT, Metric.TOTAL_HOLD, Metric.TOTAL_BLOCK};
+
+    public LockProfilerToolWindow(ToolWindow toolWindow, Project project) {
+        this.project = project;
+
+        lockTable.setDefaultRenderer(Long.class, new TimeRenderer());
+        lineTable.setDefaultRenderer(Long.class, new TimeRenderer());
+        scopeTable.setDefaultRenderer(Long.class, new TimeRenderer());
+        // Lock diff rows are keyed by name, line diff rows by file and line
+        DiffRenderer lockDiffRenderer = new DiffRenderer(1);
+        lockDiffTable.setDefaultRenderer(Long.class, lockDiffRenderer);
+        lockDiffTable.setDefaultRenderer(Double.class, lockDiffRenderer);
+        DiffRenderer lineDiffRenderer = new DiffRenderer(2);
+        lineDiffTable.setDefaultRenderer(Long.class, lineDiffRenderer);
+        lineDiffTable.setDefaultRenderer(Double.class, lineDiffRenderer);
+
+        // The filters are looked up in the indexes of the table models, which is fast enough to do on every key
+        DocumentAdapter filterListener = new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                applyFilter(lockTable);
+                applyFilter(lineTable);
+            }
+        };
+        lockFilter.getDocument().addDocumentListener(filterListener);
+        pathFilter.getDocument().addDocumentListener(filterListener);
+        waitFilter.getDocument().addDocumentListener(filterListener);
 
-            // NOTE: `- 3` to include `hits`, `acquires`, and `blocks`
-            if (table.convertColumnIndexToModel(column) >= firstTimeColumn - 3) {
-                long val = (long) value;
+        icicleChart = new IcicleChart(project);
+        icicleHolder.add(icicleChart, BorderLayout.CENTER);
+        icicleMetric.setModel(new DefaultComboBoxModel<>(ICICLE_METRICS));
+        icicleMetric.setRenderer(SimpleListCellRenderer.create("", Metric::getLabel));
+        icicleMetric.addActionListener(e -> showIcicleLayout());
 
-                // TODO make compatible with IDE color themes
-                LockTableModel model = (LockTableModel) table.getModel();
-                long maxTime = model.getMaxColumnValue(table.convertColumnIndexToModel(column));
-                float timeFraction = 0.7f * (float) val / (float) maxTime;
-                super.setBackground(new Color(timeFraction, 0.f, 0.f));
+        // The line and function tables, the tree and the icicle chart need the stats of every file, so they are
+        // only filled once they are looked at
+        tabs.addChangeListener(e -> updateSelectedTab());
+    }
+
+    /**
+     * Creates the model of the lock table, with its rows indexed for the filter bar. This does not need the EDT.
+     */
+    public static TableModel createLockTableModel(Profile profile) {
+        LockTable lockStats = profile.getLockStats();
+        return new StatTableModel.Builder(lockStats.size())
+                .text("Name", lockStats::name)
+                .metrics(lockStats)
+                .filterIndex(RowFilterIndex.forLocks(lockStats))
+                .build();
+    }
+
+    /**
+     * Creates the model of the line table, which decodes the stats of all files and indexes its rows for the
+     * filter bar. This does not need the EDT.
+     */
+    public static TableModel createLineTableModel(Profile profile) {
+        LineTable lineStats = profile.getProfiledFiles().all();
+        return new StatTableModel.Builder(lineStats.size())
+                .text("File", row -> lineStats.file(lineStats.fileId(row)))
+                .number("Line", lineStats::line)
+                .text("Name", row -> profile.schema.getLockName(lineStats.lockHash(row)))
+                .metrics(lineStats)
+                .filterIndex(RowFilterIndex.forLines(lineStats, profile.getLockStats()))
+                .build();
+    }
 
-                if (table.convertColumnIndexToModel(column) >= firstTimeColumn) {
-                    super.setText(ProfileSchema.formatTime(val));
-                } else {
-                    super.setText(String.valueOf(value));
+    /**
+     * Creates the model of the function table, which rolls up the stats of all files into their functions and
+     * classes. Rows are grouped by file, a class comes before its methods. This does not need the EDT.
+     */
+    public static TableModel createScopeTableModel(Project project, Profile profile) {
+        ProfileFiles profiledFiles = profile.getProfiledFiles();
+        // Rows refer to a scope of the rolled up stats of a file
+        List<ScopeStats> rowStats = new ArrayList<>();
+        int[] rowFileIds = new int[16];
+        int[] rowScopes = new int[16];
+        int numRows = 0;
+        for (int fileId = 0; fileId < profiledFiles.fileCount(); fileId++) {
+            ProgressManager.checkCanceled();
+            ScopeStats stats = PyScopes.rollup(project, profile, fileId);
+            if (stats == null) {
+                continue;
+            }
+            for (int scope = 0; scope < stats.size(); scope++) {
+                if (stats.lineCount(scope) == 0) {
+                    continue;
                 }
-            } else {
-                // NOTE: apparently `this` can be reused between multiple cells. It appears that `setText` is only
-                //  called internally if the current text is "". Without manually calling `setText` here, this leads
-                //  to columns 1 and 2 having time strings displayed, presumably because the JLabel from the last
-                //  column of the previous row was reused.
-                super.setText(String.valueOf(value));
-                super.setBackground(new Color(0.f, 0.f, 0.f));
+                if (numRows == rowScopes.length) {
+                    rowFileIds = Arrays.copyOf(rowFileIds, numRows * 2);
+                    rowScopes = Arrays.copyOf(rowScopes, numRows * 2);
+                }
+                rowStats.add(stats);
+                rowFileIds[numRows] = fileId;
+                rowScopes[numRows] = scope;
+                numRows++;
             }
-            return this;
         }
+
+        int[] fileIds = rowFileIds;
+        int[] scopes = rowScopes;
+        StatTableModel.Builder builder = new StatTableModel.Builder(numRows)
+                .text("File", row -> profiledFiles.file(fileIds[row]))
+                .text("Name", row -> rowStats.get(row).name(scopes[row]))
+                .text("Kind", row -> rowStats.get(row).isClass(scopes[row]) ? "class" : "function")
+                .number("Line", row -> rowStats.get(row).start(scopes[row]))
+                .number("Lines", row -> rowStats.get(row).lineCount(scopes[row]));
+        for (Metric metric : Metric.values()) {
+            builder.metric(metric, row -> rowStats.get(row).get(scopes[row], metric));
+        }
+        return builder.build();
     }
 
-    public LockProfilerToolWindow(ToolWindow toolWindow, Project project) {
-        this.project = project;
+    /**
+     * Creates the model of the lock diff table, which reads the columns of the diff. This does not need the EDT.
+     */
+    public static TableModel createLockDiffModel(ProfileDiff diff) {
+        StatTableModel.Builder builder = new StatTableModel.Builder(diff.lockCount())
+                .text("Name", diff::lockName);
+        addDiffColumns(builder, diff::lockBase, diff::lockOther);
+        return builder.build();
+    }
+
+    /**
+     * Creates the model of the line diff table, which reads the columns of the diff. This does not need the EDT.
+     */
+    public static TableModel createLineDiffModel(ProfileDiff diff) {
+        StatTableModel.Builder builder = new StatTableModel.Builder(diff.lineCount())
+                .text("File", row -> diff.file(diff.fileId(row)))
+                .number("Line", diff::line);
+        addDiffColumns(builder, diff::lineBase, diff::lineOther);
+        return builder.build();
+    }
+
+    /**
+     * Values of a metric of {@link ProfileDiff#METRICS} in the rows of a diff
+     */
+    private interface DiffValues {
+        long get(int row, int metric);
+    }
+
+    /**
+     * Adds the base value, the other value, the difference and the relative difference of each metric
+     */
+    private static void addDiffColumns(StatTableModel.Builder builder, DiffValues base, DiffValues other) {
+        for (int m = 0; m < ProfileDiff.METRICS.length; m++) {
+            Metric metric = ProfileDiff.METRICS[m];
+            String label = metric.getLabel();
+            int index = m;
+            builder.metric(label + " (base)", metric, row -> base.get(row, index))
+                    .metric(label, metric, row -> other.get(row, index))
+                    .metric("\u0394 " + label, metric, row -> other.get(row, index) - base.get(row, index))
+                    .decimal("\u0394% " + label, metric,
+                            row -> ProfileDiff.relative(base.get(row, index), other.get(row, index)));
+        }
+    }
+
+    /**
+     * Formats a relative difference as a signed percentage
+     */
+    public static String formatRelative(double relative) {
+        if (Double.isInfinite(relative)) {
+            return "new";
+        }
+        return String.format("%+.1f%%", 100 * relative);
+    }
+
+    /**
+     * Shows a comparison of two profiles in the diff tab
+     *
+     * @param lockDiffModel model created with {@link #createLockDiffModel}
+     * @param lineDiffModel model created with {@link #createLineDiffModel}
+     */
+    public void showDiff(TableModel lockDiffModel, TableModel lineDiffModel) {
+        setStatModel(lockDiffTable, lockDiffModel);
+        setStatModel(lineDiffTable, lineDiffModel);
+        tabs.setSelectedComponent(diffContent);
+    }
+
+    /**
+     * Shows a profile
+     *
+     * @param lockModel model created with {@link #createLockTableModel} for this profile
+     */
+    public void update(Profile profile, TableModel lockModel) {
+        this.profile = profile;
+        profileGeneration++;
+        this.lineTableProfile = null;
+        setStatModel(lockTable, lockModel);
+
+        setStatModel(lineTable, new DefaultTableModel());
+        this.scopeTableProfile = null;
+        setStatModel(scopeTable, new DefaultTableModel());
+        this.treeTableProfile = null;
+        treeScroll.setViewportView(null);
+        this.icicleProfile = null;
+        this.icicleLayouts = null;
+        showIcicleLayout();
+        updateSelectedTab();
+    }
+
+    /**
+     * Shows a newer version of the live profile that is currently shown
+     *
+     * Unlike {@link #update} this keeps the lazy tabs until they are built again, and keeps the sort order,
+     * selection and scroll position of the tables. The line and function tables are rebuilt if they are selected
+     * and not being built already. The tree and the icicle chart are only rebuilt when they are selected again,
+     * so that a refresh does not collapse the tree or zoom out the chart.
+     */
+    public void updateLive(Profile profile, TableModel lockModel) {
+        this.profile = profile;
+        setStatModel(lockTable, lockModel);
+        if (tabs.getSelectedComponent() == lineContent) {
+            updateLineTable();
+        } else if (tabs.getSelectedComponent() == scopeContent) {
+            updateScopeTable();
+        }
+    }
+
+    /**
+     * Fills the table of the selected tab, if it is filled lazily and does not show the current profile yet
+     */
+    private void updateSelectedTab() {
+        if (tabs.getSelectedComponent() == lineContent) {
+            updateLineTable();
+        } else if (tabs.getSelectedComponent() == scopeContent) {
+            updateScopeTable();
+        } else if (tabs.getSelectedComponent() == treeContent) {
+            updateTreeTable();
+        } else if (tabs.getSelectedComponent() == icicleContent) {
+            updateIcicleChart();
+        }
+    }
+
+    /**
+     * Shows a model in a table, sorted by a {@link StatRowSorter} and filtered by the filter bar if it is a
+     * {@link StatTableModel}
+     *
+     * If the table showed a model with the same columns, such as an older version of a live profile, its sort order
+     * is kept, and so is the selected row if the new model has it, and the scroll position.
+     */
+    private void setStatModel(JTable table, TableModel model) {
+        StatTableModel previous = table.getModel() instanceof StatTableModel ? (StatTableModel) table.getModel() : null;
+        boolean sameColumns = previous != null && previous.getColumnCount() == model.getColumnCount();
+        List<? extends RowSorter.SortKey> sortKeys = sameColumns && table.getRowSorter() != null
+                ? table.getRowSorter().getSortKeys() : null;
+        int selectedRow = sameColumns && table.getSelectedRow() >= 0
+                ? table.convertRowIndexToModel(table.getSelectedRow()) : -1;
+        Point viewPosition = table.getParent() instanceof JViewport
+                ? ((JViewport) table.getParent()).getViewPosition() : null;
 
-        lockTable.setDefaultRenderer(Long.class, new TimeRenderer(4));
-        lineTable.setDefaultRenderer(Long.class, new TimeRenderer(5));
-
-        lockTable.setAutoCreateRowSorter(true);
-        lineTable.setAutoCreateRowSorter(true);
-    }
-
-    public void update(Profile profile) {
-        String[] lockColumns = {"Name", "Hits", "Acquires", "Blocks", "Total Wait", "Avg Wait", "Max Wait", "Total Hold", "Avg Hold", "Max Hold", "Total Block", "Avg Block", "Max Block"};
-        Object[][] lockData = profile.schema.lock_stats
-                .entrySet()
-                .stream()
-                .map(e -> {
-                    ProfileSchema.LockStats val = e.getValue();
-                    return new Object[] {
-                            profile.schema.getLockName(e.getKey()),
-                            val.hits,
-                            val.acquires,
-                            val.blocks,
-                            val.total_wait_time,
-                            val.avg_wait_time,
-                            val.max_wait_time,
-                            val.total_hold_time,
-                            val.avg_hold_time,
-                            val.max_hold_time,
-                            val.total_block_time,
-                            val.avg_block_time,
-                            val.max_block_time,
-                    };
-                }).toArray(Object[][]::new);
-        lockTable.setModel(new LockTableModel(lockData, lockColumns, 4));
-
-        String[] lineColumns = {"File", "Line", "Name", "Hits", "Acquires", "Blocks", "Total Wait", "Avg Wait", "Max Wait", "Total Hold", "Avg Hold", "Max Hold", "Total Block", "Avg Block", "Max Block"};
-        List<Object[]> lineData = new ArrayList<>();
-
-        profile.schema.file_stats.forEach((file, line_stats)
-                -> line_stats.forEach((lineNo, lock_stats)
-                -> lock_stats.forEach((lock_hash, val)
-                -> lineData.add(new Object[] {
-                file,
-                lineNo,
-                profile.schema.getLockName(lock_hash),
-                val.hits,
-                val.acquires,
-                val.blocks,
-                val.total_wait_time,
-                val.avg_wait_time,
-                val.max_wait_time,
-                val.total_hold_time,
-                val.avg_hold_time,
-                val.max_hold_time,
-                val.total_block_time,
-                val.avg_block_time,
-                val.max_block_time,
-        }))));
-        lineTable.setModel(new LockTableModel(lineData.toArray(Object[][]::new), lineColumns, 6));
+        // The sorter of the previous model must not see the new model
+        table.setRowSorter(null);
+        table.setModel(model);
+        if (model instanceof StatTableModel) {
+            StatRowSorter sorter = new StatRowSorter((StatTableModel) model);
+            sorter.setSortKeys(sortKeys);
+            table.setRowSorter(sorter);
+            applyFilter(table);
+        }
+        if (selectedRow >= 0) {
+            int row = ((StatTableModel) model).findRow(previous, selectedRow);
+            int viewRow = row < 0 ? -1 : table.convertRowIndexToView(row);
+            if (viewRow >= 0) {
+                table.setRowSelectionInterval(viewRow, viewRow);
+            }
+        }
+        if (sameColumns && viewPosition != null) {
+            ((JViewport) table.getParent()).setViewPosition(viewPosition);
+        }
+    }
+
+    /**
+     * Filters the rows of a table by the filter bar, if its model has a {@link RowFilterIndex}
+     */
+    private void applyFilter(JTable table) {
+        if (!(table.getRowSorter() instanceof StatRowSorter)) {
+            return;
+        }
+        StatRowSorter sorter = (StatRowSorter) table.getRowSorter();
+        RowFilterIndex index = sorter.getModel().getFilterIndex();
+        if (index == null) {
+            return;
+        }
+
+        String waitText = waitFilter.getText().trim();
+        long minWait = waitText.isEmpty() ? 0 : ProfileSchema.parseTime(waitText);
+        waitFilter.putClientProperty("JComponent.outline", minWait < 0 ? "error" : null);
+        sorter.setRowFilter(index.filter(lockFilter.getText().trim(), pathFilter.getText().trim(),
+                Math.max(minWait, 0)));
+    }
+
+    /**
+     * Fills the line table in the background
+     */
+    private void updateLineTable() {
+        if (profile == null || lineTableProfile == profile || lineTableBuilding) {
+            return;
+        }
+        Profile shownProfile = profile;
+        int generation = profileGeneration;
+        lineTableProfile = shownProfile;
+        lineTableBuilding = true;
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Building lock profiler line table", true) {
+            private TableModel lineModel;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                lineModel = createLineTableModel(shownProfile);
+            }
+
+            @Override
+            public void onSuccess() {
+                // Another profile may have been shown in the meantime, a newer version of the live profile is shown
+                // until this tab is built again
+                if (generation == profileGeneration) {
+                    setStatModel(lineTable, lineModel);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (lineTableProfile == shownProfile) {
+                    lineTableProfile = null;
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                lineTableBuilding = false;
+                if (generation != profileGeneration) {
+                    // Another profile was shown while building, which was not built because of this build
+                    updateSelectedTab();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills the function table in the background
+     */
+    private void updateScopeTable() {
+        if (profile == null || scopeTableProfile == profile || scopeTableBuilding) {
+            return;
+        }
+        Profile shownProfile = profile;
+        int generation = profileGeneration;
+        scopeTableProfile = shownProfile;
+        scopeTableBuilding = true;
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Building lock profiler function table", true) {
+            private TableModel scopeModel;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                scopeModel = createScopeTableModel(project, shownProfile);
+            }
+
+            @Override
+            public void onSuccess() {
+                // Another profile may have been shown in the meantime, a newer version of the live profile is shown
+                // until this tab is built again
+                if (generation == profileGeneration) {
+                    setStatModel(scopeTable, scopeModel);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (scopeTableProfile == shownProfile) {
+                    scopeTableProfile = null;
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                scopeTableBuilding = false;
+                if (generation != profileGeneration) {
+                    // Another profile was shown while building, which was not built because of this build
+                    updateSelectedTab();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills the tree in the background
+     */
+    private void updateTreeTable() {
+        if (profile == null || treeTableProfile == profile || treeTableBuilding) {
+            return;
+        }
+        Profile shownProfile = profile;
+        int generation = profileGeneration;
+        treeTableProfile = shownProfile;
+        treeTableBuilding = true;
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Building lock profiler tree", true) {
+            private StatTreeModel treeModel;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                treeModel = StatTreeModel.build(project, shownProfile);
+            }
+
+            @Override
+            public void onSuccess() {
+                // Another profile may have been shown in the meantime, a newer version of the live profile is shown
+                // until this tab is built again
+                if (generation == profileGeneration) {
+                    TreeTable treeTable = new TreeTable(treeModel);
+                    treeTable.setRootVisible(false);
+                    treeTable.getTree().setShowsRootHandles(true);
+                    treeTable.setDefaultRenderer(Long.class, new TimeRenderer());
+                    treeScroll.setViewportView(treeTable);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (treeTableProfile == shownProfile) {
+                    treeTableProfile = null;
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                treeTableBuilding = false;
+                if (generation != profileGeneration) {
+                    // Another profile was shown while building, which was not built because of this build
+                    updateSelectedTab();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lays out the icicle chart in the background, for every metric at once so that switching metrics is instant
+     */
+    private void updateIcicleChart() {
+        if (profile == null || icicleProfile == profile || icicleBuilding) {
+            return;
+        }
+        Profile shownProfile = profile;
+        int generation = profileGeneration;
+        icicleProfile = shownProfile;
+        icicleBuilding = true;
+        String title = "Laying out lock profiler icicle chart";
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true) {
+            private IcicleLayout[] layouts;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                ProfileFiles profiled = shownProfile.getProfiledFiles();
+                FileGroups[] files = new FileGroups[profiled.fileCount()];
+                for (int fileId = 0; fileId < files.length; fileId++) {
+                    indicator.setFraction(0.5 * fileId / files.length);
+                    files[fileId] = PyScopes.group(project, shownProfile, fileId);
+                }
+                layouts = new IcicleLayout[ICICLE_METRICS.length];
+                for (int i = 0; i < layouts.length; i++) {
+                    indicator.setFraction(0.5 + 0.5 * i / layouts.length);
+                    layouts[i] = IcicleLayout.compute(profiled, files, shownProfile.getLockStats(), ICICLE_METRICS[i]);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                // Another profile may have been shown in the meantime, a newer version of the live profile is shown
+                // until this tab is built again
+                if (generation == profileGeneration) {
+                    icicleLayouts = layouts;
+                    showIcicleLayout();
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (icicleProfile == shownProfile) {
+                    icicleProfile = null;
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                icicleBuilding = false;
+                if (generation != profileGeneration) {
+                    // Another profile was shown while building, which was not built because of this build
+                    updateSelectedTab();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the icicle layout of the selected metric, if it has been laid out
+     */
+    private void showIcicleLayout() {
+        if (icicleLayouts == null) {
+            icicleChart.setIcicleLayout(null, null);
+        } else {
+            icicleChart.setIcicleLayout(icicleLayouts[icicleMetric.getSelectedIndex()], profile.getProfiledFiles());
+        }
     }
 
     public JPanel getContent() {
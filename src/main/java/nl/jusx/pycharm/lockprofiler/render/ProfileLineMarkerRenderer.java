@@ -8,7 +8,6 @@ import com.intellij.openapi.editor.Editor;
 import java.awt.*;
 
 public class ProfileLineMarkerRenderer implements LineMarkerRendererEx {
-    private final TextAttributesKey myAttributesKey;
     private final int myThickness;
     private final int myDepth;
     private final Position myPosition;
@@ -17,12 +16,15 @@ public class ProfileLineMarkerRenderer implements LineMarkerRendererEx {
 
 
     public ProfileLineMarkerRenderer(Editor editor, @NotNull TextAttributesKey attributesKey, int thickness, int depth, @NotNull Position position) {
-        myAttributesKey = attributesKey;
+        this(editor.getColorsScheme().getAttributes(attributesKey).getBackgroundColor(), thickness, depth, position);
+    }
+
+    public ProfileLineMarkerRenderer(Color color, int thickness, int depth, @NotNull Position position) {
         myThickness = thickness;
         myDepth = depth;
         myPosition = position;
 
-        myColor = editor.getColorsScheme().getAttributes(attributesKey).getBackgroundColor();
+        myColor = color;
     }
 
     @Override
@@ -33,10 +35,6 @@ public class ProfileLineMarkerRenderer implements LineMarkerRendererEx {
         g.fillRect(r.x, r.y, myThickness, r.height);
     }
 
-    public @NotNull TextAttributesKey getAttributesKey() {
-        return myAttributesKey;
-    }
-
     public int getDepth() {
         return myDepth;
     }
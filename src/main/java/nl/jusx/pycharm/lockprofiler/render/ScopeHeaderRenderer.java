@@ -0,0 +1,89 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorCustomElementRenderer;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
+import nl.jusx.pycharm.lockprofiler.profile.ScopeStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+
+/**
+ * Block inlay renderer that renders the rolled up stats of a function or class above it
+ */
+public class ScopeHeaderRenderer implements EditorCustomElementRenderer {
+    private String text;
+    // Column of the scope on its first line, the header is indented like the scope
+    private final int column;
+    // Render cache that the text was measured with, null until the inlay is measured
+    private @Nullable InlayRenderCache measuredCache;
+    private int textWidth;
+
+    /**
+     * @param text header text, see {@link #formatScope}
+     */
+    public ScopeHeaderRenderer(String text, int column) {
+        this.text = text;
+        this.column = column;
+    }
+
+    /**
+     * Replaces the header text, such as on a refresh of a live profile
+     *
+     * @return whether the text changed, in which case the inlay must be updated as its width may have changed
+     */
+    public boolean setText(String text) {
+        if (text.equals(this.text)) {
+            return false;
+        }
+        this.text = text;
+        measuredCache = null;
+        return true;
+    }
+
+    /**
+     * Formats the header of a scope. This does not need the EDT.
+     */
+    public static String formatScope(ScopeStats stats, int scope) {
+        return String.format("%s %s: %d lines, %d hits, wait %s (max %s), hold %s",
+                stats.isClass(scope) ? "class" : "def",
+                stats.name(scope),
+                stats.lineCount(scope),
+                stats.get(scope, Metric.HITS),
+                ProfileSchema.formatTime(stats.get(scope, Metric.TOTAL_WAIT)),
+                ProfileSchema.formatTime(stats.get(scope, Metric.MAX_WAIT)),
+                ProfileSchema.formatTime(stats.get(scope, Metric.TOTAL_HOLD)));
+    }
+
+    @Override
+    public int calcWidthInPixels(@NotNull Inlay inlay) {
+        InlayRenderCache cache = measure(inlay.getEditor());
+        return column * cache.spaceWidth + textWidth;
+    }
+
+    @Override
+    public void paint(@NotNull Inlay inlay, @NotNull Graphics g, @NotNull Rectangle targetRegion,
+                      @NotNull TextAttributes textAttributes) {
+        Editor editor = inlay.getEditor();
+        InlayRenderCache cache = measure(editor);
+        g.setFont(cache.font);
+        g.setColor(cache.textColor);
+        g.drawString(text, targetRegion.x + column * cache.spaceWidth, targetRegion.y + editor.getAscent());
+    }
+
+    /**
+     * Measures the text with the render cache of an editor, once per cache
+     */
+    private InlayRenderCache measure(@NotNull Editor editor) {
+        InlayRenderCache cache = InlayRenderCache.get(editor);
+        if (measuredCache != cache) {
+            textWidth = cache.metrics.stringWidth(text);
+            measuredCache = cache;
+        }
+        return cache;
+    }
+}
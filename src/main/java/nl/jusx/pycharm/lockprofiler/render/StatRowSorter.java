@@ -0,0 +1,203 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import nl.jusx.pycharm.lockprofiler.profile.IndexSort;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Row sorter of a {@link StatTableModel} that sorts row indices by the primitive columns of the model
+ *
+ * Unlike a TableRowSorter it does not keep an object per row or read cells through getValueAt. Number
+ * columns are sorted with a radix sort of their values, so sorting a table of millions of rows takes linear
+ * time and only allocates the index arrays and one array of values. Rows can be filtered by a set of model
+ * rows, for example found with the {@link nl.jusx.pycharm.lockprofiler.profile.RowFilterIndex} of the model.
+ */
+public final class StatRowSorter extends RowSorter<StatTableModel> {
+    private final StatTableModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+    // Model rows that are shown, null to show all rows
+    private @Nullable BitSet filter;
+    // Model row of each view row and its inverse, null while the rows are neither sorted nor filtered.
+    // Rows that are filtered out have view row -1.
+    private @Nullable int[] viewToModel;
+    private @Nullable int[] modelToView;
+
+    public StatRowSorter(StatTableModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public StatTableModel getModel() {
+        return model;
+    }
+
+    /**
+     * Sorts by a column ascending, or descending if it already is sorted ascending by that column
+     */
+    @Override
+    public void toggleSortOrder(int column) {
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column &&
+                sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    /**
+     * Shows only some rows of the model
+     *
+     * @param rows model rows to show, null to show all rows
+     */
+    public void setRowFilter(@Nullable BitSet rows) {
+        if (rows == null && filter == null) {
+            return;
+        }
+        filter = rows;
+        sort();
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        checkIndex(index, getViewRowCount());
+        return viewToModel == null ? index : viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        checkIndex(index, getModelRowCount());
+        return modelToView == null ? index : modelToView[index];
+    }
+
+    @Override
+    public void setSortKeys(@Nullable List<? extends SortKey> keys) {
+        List<SortKey> newKeys = keys == null ? Collections.emptyList() : new ArrayList<>(keys);
+        if (newKeys.equals(sortKeys)) {
+            return;
+        }
+        sortKeys = Collections.unmodifiableList(newKeys);
+        fireSortOrderChanged();
+        sort();
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? model.getRowCount() : viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        sortKeys = Collections.emptyList();
+        sort();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        sort();
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        sort();
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        sort();
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        sort();
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        sort();
+    }
+
+    private void sort() {
+        int[] previous = viewToModel;
+        List<SortKey> keys = new ArrayList<>();
+        for (SortKey key : sortKeys) {
+            if (key.getSortOrder() != SortOrder.UNSORTED) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty() && filter == null) {
+            viewToModel = null;
+            modelToView = null;
+        } else {
+            int[] rows = filteredRows();
+            // Stable sorts from the last key to the first leave the rows ordered by all keys
+            for (int k = keys.size() - 1; k >= 0; k--) {
+                int column = keys.get(k).getColumn();
+                boolean descending = keys.get(k).getSortOrder() == SortOrder.DESCENDING;
+                if (model.isText(column)) {
+                    IndexSort.sort(rows, (a, b) -> {
+                        int cmp = model.getText(a, column).compareTo(model.getText(b, column));
+                        return descending ? -cmp : cmp;
+                    });
+                } else {
+                    // Indexed by model row, only the shown rows are read
+                    long[] values = new long[model.getRowCount()];
+                    for (int row : rows) {
+                        long value = model.getLong(row, column);
+                        // Inverting the bits reverses the order and keeps equal values stable
+                        values[row] = descending ? ~value : value;
+                    }
+                    IndexSort.sortByKey(rows, values);
+                }
+            }
+            int[] inverse = new int[model.getRowCount()];
+            Arrays.fill(inverse, -1);
+            for (int view = 0; view < rows.length; view++) {
+                inverse[rows[view]] = view;
+            }
+            viewToModel = rows;
+            modelToView = inverse;
+        }
+        fireRowSorterChanged(previous);
+    }
+
+    /**
+     * @return model rows that pass the filter, in model order
+     */
+    private int[] filteredRows() {
+        if (filter == null) {
+            return IndexSort.range(0, model.getRowCount());
+        }
+        int[] rows = new int[filter.cardinality()];
+        int i = 0;
+        int row = filter.nextSetBit(0);
+        // The filter may have been found for a longer model
+        while (row >= 0 && row < model.getRowCount()) {
+            rows[i++] = row;
+            row = filter.nextSetBit(row + 1);
+        }
+        return i == rows.length ? rows : Arrays.copyOf(rows, i);
+    }
+
+    private static void checkIndex(int index, int rowCount) {
+        if (index < 0 || index >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row index " + index);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import com.intellij.openapi.progress.ProgressManager;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import nl.jusx.pycharm.lockprofiler.profile.RowFilterIndex;
+import nl.jusx.pycharm.lockprofiler.profile.StatColumns;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Table model that reads its cells from primitive columns, such as the stored columns of a {@link StatColumns}
+ *
+ * Rows are never copied into the model, so a table of millions of rows costs no more than the columns it
+ * reads from. The maximum of each metric column is computed once, in one pass over the rows, when the model
+ * is built. Number cells are returned through one reusable {@link CellValue}, so getValueAt boxes nothing;
+ * sorting reads the columns directly, see {@link StatRowSorter}. A model can carry a {@link RowFilterIndex} of its
+ * rows, which is built with the model so that filtering does not have to scan the rows.
+ */
+public final class StatTableModel extends AbstractTableModel {
+    private final int rowCount;
+    private final Column[] columns;
+    private final long[] maxima;
+    private final @Nullable RowFilterIndex filterIndex;
+    private final CellValue cellValue = new CellValue();
+
+    private StatTableModel(int rowCount, Column[] columns, long[] maxima, @Nullable RowFilterIndex filterIndex) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+        this.maxima = maxima;
+        this.filterIndex = filterIndex;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column].name;
+    }
+
+    /**
+     * @return String for text columns, {@link Number} for key number columns, Long for metric columns,
+     * so that the metric columns get the time renderer, and Double for decimal columns
+     */
+    @Override
+    public Class<?> getColumnClass(int column) {
+        Column c = columns[column];
+        if (c.text != null) {
+            return String.class;
+        }
+        if (c.decimal != null) {
+            return Double.class;
+        }
+        return c.metric != null ? Long.class : Number.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    /**
+     * Returns the text of a text cell, or the reused {@link CellValue} of a number cell, which is only valid
+     * until the next call
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        Column c = columns[column];
+        if (c.text != null) {
+            return getText(row, column);
+        }
+        if (c.decimal != null) {
+            cellValue.setDecimal(c.decimal.applyAsDouble(row));
+        } else {
+            cellValue.setLong(c.number.applyAsLong(row));
+        }
+        return cellValue;
+    }
+
+    public boolean isText(int column) {
+        return columns[column].text != null;
+    }
+
+    /**
+     * @return text of a text cell, "?" if it has none, such as the name of a lock that was never named
+     */
+    public String getText(int row, int column) {
+        String text = columns[column].text.apply(row);
+        return text == null ? "?" : text;
+    }
+
+    /**
+     * @return value of a number cell, or for a decimal cell a long that sorts like its value
+     */
+    public long getLong(int row, int column) {
+        Column c = columns[column];
+        if (c.decimal != null) {
+            long bits = Double.doubleToLongBits(c.decimal.applyAsDouble(row));
+            // Negative doubles sort in reverse by their bits, flipping all but the sign bit corrects that
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+        return c.number.applyAsLong(row);
+    }
+
+    /**
+     * @return metric of a column, null for the columns that identify a row
+     */
+    @Nullable
+    public Metric getMetric(int column) {
+        return columns[column].metric;
+    }
+
+    /**
+     * @return maximum of a metric column over all rows, 0 for decimal and other columns
+     */
+    public long getMaxColumnValue(int column) {
+        return maxima[column];
+    }
+
+    /**
+     * Finds a row of another model with the same columns, by the columns that identify a row
+     *
+     * @return row with the same text and key numbers as the row of the other model, -1 if there is none
+     */
+    public int findRow(StatTableModel other, int otherRow) {
+        for (int row = 0; row < rowCount; row++) {
+            if (sameKey(row, other, otherRow)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameKey(int row, StatTableModel other, int otherRow) {
+        for (int column = 0; column < columns.length; column++) {
+            Column c = columns[column];
+            if (c.metric != null) {
+                continue;
+            }
+            if (c.text != null) {
+                if (!Objects.equals(c.text.apply(row), other.columns[column].text.apply(otherRow))) {
+                    return false;
+                }
+            } else if (getLong(row, column) != other.getLong(otherRow, column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index to filter the rows of this model with, null if the rows can not be filtered
+     */
+    @Nullable
+    public RowFilterIndex getFilterIndex() {
+        return filterIndex;
+    }
+
+    /**
+     * Number of a cell, reused for every number and decimal cell of a model
+     */
+    public static final class CellValue extends Number {
+        private long value;
+        private double decimal;
+        private boolean isDecimal;
+
+        void setLong(long value) {
+            this.value = value;
+            this.decimal = value;
+            this.isDecimal = false;
+        }
+
+        void setDecimal(double decimal) {
+            this.value = (long) decimal;
+            this.decimal = decimal;
+            this.isDecimal = true;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) value;
+        }
+
+        @Override
+        public long longValue() {
+            return value;
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) decimal;
+        }
+
+        @Override
+        public double doubleValue() {
+            return decimal;
+        }
+
+        @Override
+        public String toString() {
+            return isDecimal ? String.valueOf(decimal) : String.valueOf(value);
+        }
+    }
+
+    private static final class Column {
+        final String name;
+        final @Nullable IntFunction<String> text;
+        final @Nullable IntToLongFunction number;
+        final @Nullable IntToDoubleFunction decimal;
+        final @Nullable Metric metric;
+
+        Column(String name, @Nullable IntFunction<String> text, @Nullable IntToLongFunction number,
+               @Nullable IntToDoubleFunction decimal, @Nullable Metric metric) {
+            this.name = name;
+            this.text = text;
+            this.number = number;
+            this.decimal = decimal;
+            this.metric = metric;
+        }
+    }
+
+    /**
+     * Builds a model from column accessors. Building does not need the EDT.
+     */
+    public static final class Builder {
+        private final int rowCount;
+        private final List<Column> columns = new ArrayList<>();
+        private @Nullable RowFilterIndex filterIndex;
+
+        public Builder(int rowCount) {
+            this.rowCount = rowCount;
+        }
+
+        public Builder text(String name, IntFunction<String> text) {
+            columns.add(new Column(name, text, null, null, null));
+            return this;
+        }
+
+        public Builder number(String name, IntToLongFunction number) {
+            columns.add(new Column(name, null, number, null, null));
+            return this;
+        }
+
+        public Builder metric(Metric metric, IntToLongFunction number) {
+            return metric(metric.getLabel(), metric, number);
+        }
+
+        /**
+         * Adds a column of values of a metric under another name than the metric's, such as a difference
+         */
+        public Builder metric(String name, Metric metric, IntToLongFunction number) {
+            columns.add(new Column(name, null, number, null, metric));
+            return this;
+        }
+
+        /**
+         * Adds a column of fractions that belong to a metric, such as a relative difference
+         */
+        public Builder decimal(String name, Metric metric, IntToDoubleFunction decimal) {
+            columns.add(new Column(name, null, null, decimal, metric));
+            return this;
+        }
+
+        /**
+         * Adds a column per {@link Metric} that reads the rows of `stats`
+         */
+        public Builder metrics(StatColumns stats) {
+            for (Metric metric : Metric.values()) {
+                metric(metric, row -> stats.get(row, metric));
+            }
+            return this;
+        }
+
+        /**
+         * Sets the index to filter the rows with, which must index the same rows as the columns
+         */
+        public Builder filterIndex(RowFilterIndex filterIndex) {
+            this.filterIndex = filterIndex;
+            return this;
+        }
+
+        public StatTableModel build() {
+            Column[] columnArray = columns.toArray(new Column[0]);
+            long[] maxima = new long[columnArray.length];
+            for (int row = 0; row < rowCount; row++) {
+                if ((row & 0xffff) == 0) {
+                    ProgressManager.checkCanceled();
+                }
+                for (int c = 0; c < columnArray.length; c++) {
+                    if (columnArray[c].metric != null && columnArray[c].number != null) {
+                        maxima[c] = Math.max(maxima[c], columnArray[c].number.applyAsLong(row));
+                    }
+                }
+            }
+            return new StatTableModel(rowCount, columnArray, maxima, filterIndex);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.treeStructure.treetable.TreeTableModel;
+import nl.jusx.pycharm.lockprofiler.profile.FileGroups;
+import nl.jusx.pycharm.lockprofiler.profile.IndexSort;
+import nl.jusx.pycharm.lockprofiler.profile.LineTable;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import nl.jusx.pycharm.lockprofiler.profile.Profile;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileFiles;
+import nl.jusx.pycharm.lockprofiler.profile.StatColumns;
+import nl.jusx.pycharm.lockprofiler.profile.StatGroups;
+import nl.jusx.pycharm.lockprofiler.service.PyScopes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JTree;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.TreePath;
+import java.util.Arrays;
+
+/**
+ * Tree table model of the stats of a profile, grouped by file, then by the innermost Python function or class,
+ * then by line, then by lock
+ *
+ * Only the files are aggregated when the model is built, one file at a time. The functions and lines of
+ * a file are aggregated bottom-up when the file is first expanded, in one pass over its rows and one over its
+ * lines, in the background because finding the functions needs the PSI. The nodes below a file are created when
+ * their parent is expanded, so the model costs little more than its files until it is explored. Children are
+ * ordered by total wait, largest first.
+ */
+public final class StatTreeModel implements TreeTableModel {
+    private static final Metric[] METRICS = Metric.values();
+
+    private final Project project;
+    private final Profile profile;
+    private final Node root;
+    private final EventListenerList listeners = new EventListenerList();
+    private final NodeValue nodeValue = new NodeValue();
+    private @Nullable JTree tree;
+
+    private StatTreeModel(Project project, Profile profile) {
+        this.project = project;
+        this.profile = profile;
+        ProfileFiles profiled = profile.getProfiledFiles();
+        StatGroups files = StatGroups.files(profiled);
+        StatGroups total = StatGroups.of(files, 0, new int[files.size()], 1);
+        root = new Node(null, Kind.ROOT, "All files", total, 0);
+        int[] fileIds = files.sortDescending(IndexSort.range(0, files.size()), Metric.TOTAL_WAIT);
+        root.children = new Node[fileIds.length];
+        for (int i = 0; i < fileIds.length; i++) {
+            root.children[i] = new Node(root, Kind.FILE, profiled.file(fileIds[i]), files, fileIds[i]);
+        }
+    }
+
+    /**
+     * Builds the model, which aggregates the stats of all files. This does not need the EDT.
+     */
+    public static StatTreeModel build(Project project, Profile profile) {
+        return new StatTreeModel(project, profile);
+    }
+
+    private enum Kind {
+        ROOT, FILE, SCOPE, LINE, LOCK, LOADING
+    }
+
+    /**
+     * A node of the tree, a row of a {@link StatColumns} of its level
+     */
+    private static final class Node {
+        final @Nullable Node parent;
+        final Kind kind;
+        final String label;
+        final StatColumns stats;
+        final int row;
+        // Null until the children are built
+        @Nullable Node[] children;
+        // For a scope or a line, the groups of its file
+        @Nullable FileGroups fileGroups;
+        // For a file, whether its children are being loaded, and the placeholder child that is shown meanwhile
+        boolean loading;
+        @Nullable Node[] placeholder;
+
+        Node(@Nullable Node parent, Kind kind, String label, StatColumns stats, int row) {
+            this.parent = parent;
+            this.kind = kind;
+            this.label = label;
+            this.stats = stats;
+            this.row = row;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Value of a metric cell, reused for every cell of a model
+     */
+    public static final class NodeValue extends Number {
+        private long value;
+        private @Nullable Metric metric;
+        private float fraction;
+
+        public Metric getMetric() {
+            return metric;
+        }
+
+        /**
+         * @return value as a fraction of the value of the parent node
+         */
+        public float getFraction() {
+            return fraction;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) value;
+        }
+
+        @Override
+        public long longValue() {
+            return value;
+        }
+
+        @Override
+        public float floatValue() {
+            return value;
+        }
+
+        @Override
+        public double doubleValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 1 + METRICS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? "Name" : METRICS[column - 1].getLabel();
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? TreeTableModel.class : Long.class;
+    }
+
+    /**
+     * Returns the node for the tree column, or the reused {@link NodeValue} of a metric cell, which is only valid
+     * until the next call
+     */
+    @Override
+    public Object getValueAt(Object node, int column) {
+        Node n = (Node) node;
+        if (column == 0) {
+            return n;
+        }
+        if (n.kind == Kind.LOADING) {
+            return null;
+        }
+        Metric metric = METRICS[column - 1];
+        nodeValue.metric = metric;
+        nodeValue.value = n.stats.get(n.row, metric);
+        long parentValue = n.parent == null ? 0 : n.parent.stats.get(n.parent.row, metric);
+        nodeValue.fraction = parentValue > 0 ? (float) nodeValue.value / parentValue : 0;
+        return nodeValue;
+    }
+
+    @Override
+    public boolean isCellEditable(Object node, int column) {
+        return false;
+    }
+
+    @Override
+    public void setValueAt(Object aValue, Object node, int column) {
+    }
+
+    /**
+     * Loads the children of a file when it is about to be expanded
+     */
+    @Override
+    public void setTree(JTree tree) {
+        this.tree = tree;
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                Node node = (Node) event.getPath().getLastPathComponent();
+                if (node.kind == Kind.FILE && node.children == null && !node.loading) {
+                    loadFile(node, event.getPath());
+                }
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return children((Node) parent)[index];
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return children((Node) parent).length;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        Kind kind = ((Node) node).kind;
+        return kind == Kind.LOCK || kind == Kind.LOADING;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == null || child == null) {
+            return -1;
+        }
+        Node[] children = children((Node) parent);
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    /**
+     * @return children of a node, built on the first call. A file that is not loaded yet has a placeholder child.
+     */
+    private Node[] children(Node node) {
+        if (node.children != null) {
+            return node.children;
+        }
+        switch (node.kind) {
+            case FILE:
+                if (node.placeholder == null) {
+                    node.placeholder = new Node[]{new Node(node, Kind.LOADING, "Loading...", node.stats, node.row)};
+                }
+                return node.placeholder;
+            case SCOPE:
+                node.children = lineNodes(node);
+                return node.children;
+            case LINE:
+                node.children = lockNodes(node);
+                return node.children;
+            default:
+                node.children = new Node[0];
+                return node.children;
+        }
+    }
+
+    /**
+     * Aggregates the functions and lines of a file in the background, and shows them when done
+     */
+    private void loadFile(Node file, TreePath path) {
+        file.loading = true;
+        String title = "Grouping lock profiler stats by function";
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, title, true) {
+            private Node[] children;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                children = scopeNodes(file);
+            }
+
+            @Override
+            public void onSuccess() {
+                file.children = children;
+                fireTreeStructureChanged(path);
+                if (tree != null) {
+                    tree.expandPath(path);
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (tree != null) {
+                    tree.collapsePath(path);
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                file.loading = false;
+            }
+        });
+    }
+
+    /**
+     * Groups the lines of a file by their innermost function or class, lines outside of them are grouped as the
+     * module. Runs a read action, call it off the EDT.
+     */
+    private Node[] scopeNodes(Node file) {
+        FileGroups fileGroups = PyScopes.group(project, profile, file.row);
+        StatGroups scopeGroups = fileGroups.scopes();
+        int numNodes = 0;
+        int[] groups = new int[scopeGroups.size()];
+        for (int group = 0; group < scopeGroups.size(); group++) {
+            if (scopeGroups.memberCount(group) > 0) {
+                groups[numNodes++] = group;
+            }
+        }
+        groups = scopeGroups.sortDescending(Arrays.copyOf(groups, numNodes), Metric.TOTAL_WAIT);
+        Node[] nodes = new Node[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            nodes[i] = new Node(file, Kind.SCOPE, fileGroups.scopeLabel(groups[i]), scopeGroups, groups[i]);
+            nodes[i].fileGroups = fileGroups;
+        }
+        return nodes;
+    }
+
+    private Node[] lineNodes(Node scope) {
+        StatGroups scopeGroups = (StatGroups) scope.stats;
+        StatGroups lineGroups = scope.fileGroups.lines();
+        int[] lineIds = new int[scopeGroups.memberCount(scope.row)];
+        for (int i = 0; i < lineIds.length; i++) {
+            lineIds[i] = scopeGroups.member(scope.row, i);
+        }
+        lineIds = lineGroups.sortDescending(lineIds, Metric.TOTAL_WAIT);
+        Node[] nodes = new Node[lineIds.length];
+        for (int i = 0; i < lineIds.length; i++) {
+            nodes[i] = new Node(scope, Kind.LINE, "Line " + scope.fileGroups.line(lineIds[i]), lineGroups,
+                    lineIds[i]);
+            nodes[i].fileGroups = scope.fileGroups;
+        }
+        return nodes;
+    }
+
+    private Node[] lockNodes(Node line) {
+        StatGroups lineGroups = (StatGroups) line.stats;
+        int[] rows = new int[lineGroups.memberCount(line.row)];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = lineGroups.member(line.row, i);
+        }
+        LineTable lines = line.fileGroups.table();
+        rows = lines.sortDescending(rows, Metric.TOTAL_WAIT);
+        Node[] nodes = new Node[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            String name = profile.schema.getLockName(lines.lockHash(rows[i]));
+            nodes[i] = new Node(line, Kind.LOCK, name == null ? "?" : name, lines, rows[i]);
+        }
+        return nodes;
+    }
+
+    private void fireTreeStructureChanged(TreePath path) {
+        TreeModelEvent event = new TreeModelEvent(this, path);
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeStructureChanged(event);
+        }
+    }
+}
@@ -1,21 +1,24 @@
 package nl.jusx.pycharm.lockprofiler.render;
 
 
-import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
 import com.intellij.openapi.editor.Editor;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.getFontMetrics;
+import java.util.Arrays;
 
 /**
  * Object that is shared by renderers
  *
- * With this object a shared alignment can be decided and kept in memory
+ * With this object a shared alignment can be decided and kept in memory.
+ * The alignment is the largest value of all keys, kept up to date incrementally so that a paint does not
+ * have to look at the values of all other lines. Keys are line indices and values are x positions below the
+ * maximum alignment, so both are kept in arrays indexed by them.
  */
 public class TableAlignment {
-    private final Map<String, Integer> alignment = new HashMap<>();
+    // Value of each key plus one, 0 for a key without a value
+    private int[] values = new int[256];
+    // Number of keys per value, a histogram of `values`
+    private int[] counts = new int[1024];
+    private int x;
 
     /**
      * Take value into account for alignments
@@ -23,20 +26,41 @@ public class TableAlignment {
      * A key is used to so that previous values of an alignment can be replaced
      *
      * @param withX value to take into consideration for alignment
-     * @param key key to which value belongs
+     * @param key key to which value belongs, a line index
      * @return new alignment value (taking into account the just added value)
      */
-    public int align(Editor editor, int withX, String key) {
-        if (withX >= getFontMetrics(editor).charWidth(' ') * SettingsState.getInstance().getTableAlignmentMaxColumns()) {
+    public int align(Editor editor, int withX, int key) {
+        if (withX >= InlayRenderCache.get(editor).maxAlignmentX) {
             // Don't update alignemts past some maximum.
             // Any line over the maximum will be misaligned relative to others using the same TableAlignment
             return withX;
         }
-        alignment.put(key, withX);
-        return alignment.values().stream().max(Integer::compare).orElseThrow();
+        if (key >= values.length) {
+            values = Arrays.copyOf(values, Math.max(key + 1, values.length * 2));
+        }
+        int previous = values[key] - 1;
+        if (previous != withX) {
+            if (withX >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(withX + 1, counts.length * 2));
+            }
+            values[key] = withX + 1;
+            counts[withX]++;
+            if (previous >= 0) {
+                counts[previous]--;
+            }
+            if (withX > x) {
+                x = withX;
+            } else {
+                // The largest value may have been replaced by a smaller one
+                while (x > 0 && counts[x] == 0) {
+                    x--;
+                }
+            }
+        }
+        return x;
     }
 
     public int getX() {
-        return alignment.values().stream().max(Integer::compare).orElse(0);
+        return x;
     }
 }
@@ -0,0 +1,39 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import nl.jusx.pycharm.lockprofiler.profile.LineFractions;
+import nl.jusx.pycharm.lockprofiler.service.TimeFractionCalculation;
+
+/**
+ * Object that is shared by the renderers of a file
+ *
+ * Holds the calculation that the lines are colored by, so switching it changes the colors of all renderers
+ * without creating them again.
+ */
+public class TimeFractions {
+    private final LineFractions fractions;
+    private volatile TimeFractionCalculation calculation;
+
+    public TimeFractions(LineFractions fractions, TimeFractionCalculation calculation) {
+        this.fractions = fractions;
+        this.calculation = calculation;
+    }
+
+    public LineFractions getFractions() {
+        return fractions;
+    }
+
+    public TimeFractionCalculation getCalculation() {
+        return calculation;
+    }
+
+    public void setCalculation(TimeFractionCalculation calculation) {
+        this.calculation = calculation;
+    }
+
+    /**
+     * @param i index of the line in the line fractions
+     */
+    public float fraction(int i) {
+        return calculation.fraction(fractions, i);
+    }
+}
@@ -1,56 +1,91 @@
 package nl.jusx.pycharm.lockprofiler.service;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
-import com.intellij.openapi.editor.colors.EditorColorsManager;
-import com.intellij.openapi.editor.colors.EditorColorsScheme;
-import com.intellij.openapi.editor.colors.TextAttributesKey;
-import com.intellij.openapi.editor.markup.TextAttributes;
 import jViridis.ColorMap;
 import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.awt.Color;
+import java.util.EnumMap;
+import java.util.Map;
 
 
 /**
  * Services that provides the Line Profiler plugin with a map between line profile results and colors
+ *
+ * Each colormap is sampled once into a lookup table, so looking up a color is an array load.
+ * Tables are built on a pooled thread when the service starts and when the colormap setting changes.
  */
 @Service
 public final class ColorMapService {
-    private static final int AMOUNT_OF_COLORS = 40;
+    // Resolution of the lookup tables, a higher resolution does not make a lookup more expensive
+    private static final int AMOUNT_OF_COLORS = 256;
 
-    private Set<ColorMapOption> loadedColorMaps = new HashSet<>();
+    // Lookup tables per colormap, guarded by this
+    private final Map<ColorMapOption, Color[]> colorTables = new EnumMap<>(ColorMapOption.class);
+    // Lookup table of the colormap in the settings, null until it has been built
+    private volatile Color[] colors;
+    // Number of colormap changes, guarded by this. Only the table of the latest change is published.
+    private int generation;
 
+    public ColorMapService() {
+        colorMapChanged();
+    }
+
+    public static ColorMapService getInstance() {
+        return ApplicationManager.getApplication().getService(ColorMapService.class);
+    }
 
     /**
-     * Loads all colors that can be used as highlight background color
+     * Builds the lookup table of the colormap in the settings in the background, and uses it once it is built
      */
-    private void loadBackgroundColors(ColorMapOption colorMapOption) {
-        ColorMap cm = ColorMap.getInstance(colorMapOption.getIdentifier());
-        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
-
-        for (int i = 0; i < AMOUNT_OF_COLORS; i++) {
-            TextAttributes ta = new TextAttributes();
-
-            float colorFrac = ((float) i) / ((float) AMOUNT_OF_COLORS - 1);
-            ta.setBackgroundColor(cm.getColor(colorFrac));
-
-            // Register TextAttributes on global editor scheme
-            TextAttributesKey key = TextAttributesKey.createTextAttributesKey(colorMapOption.getIdentifier() + i);
-            scheme.setAttributes(key, ta);
+    public void colorMapChanged() {
+        ColorMapOption option = SettingsState.getInstance().getColorMap();
+        int changeGeneration;
+        synchronized (this) {
+            changeGeneration = ++generation;
         }
-
-        loadedColorMaps.add(colorMapOption);
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            Color[] table = getColorTable(option);
+            synchronized (this) {
+                // The table of a later change may have been published already
+                if (changeGeneration == generation) {
+                    colors = table;
+                }
+            }
+        });
     }
 
-    public TextAttributesKey getTimeFractionTextAttributesKey(double timeFraction) {
-        ColorMapOption colorMapOption = SettingsState.getInstance().getColorMap();
-        if (!loadedColorMaps.contains(colorMapOption)) {
-            loadBackgroundColors(colorMapOption);
+    /**
+     * @param timeFraction fraction from 0 to 1
+     * @return color of the fraction in the colormap of the settings
+     */
+    public Color getTimeFractionColor(double timeFraction) {
+        Color[] colors = this.colors;
+        if (colors == null) {
+            // Only when a color is needed before the table has been built in the background. It is not
+            // published here, so that it can not replace the table of a later change.
+            colors = getColorTable(SettingsState.getInstance().getColorMap());
         }
 
-        int colorIndex = (int) (timeFraction * (float) (AMOUNT_OF_COLORS - 1));
+        int colorIndex = (int) (timeFraction * (AMOUNT_OF_COLORS - 1));
+        if (colorIndex < 0) {
+            colorIndex = 0;
+        } else if (colorIndex >= AMOUNT_OF_COLORS) {
+            colorIndex = AMOUNT_OF_COLORS - 1;
+        }
+        return colors[colorIndex];
+    }
 
-        return TextAttributesKey.createTextAttributesKey(colorMapOption.getIdentifier() + colorIndex);
+    private synchronized Color[] getColorTable(ColorMapOption colorMapOption) {
+        return colorTables.computeIfAbsent(colorMapOption, option -> {
+            ColorMap cm = ColorMap.getInstance(option.getIdentifier());
+            Color[] table = new Color[AMOUNT_OF_COLORS];
+            for (int i = 0; i < AMOUNT_OF_COLORS; i++) {
+                float colorFrac = ((float) i) / ((float) AMOUNT_OF_COLORS - 1);
+                table[i] = cm.getColor(colorFrac);
+            }
+            return table;
+        });
     }
 }
@@ -0,0 +1,163 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.HighlighterTargetArea;
+import com.intellij.openapi.editor.markup.LineMarkerRendererEx;
+import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import nl.jusx.pycharm.lockprofiler.profile.LineFractions;
+import nl.jusx.pycharm.lockprofiler.render.ProfileLineMarkerRenderer;
+
+import java.awt.Color;
+
+/**
+ * Colors the gutter and the scrollbar of a profiled file by the wait time of its lines
+ *
+ * The number of highlighters is bounded: a gutter bar covers a run of consecutive lines with the same color,
+ * and the scrollbar gets at most one stripe per pixel row, colored by the hottest line of that row. Both are kept
+ * in a {@link LineRangeIndex}, which splits them when lines are edited.
+ */
+final class HeatBars {
+    private static final int GUTTER_COLOR_THICKNESS = 9;
+    // Number of distinct colors, lines whose fractions fall in the same bucket share a gutter bar
+    private static final int COLOR_BUCKETS = 16;
+    // Pixel rows of the scrollbar that is assumed while the editor has not been laid out yet
+    private static final int DEFAULT_STRIPE_ROWS = 1000;
+
+    private HeatBars() {
+    }
+
+    /**
+     * @return index of the gutter bars of a file
+     */
+    static LineRangeIndex gutterBars(Editor editor) {
+        return new LineRangeIndex((startLine, endLine, color) -> {
+            RangeHighlighter highlighter = addLinesHighlighter(editor, startLine, endLine);
+            highlighter.setLineMarkerRenderer(new ProfileLineMarkerRenderer(color, GUTTER_COLOR_THICKNESS, 0,
+                    LineMarkerRendererEx.Position.LEFT));
+            return highlighter;
+        });
+    }
+
+    /**
+     * @return index of the scrollbar stripes of a file
+     */
+    static LineRangeIndex stripes(Editor editor) {
+        return new LineRangeIndex((startLine, endLine, color) -> {
+            RangeHighlighter highlighter = addLinesHighlighter(editor, startLine, endLine);
+            highlighter.setErrorStripeMarkColor(color);
+            highlighter.setErrorStripeTooltip(null);
+            highlighter.setThinErrorStripeMark(true);
+            return highlighter;
+        });
+    }
+
+    /**
+     * Adds the gutter bars and scrollbar stripes of a file, colored by its time fractions if it has them
+     */
+    static void add(FileProfileData data) {
+        if (data.timeFractions == null || data.timeFractions.getFractions().size() == 0) {
+            return;
+        }
+        LineFractions lineFractions = data.timeFractions.getFractions();
+        int[] lines = new int[lineFractions.size()];
+        float[] fractions = new float[lineFractions.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = lineFractions.line(i);
+            fractions[i] = data.timeFractions.fraction(i);
+        }
+        Color[] colors = new Color[COLOR_BUCKETS];
+        for (int b = 0; b < COLOR_BUCKETS; b++) {
+            colors[b] = ColorMapService.getInstance().getTimeFractionColor((double) b / (COLOR_BUCKETS - 1));
+        }
+        addGutterBars(data, lines, fractions, colors);
+        addStripes(data, lines, fractions, colors, stripeRows(data.editor));
+    }
+
+    private static void addGutterBars(FileProfileData data, int[] lines, float[] fractions,
+                                      Color[] colors) {
+        int lineCount = data.editor.getDocument().getLineCount();
+        int runStart = 0;
+        for (int i = 1; i <= lines.length; i++) {
+            boolean runEnds = i == lines.length ||
+                    lines[i] != lines[i - 1] + 1 ||
+                    bucket(fractions[i]) != bucket(fractions[runStart]);
+            if (!runEnds) {
+                continue;
+            }
+            int firstLine = lines[runStart];
+            int lastLine = Math.min(lines[i - 1], lineCount);
+            if (firstLine >= 1 && firstLine <= lastLine) {
+                data.gutterBars.add(firstLine - 1, lastLine - 1, colors[bucket(fractions[runStart])]);
+            }
+            runStart = i;
+        }
+    }
+
+    /**
+     * Adds one stripe per pixel row of the scrollbar that has profiled lines
+     */
+    private static void addStripes(FileProfileData data, int[] lines, float[] fractions,
+                                   Color[] colors, int rows) {
+        int lineCount = data.editor.getDocument().getLineCount();
+        int i = 0;
+        while (i < lines.length) {
+            int lineNo = lines[i];
+            if (lineNo < 1 || lineNo > lineCount) {
+                i++;
+                continue;
+            }
+            int row = stripeRow(lineNo, lineCount, rows);
+            int firstLine = lineNo;
+            int lastLine = lineNo;
+            int hottest = bucket(fractions[i]);
+            for (i++; i < lines.length; i++) {
+                int nextLine = lines[i];
+                if (nextLine > lineCount || stripeRow(nextLine, lineCount, rows) != row) {
+                    break;
+                }
+                lastLine = nextLine;
+                hottest = Math.max(hottest, bucket(fractions[i]));
+            }
+            data.stripes.add(firstLine - 1, lastLine - 1, colors[hottest]);
+        }
+    }
+
+    /**
+     * Removes the heat bars of the lines `startLine` until `endLine` (inclusive), the rest of their runs stay
+     */
+    static void removeLines(FileProfileData data, int startLine, int endLine) {
+        Document document = data.editor.getDocument();
+        data.gutterBars.removeLines(document, startLine, endLine);
+        data.stripes.removeLines(document, startLine, endLine);
+    }
+
+    static void dispose(FileProfileData data) {
+        data.gutterBars.dispose();
+        data.stripes.dispose();
+    }
+
+    private static RangeHighlighter addLinesHighlighter(Editor editor, int startLine, int endLine) {
+        Document document = editor.getDocument();
+        MarkupModel markupModel = editor.getMarkupModel();
+        return markupModel.addRangeHighlighter(
+                document.getLineStartOffset(startLine), document.getLineEndOffset(endLine),
+                HighlighterLayer.SELECTION, null, HighlighterTargetArea.LINES_IN_RANGE);
+    }
+
+    private static int stripeRows(Editor editor) {
+        int height = editor instanceof EditorEx ? ((EditorEx) editor).getScrollPane().getVerticalScrollBar().getHeight() : 0;
+        return height > 0 ? height : DEFAULT_STRIPE_ROWS;
+    }
+
+    private static int stripeRow(int lineNo, int lineCount, int rows) {
+        return (int) ((long) (lineNo - 1) * rows / lineCount);
+    }
+
+    private static int bucket(float fraction) {
+        return Math.min(COLOR_BUCKETS - 1, Math.max(0, Math.round(fraction * (COLOR_BUCKETS - 1))));
+    }
+}
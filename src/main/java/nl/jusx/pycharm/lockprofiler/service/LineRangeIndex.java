@@ -0,0 +1,124 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Highlighters of a file that each cover a run of lines with one color, sorted by offset
+ *
+ * The highlighters do not overlap, so sorted by start offset they are sorted by end offset too, and the document
+ * keeps them in that order along with edits. The highlighters on a range of lines are found with a binary search
+ * on their end offsets. Removing lines splits a highlighter that covers them, the lines before and after keep their
+ * color.
+ */
+final class LineRangeIndex {
+    /**
+     * Adds a highlighter over the lines `startLine` until `endLine` (inclusive), without indexing it
+     */
+    interface Factory {
+        RangeHighlighter add(int startLine, int endLine, Color color);
+    }
+
+    private final List<RangeHighlighter> highlighters = new ArrayList<>();
+    private final List<Color> colors = new ArrayList<>();
+    private final Factory factory;
+
+    LineRangeIndex(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Adds a highlighter over the lines `startLine` until `endLine` (inclusive), after the highlighters added before
+     */
+    void add(int startLine, int endLine, Color color) {
+        highlighters.add(factory.add(startLine, endLine, color));
+        colors.add(color);
+    }
+
+    void dispose() {
+        highlighters.forEach(RangeHighlighter::dispose);
+        highlighters.clear();
+        colors.clear();
+    }
+
+    /**
+     * Removes the lines `startLine` until `endLine` (inclusive) from the highlighters, splitting those that cover
+     * lines before or after them
+     */
+    void removeLines(Document document, int startLine, int endLine) {
+        int startOffset = document.getLineStartOffset(startLine);
+        int endOffset = document.getLineEndOffset(endLine);
+        int from = firstEndingAtOrAfter(startOffset);
+        int to = from;
+        while (to < highlighters.size() && highlighters.get(to).getStartOffset() <= endOffset) {
+            to++;
+        }
+        if (from == to) {
+            return;
+        }
+
+        List<RangeHighlighter> splitHighlighters = new ArrayList<>();
+        List<Color> splitColors = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            RangeHighlighter highlighter = highlighters.get(i);
+            Color color = colors.get(i);
+            if (highlighter.isValid()) {
+                int firstLine = document.getLineNumber(highlighter.getStartOffset());
+                int lastLine = document.getLineNumber(highlighter.getEndOffset());
+                if (firstLine < startLine) {
+                    splitHighlighters.add(factory.add(firstLine, startLine - 1, color));
+                    splitColors.add(color);
+                }
+                if (lastLine > endLine) {
+                    splitHighlighters.add(factory.add(endLine + 1, lastLine, color));
+                    splitColors.add(color);
+                }
+            }
+            highlighter.dispose();
+        }
+        highlighters.subList(from, to).clear();
+        highlighters.addAll(from, splitHighlighters);
+        colors.subList(from, to).clear();
+        colors.addAll(from, splitColors);
+    }
+
+    /**
+     * Removes the highlighters that lie within the offsets `startOffset` until `endOffset`, call it before that text
+     * is deleted, as the deletion invalidates them
+     */
+    void removeDeleted(int startOffset, int endOffset) {
+        int from = firstEndingAtOrAfter(startOffset);
+        int to = from;
+        while (to < highlighters.size() && highlighters.get(to).getEndOffset() <= endOffset) {
+            to++;
+        }
+        // Only those that start within the deleted text too
+        while (from < to && highlighters.get(from).getStartOffset() < startOffset) {
+            from++;
+        }
+        highlighters.subList(from, to).forEach(RangeHighlighter::dispose);
+        highlighters.subList(from, to).clear();
+        colors.subList(from, to).clear();
+    }
+
+    /**
+     * @return index of the first highlighter that ends at or after `target`
+     */
+    private int firstEndingAtOrAfter(int target) {
+        int low = 0;
+        int high = highlighters.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (highlighters.get(mid).getEndOffset() < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
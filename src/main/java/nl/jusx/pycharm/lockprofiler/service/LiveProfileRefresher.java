@@ -0,0 +1,102 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import nl.jusx.pycharm.lockprofiler.profile.LiveProfile;
+import nl.jusx.pycharm.lockprofiler.profile.Profile;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileFiles;
+import nl.jusx.pycharm.lockprofiler.render.LockProfilerToolWindow;
+
+import javax.swing.table.TableModel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically merges the delta log of a running profile and shows the files that changed
+ *
+ * Merging and formatting happen on a pooled thread, only the inlays of changed files are replaced on the EDT.
+ * A refresh is skipped while the previous one has not been shown yet, so a slow EDT does not queue up refreshes.
+ */
+final class LiveProfileRefresher {
+    private static final Logger logger = Logger.getInstance(LiveProfileRefresher.class.getName());
+
+    private final ProfileHighlightService service;
+    private final LiveProfile liveProfile;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ScheduledFuture<?> future;
+    private volatile boolean stopped;
+
+    LiveProfileRefresher(ProfileHighlightService service, Path deltaLog, int intervalMs) {
+        this.service = service;
+        this.liveProfile = new LiveProfile(deltaLog);
+        this.future = AppExecutorUtil.getAppScheduledExecutorService()
+                .scheduleWithFixedDelay(this::refresh, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        stopped = true;
+        future.cancel(false);
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    private void refresh() {
+        if (stopped || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        boolean handedToEdt = false;
+        try {
+            LiveProfile.Update update = liveProfile.update();
+            if (update == null || stopped) {
+                return;
+            }
+            Profile profile = Profile.fromSchema(update.schema);
+            ProfileFiles profiledFiles = profile.getProfiledFiles();
+            List<PreparedFile> prepared = new ArrayList<>();
+            for (String file : update.changedFiles) {
+                int fileId = profiledFiles.findFile(file);
+                if (fileId < 0) {
+                    continue;
+                }
+                PreparedFile preparedFile = ProfileHighlightService.prepareFile(service.getProject(), profile, fileId,
+                        service.getTimeFractionCalculation());
+                if (preparedFile != null) {
+                    prepared.add(preparedFile);
+                }
+            }
+            List<VirtualFile> removed = new ArrayList<>();
+            for (String file : update.removedFiles) {
+                VirtualFile removedFile = ProfileHighlightService.findProfiledFile(file);
+                if (removedFile != null) {
+                    removed.add(removedFile);
+                }
+            }
+            TableModel lockModel = LockProfilerToolWindow.createLockTableModel(profile);
+
+            ApplicationManager.getApplication().invokeLater(() -> {
+                try {
+                    service.applyLiveUpdate(this, profile, prepared, removed, lockModel);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+            handedToEdt = true;
+        } catch (IOException | RuntimeException e) {
+            // Anything thrown from here would cancel the scheduled refreshes
+            logger.warn("Could not read live profile", e);
+        } finally {
+            if (!handedToEdt) {
+                refreshing.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.editor.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Inlays of a file, sorted by their offset in the document
+ *
+ * The document moves the offsets of inlays along with edits without changing their order, so the list stays
+ * sorted. Finding the items on a range of lines is a binary search. Items inside deleted text are removed before
+ * the deletion, see {@link #removeDeleted}.
+ */
+final class OffsetIndex<T> {
+    private final List<T> items = new ArrayList<>();
+    private final ToIntFunction<T> offset;
+
+    OffsetIndex(ToIntFunction<T> offset) {
+        this.offset = offset;
+    }
+
+    void add(T item) {
+        int itemOffset = offset.applyAsInt(item);
+        int index = lowerBound(itemOffset);
+        // After the items at the same offset, so those keep the order in which they were added
+        while (index < items.size() && offset.applyAsInt(items.get(index)) == itemOffset) {
+            index++;
+        }
+        items.add(index, item);
+    }
+
+    void remove(T item) {
+        int itemOffset = offset.applyAsInt(item);
+        for (int i = lowerBound(itemOffset); i < items.size() && offset.applyAsInt(items.get(i)) == itemOffset; i++) {
+            if (items.get(i) == item) {
+                items.remove(i);
+                return;
+            }
+        }
+    }
+
+    void forEach(Consumer<T> action) {
+        items.forEach(action);
+    }
+
+    void clear() {
+        items.clear();
+    }
+
+    /**
+     * Removes the items on the lines `startLine` until `endLine` (inclusive) and passes each to `removed`
+     */
+    void removeLines(Document document, int startLine, int endLine, Consumer<T> removed) {
+        int startOffset = document.getLineStartOffset(startLine);
+        int endOffset = document.getLineEndOffset(endLine);
+        int from = lowerBound(startOffset);
+        int to = from;
+        while (to < items.size() && offset.applyAsInt(items.get(to)) <= endOffset) {
+            removed.accept(items.get(to));
+            to++;
+        }
+        items.subList(from, to).clear();
+    }
+
+    /**
+     * Removes the items strictly inside the offsets `startOffset` until `endOffset` and passes each to `removed`,
+     * call it before that text is deleted. Items at either end stay, they end up at `startOffset`.
+     */
+    void removeDeleted(int startOffset, int endOffset, Consumer<T> removed) {
+        int from = lowerBound(startOffset + 1);
+        int to = from;
+        while (to < items.size() && offset.applyAsInt(items.get(to)) < endOffset) {
+            removed.accept(items.get(to));
+            to++;
+        }
+        items.subList(from, to).clear();
+    }
+
+    /**
+     * @return index of the first item at or after `target`
+     */
+    private int lowerBound(int target) {
+        int low = 0;
+        int high = items.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offset.applyAsInt(items.get(mid)) < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
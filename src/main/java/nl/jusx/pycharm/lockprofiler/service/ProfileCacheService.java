@@ -0,0 +1,41 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileCache;
+import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Paths;
+
+/**
+ * Application service that holds the cache of parsed profiles, which lives in the IDE system directory
+ */
+@Service
+public final class ProfileCacheService {
+    private @Nullable ProfileCache cache;
+    private long cacheBytes;
+
+    public static ProfileCacheService getInstance() {
+        return ApplicationManager.getApplication().getService(ProfileCacheService.class);
+    }
+
+    /**
+     * @return cache with the size budget of the settings, or null if caching is disabled
+     */
+    @Nullable
+    public synchronized ProfileCache getCache() {
+        long budget = SettingsState.getInstance().getProfileCacheSizeMb() * (1L << 20);
+        if (budget <= 0) {
+            return null;
+        }
+        if (cache == null || budget != cacheBytes) {
+            cache = new ProfileCache(Paths.get(PathManager.getSystemPath(), "lock-profiler-cache"), budget,
+                    AppExecutorUtil.getAppExecutorService());
+            cacheBytes = budget;
+        }
+        return cache;
+    }
+}
@@ -1,43 +1,123 @@
 package nl.jusx.pycharm.lockprofiler.service;
 
+import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.*;
-import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.fileEditor.TextEditor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import nl.jusx.pycharm.lockprofiler.profile.LineFractions;
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
 import nl.jusx.pycharm.lockprofiler.profile.Profile;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileCache;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileDiff;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileFiles;
+import nl.jusx.pycharm.lockprofiler.profile.ProfileMerger;
 import nl.jusx.pycharm.lockprofiler.profile.ProfileSchema;
+import nl.jusx.pycharm.lockprofiler.profile.StatsCursor;
 import nl.jusx.pycharm.lockprofiler.render.*;
+import nl.jusx.pycharm.lockprofiler.settings.SettingsState;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.swing.table.TableModel;
+import java.awt.Color;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.getFontMetrics;
 import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.getMargin;
 
 final class FileProfileData {
     public final Editor editor;
-    public final List<Inlay<? extends EditorCustomElementRenderer>> inlays = new ArrayList<>();
-    public final List<RangeHighlighter> highlighters = new ArrayList<>();
+    // Sorted by offset, so that the visualizations of the lines that are edited are found quickly
+    public final OffsetIndex<Inlay<? extends EditorCustomElementRenderer>> inlays = new OffsetIndex<>(Inlay::getOffset);
+    // Heat bars in the gutter and the scrollbar, see HeatBars
+    public final LineRangeIndex gutterBars;
+    public final LineRangeIndex stripes;
     public final TableAlignment desiredTableAlignment = new TableAlignment();
+    // Parent of listeners that follow the editor, disposed together with the visualizations
+    public final Disposable disposable = Disposer.newDisposable();
     // We keep an alignment object that is passed to each render
     // With this alignment object multiple renderers can agree upon the table x offset for results table
-    public TimeFractionCalculation fileTFC = TimeFractionCalculation.FUNCTION_TOTAL;
+    // Colors of the lines, shared by the renderers and heat bars, null if the lines have fixed colors
+    public @Nullable TimeFractions timeFractions;
+    // Inlays that follow the visible area, and the scope headers, which a refresh of a live profile updates in place
+    @Nullable ViewportInlays viewportInlays;
+    @Nullable ScopeHeaders headers;
 
     FileProfileData(Editor editor) {
         this.editor = editor;
+        this.gutterBars = HeatBars.gutterBars(editor);
+        this.stripes = HeatBars.stripes(editor);
+        // Deleting text invalidates the visualizations inside of it, those are dropped before that happens
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void beforeDocumentChange(@NotNull DocumentEvent event) {
+                if (event.getOldLength() == 0) {
+                    return;
+                }
+                int startOffset = event.getOffset();
+                int endOffset = startOffset + event.getOldLength();
+                inlays.removeDeleted(startOffset, endOffset, Disposable::dispose);
+                gutterBars.removeDeleted(startOffset, endOffset);
+                stripes.removeDeleted(startOffset, endOffset);
+            }
+        }, disposable);
+    }
+}
+
+/**
+ * Inlay texts of one file, prepared off the EDT so that only creating the inlays is left for the EDT
+ */
+final class PreparedFile {
+    public final VirtualFile file;
+    public final String fileName;
+    // Line numbers as written by the profiler, starting at 1, in ascending order
+    public final int[] lines;
+    public final String[] texts;
+    // Colors of the color blocks, null if they follow the colormap
+    public final @Nullable Color[] colors;
+    // Wait times of the lines that they are colored by, null if they have fixed colors
+    public final @Nullable LineFractions fractions;
+    // Rolled up stats of the functions and classes, null if the file has no headers
+    public final @Nullable ScopeHeaders headers;
+
+    PreparedFile(VirtualFile file, String fileName, int[] lines, String[] texts, @Nullable Color[] colors,
+                 @Nullable LineFractions fractions, @Nullable ScopeHeaders headers) {
+        this.file = file;
+        this.fileName = fileName;
+        this.lines = lines;
+        this.texts = texts;
+        this.colors = colors;
+        this.fractions = fractions;
+        this.headers = headers;
     }
 }
 
@@ -48,16 +128,36 @@ final class FileProfileData {
  * They describe and visualise computation time for lines of code of python methods
  */
 @Service
-public final class ProfileHighlightService {
+public final class ProfileHighlightService implements Disposable {
     private static final Logger logger = Logger.getInstance(ProfileHighlightService.class.getName());
-    private static final int GUTTER_COLOR_THICKNESS = 9;
+    // Inlays are added in the batch mode of the inlay model from this many inlays on, which lays out the editor
+    // once after all of them are added instead of once per inlay
+    static final int BATCH_MODE_MIN_INLAYS = 100;
+    // Inlays of a large file are added in chunks of this many lines, so the EDT processes input in between
+    private static final int INLAY_CHUNK = 2000;
 
     // Project to which this service belongs
     private final Project myProject;
 
     private final Map<VirtualFile, FileProfileData> fileData = new HashMap<>();
     private @Nullable Profile currentProfile;
+    // Incremented for every profile load, an older load cancels itself once it sees a newer one
+    private final AtomicInteger loadGeneration = new AtomicInteger();
+    // Indicator of the load that is in progress, cancelled directly so that a newer load does not wait for it
+    private final AtomicReference<ProgressIndicator> loadIndicator = new AtomicReference<>();
+    // Incremented for every Profile Lines execution, only the profile of the latest execution is loaded
+    private final AtomicInteger runGeneration = new AtomicInteger();
     private LockProfilerToolWindow lockProfilerToolWindow;
+    // Refreshes the profile of a running execution, null if no live profile is shown
+    private @Nullable LiveProfileRefresher liveRefresher;
+    // Files of the live profile whose editor was closed by the user, these are not opened again
+    private final Set<VirtualFile> closedLiveFiles = new HashSet<>();
+    // Project property with the path of the profile that was loaded last
+    private static final String LAST_PROFILE_KEY = "nl.jusx.pycharm.lockprofiler.lastProfile";
+    // Profile whose inlays are added to profiled files when they are opened, null if files are opened eagerly
+    private @Nullable Profile lazyProfile;
+    // What the lines of all files are colored by, read when files are prepared in the background
+    private volatile TimeFractionCalculation timeFractionCalculation = TimeFractionCalculation.FUNCTION_TOTAL;
 
     public ProfileHighlightService(Project project) {
         myProject = project;
@@ -74,6 +174,16 @@ public final class ProfileHighlightService {
         }
     }
 
+    Project getProject() {
+        return myProject;
+    }
+
+    @Override
+    public void dispose() {
+        stopLiveProfile();
+        disposeAllVisualizations();
+    }
+
     /**
      * Returns boolean indicating whether a file has line profiler visualizations that are showing
      * @param file file to check
@@ -87,8 +197,70 @@ public final class ProfileHighlightService {
      * @param file file to check
      * @return TimeFractionCalculation, null if no visualizations are currently active
      */
+    @Nullable
     public TimeFractionCalculation currentTimeFractionCalculation(VirtualFile file) {
-        return fileData.get(file).fileTFC;
+        FileProfileData data = fileData.get(file);
+        return data == null || data.timeFractions == null ? null : data.timeFractions.getCalculation();
+    }
+
+    /**
+     * @return what the lines of newly shown files are colored by
+     */
+    public TimeFractionCalculation getTimeFractionCalculation() {
+        return timeFractionCalculation;
+    }
+
+    /**
+     * Colors the lines of all shown files, and files that are shown later, by another time fraction
+     *
+     * The inlays are repainted in place, only the heat bars are replaced. Coloring by the longest line of the
+     * project waits for it to be found in the background, as that reads the stats of all files.
+     */
+    public void setTimeFractionCalculation(TimeFractionCalculation timeFractionCalculation) {
+        this.timeFractionCalculation = timeFractionCalculation;
+        if (timeFractionCalculation != TimeFractionCalculation.PROJECT_MAX_LINE_TIME) {
+            recolorFiles(timeFractionCalculation);
+            return;
+        }
+        // The files of a live profile may each be of another refresh, with a longest line of its own
+        List<LineFractions> shown = new ArrayList<>();
+        fileData.forEach((file, data) -> {
+            if (data.timeFractions != null) {
+                shown.add(data.timeFractions.getFractions());
+            }
+        });
+        String title = "Finding the longest line of the lock profile";
+        ProgressManager.getInstance().run(new Task.Backgroundable(myProject, title, false) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                for (LineFractions fractions : shown) {
+                    fractions.projectMax();
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                // The lines may be colored by another calculation by now
+                if (ProfileHighlightService.this.timeFractionCalculation == timeFractionCalculation) {
+                    recolorFiles(timeFractionCalculation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Colors the lines of all shown files by a time fraction, the longest line of the project is known if needed
+     */
+    private void recolorFiles(TimeFractionCalculation timeFractionCalculation) {
+        fileData.forEach((file, data) -> {
+            if (data.timeFractions == null || data.timeFractions.getCalculation() == timeFractionCalculation) {
+                return;
+            }
+            data.timeFractions.setCalculation(timeFractionCalculation);
+            HeatBars.dispose(data);
+            HeatBars.add(data);
+            data.inlays.forEach(Inlay::repaint);
+        });
     }
 
     /**
@@ -96,10 +268,12 @@ public final class ProfileHighlightService {
      */
     public void disposeAllVisualizations() {
         fileData.forEach((virtualFile, data) -> {
-            data.highlighters.forEach(RangeMarker::dispose);
+            Disposer.dispose(data.disposable);
+            HeatBars.dispose(data);
             data.inlays.forEach(Disposable::dispose);
         });
         fileData.clear();
+        lazyProfile = null;
     }
 
     /**
@@ -113,7 +287,8 @@ public final class ProfileHighlightService {
         if (data == null) {
             return;
         }
-        data.highlighters.forEach(RangeMarker::dispose);
+        Disposer.dispose(data.disposable);
+        HeatBars.dispose(data);
         data.inlays.forEach(Disposable::dispose);
         fileData.remove(file);
     }
@@ -126,13 +301,6 @@ public final class ProfileHighlightService {
         data.inlays.add(inlay);
     }
 
-    /**
-     * Adds a highlighter to the service for managemennt purposes
-     */
-    private void addHighlighter(RangeHighlighter highlighter, FileProfileData data) {
-        data.highlighters.add(highlighter);
-    }
-
     /**
      * Disposes all highlighters that currently overlap with caret positions
      *
@@ -153,183 +321,744 @@ public final class ProfileHighlightService {
             return;
         }
 
-        List<RangeHighlighter> fileHighlighters = data.highlighters;
-        List<Inlay<?>> fileInlays = data.inlays;
+        // Dispose the highlighters and inlays on the lines of every caret, found by offset
+        for (Caret caret : editor.getCaretModel().getAllCarets()) {
+            int caretStartLine = document.getLineNumber(caret.getSelectionStart());
+            int caretEndLine = document.getLineNumber(caret.getSelectionEnd());
 
-        // Keep track of a list highlighters and inlays to dispose
-        Set<RangeHighlighter> toDisposeHighlighters = new HashSet<>();
-        Set<Inlay<?>> toDisposeInlays = new HashSet<>();
+            HeatBars.removeLines(data, caretStartLine, caretEndLine);
+            data.inlays.removeLines(document, caretStartLine, caretEndLine, Disposable::dispose);
+        }
+    }
 
-        // Get all carets that need to be checked for highlight overlap
-        CaretModel cm = editor.getCaretModel();
-        List<Caret> carets = cm.getAllCarets();
+    /**
+     * Loads a .pclprof file in the background and visualizes it
+     *
+     * @param profileFile .pclprof file to load
+     */
+    public void loadProfile(VirtualFile profileFile) {
+        if (!profileFile.isInLocalFileSystem()) {
+            startLoading("Loading " + profileFile.getName(), () -> Profile.fromPclprof(profileFile));
+            return;
+        }
+        loadProfile(profileFile.toNioPath());
+    }
 
-        // Iterate through all carets, test overlap, and dispose overlapping highlights if necessary
-        for (Caret caret : carets) {
-            int caretStartLine = document.getLineNumber(caret.getSelectionStart());
-            int caretEndLine = document.getLineNumber(caret.getSelectionEnd());
+    /**
+     * Loads a .pclprof file in the background and visualizes it
+     *
+     * @param profileFile .pclprof file to load
+     */
+    public void loadProfile(Path profileFile) {
+        // Remembered so that the profile can be restored from the cache when the project is opened again
+        PropertiesComponent.getInstance(myProject).setValue(LAST_PROFILE_KEY, profileFile.toAbsolutePath().toString());
+        ProfileCache cache = ProfileCacheService.getInstance().getCache();
+        startLoading("Loading " + profileFile.getFileName(), () -> Profile.fromPclprof(profileFile, cache));
+    }
 
-            fileHighlighters.forEach(highlighter -> {
-                // Test overlap
-                if (highlighter.getDocument() != document) { return; }
+    /**
+     * Restores the profile that was loaded last in this project, if it is in the profile cache and did not change
+     *
+     * Files are not opened, profiled files get their inlays when they are open or opened later.
+     */
+    public void restoreLastProfile() {
+        String lastProfile = PropertiesComponent.getInstance(myProject).getValue(LAST_PROFILE_KEY);
+        ProfileCache cache = ProfileCacheService.getInstance().getCache();
+        if (lastProfile == null || cache == null || !Files.exists(Paths.get(lastProfile))) {
+            return;
+        }
+        int generation = cancelLoading();
+        ProgressManager.getInstance().run(new Task.Backgroundable(myProject, "Restoring lock profile", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                ProfileSchema schema = cache.get(Paths.get(lastProfile));
+                checkCanceled(indicator, generation);
+                if (schema == null) {
+                    return;
+                }
+                Profile profile = Profile.fromSchema(schema);
+                TableModel lockModel = LockProfilerToolWindow.createLockTableModel(profile);
 
-                int rhLine = document.getLineNumber(highlighter.getStartOffset());
+                runOnEdt(indicator, generation, () -> {
+                    currentProfile = profile;
+                    showLazily(profile);
+                    lockProfilerToolWindow.update(profile, lockModel);
+                });
+            }
+        });
+    }
 
-                if (caretStartLine <= rhLine && caretEndLine >= rhLine) {
-                    // There is overlap, dispose
-                    toDisposeHighlighters.add(highlighter);
+    /**
+     * Loads several .pclprof files of the workers of one run in the background, merges them and visualizes
+     * the merged profile
+     *
+     * @param profileFiles .pclprof files to merge, one per worker
+     * @param keepWorkers whether the locks of each worker are kept apart, see {@link ProfileMerger}
+     */
+    public void loadProfiles(List<VirtualFile> profileFiles, boolean keepWorkers) {
+        startLoading("Merging " + profileFiles.size() + " profiles", () -> {
+            // Profiles are loaded in parallel, JSON profiles are only indexed until their files are merged
+            List<ProfileSchema> schemas = profileFiles.parallelStream()
+                    .map(file -> ProfileSchema.FromFile(file.getPath()))
+                    .collect(Collectors.toList());
+            List<ProfileSchema> loaded = new ArrayList<>();
+            List<String> workers = new ArrayList<>();
+            for (int i = 0; i < profileFiles.size(); i++) {
+                if (schemas.get(i) == null) {
+                    logger.warn("Could not load profile " + profileFiles.get(i).getPath());
+                    continue;
                 }
-            });
-            fileInlays.forEach(inlay -> {
-                int inlayLine = document.getLineNumber(inlay.getOffset());
-                if (caretStartLine <= inlayLine && caretEndLine >= inlayLine) {
-                    // There is overlap, dispose
-                    toDisposeInlays.add(inlay);
+                loaded.add(schemas.get(i));
+                workers.add(profileFiles.get(i).getNameWithoutExtension());
+            }
+            if (loaded.isEmpty()) {
+                return null;
+            }
+            return Profile.fromSchema(ProfileMerger.merge(loaded, workers, keepWorkers));
+        });
+    }
+
+    /**
+     * Registers a new profile as profile for this highlight service and visualizes it
+     *
+     * The visualization is prepared in the background, see {@link #loadProfile(VirtualFile)}
+     *
+     * @param profile profile to register
+     */
+    public void setProfile(Profile profile) {
+        startLoading("Visualizing lock profile", () -> profile);
+    }
+
+    /**
+     * Loads and visualizes a profile with a cancellable background task
+     *
+     * Loading, decoding and formatting happen in the background. Only opening editors, adding inlays and
+     * updating the tool window happen on the EDT, one file or one chunk of a large file at a time so that the EDT
+     * keeps processing input in between.
+     * Unless profiled files are opened eagerly (see {@link SettingsState#isOpenProfiledFiles()}), no files are
+     * opened and inlays are added when the user opens a file, see {@link #showLazily(Profile)}.
+     * Starting a new load cancels a load that is still in progress.
+     *
+     * The time spent in each stage of the load is logged once the profile is shown.
+     */
+    private void startLoading(String title, Supplier<Profile> loader) {
+        stopLiveProfile();
+        int generation = cancelLoading();
+        LoadTimings timings = new LoadTimings(title);
+        ProgressManager.getInstance().run(new Task.Backgroundable(myProject, title, true) {
+            private ProgressIndicator indicator;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                this.indicator = indicator;
+                loadIndicator.set(indicator);
+                // The load may have been superseded before it started
+                checkCanceled(indicator, generation);
+                timings.stage("queued");
+                indicator.setIndeterminate(false);
+                indicator.setText("Loading profile");
+                Profile profile = loader.get();
+                checkCanceled(indicator, generation);
+                if (profile == null) {
+                    logger.warn("Could not load profile");
+                    return;
+                }
+                timings.stage("parse");
+                indicator.setText("Building tables");
+                TableModel lockModel = LockProfilerToolWindow.createLockTableModel(profile);
+                timings.stage("tables");
+                if (!SettingsState.getInstance().isOpenProfiledFiles()) {
+                    runOnEdt(indicator, generation, () -> {
+                        disposeAllVisualizations();
+                        currentProfile = profile;
+                        showLazily(profile);
+                        lockProfilerToolWindow.update(profile, lockModel);
+                        showToolWindow();
+                    });
+                    timings.stage("show");
+                    timings.log();
+                    return;
+                }
+
+                indicator.setText("Preparing visualization");
+                indicator.setFraction(0);
+                List<PreparedFile> prepared = new ArrayList<>();
+                ProfileFiles profiledFiles = profile.getProfiledFiles();
+                for (int fileId = 0; fileId < profiledFiles.fileCount(); fileId++) {
+                    checkCanceled(indicator, generation);
+                    indicator.setFraction((double) fileId / profiledFiles.fileCount());
+                    PreparedFile preparedFile = prepareFile(myProject, profile, fileId, timeFractionCalculation);
+                    if (preparedFile != null) {
+                        prepared.add(preparedFile);
+                    }
+                }
+                timings.stage("prepare");
+
+                indicator.setText("Showing visualization");
+                runOnEdt(indicator, generation, () -> {
+                    disposeAllVisualizations();
+                    currentProfile = profile;
+                });
+                showPreparedFiles(indicator, generation, prepared);
+                runOnEdt(indicator, generation, () -> {
+                    lockProfilerToolWindow.update(profile, lockModel);
+                    showToolWindow();
+                });
+                timings.stage("show");
+                timings.log();
+            }
+
+            @Override
+            public void onCancel() {
+                // A load that was cancelled by the user leaves no partial visualization behind,
+                // cleaning up after a load that was superseded is left to the newer load
+                if (generation == loadGeneration.get()) {
+                    disposeAllVisualizations();
+                    currentProfile = null;
                 }
-            });
+            }
+
+            @Override
+            public void onFinished() {
+                loadIndicator.compareAndSet(indicator, null);
+            }
+        });
+    }
+
+    /**
+     * Cancels a load that is still in progress, it stops at its next check for cancellation
+     *
+     * @return generation of the next load
+     */
+    public int cancelLoading() {
+        int generation = loadGeneration.incrementAndGet();
+        ProgressIndicator indicator = loadIndicator.get();
+        if (indicator != null) {
+            indicator.cancel();
         }
+        return generation;
+    }
 
-        toDisposeHighlighters.forEach(RangeMarker::dispose);
-        toDisposeInlays.forEach(Disposable::dispose);
+    /**
+     * Registers a Profile Lines execution that is about to start, which cancels a load that is still in progress
+     *
+     * @return id of the execution, see {@link #isLatestRun(int)}
+     */
+    public int startRun() {
+        cancelLoading();
+        return runGeneration.incrementAndGet();
+    }
 
-        // Remove reference to all disposed highlighters
-        fileHighlighters.removeAll(toDisposeHighlighters);
-        fileInlays.removeAll(toDisposeInlays);
+    /**
+     * @return whether no Profile Lines execution was started after the one with this id
+     */
+    public boolean isLatestRun(int run) {
+        return run == runGeneration.get();
     }
 
     /**
-     * Registers a new profile as profile for this highlight service
+     * Time spent in each stage of a load, logged as one line
+     */
+    private static final class LoadTimings {
+        private final String title;
+        private final StringBuilder stages = new StringBuilder();
+        private final long start = System.nanoTime();
+        private long stageStart = start;
+
+        LoadTimings(String title) {
+            this.title = title;
+        }
+
+        void stage(String name) {
+            long now = System.nanoTime();
+            stages.append(String.format(", %s %.1f ms", name, (now - stageStart) / 1e6));
+            stageStart = now;
+        }
+
+        void log() {
+            logger.info(String.format("%s took %.1f ms%s", title, (stageStart - start) / 1e6, stages));
+        }
+    }
+
+    /**
+     * Compares two profiles in the background and shows the differences
      *
-     * After registering the profile, one can invoke `visualizeProfile`
-     * to create the visualizations
+     * The differences of each line are shown as signed inlays, colored by the change in wait time,
+     * and the differences of all locks and lines in the diff tab of the tool window.
      *
-     * @param profile profile to register
+     * @param baseFile profile of the earlier run, null to compare with the profile that is currently shown
+     * @param otherFile profile to compare with the base profile
      */
-    public void setProfile(Profile profile) {
-        disposeAllVisualizations();
-        currentProfile = profile;
-        visualizeProfile(TimeFractionCalculation.FUNCTION_TOTAL);
+    public void compareProfiles(@Nullable VirtualFile baseFile, VirtualFile otherFile) {
+        Profile shownProfile = currentProfile;
+        if (baseFile == null && shownProfile == null) {
+            logger.warn("No profile is shown to compare " + otherFile.getName() + " with");
+            return;
+        }
+        stopLiveProfile();
+        int generation = cancelLoading();
+        ProgressManager.getInstance().run(new Task.Backgroundable(myProject, "Comparing with " + otherFile.getName(), true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(false);
+                indicator.setText("Loading profiles");
+                Profile base = baseFile == null ? shownProfile : Profile.fromPclprof(baseFile);
+                Profile other = Profile.fromPclprof(otherFile);
+                checkCanceled(indicator, generation);
+                if (base == null || other == null) {
+                    logger.warn("Could not load profiles to compare");
+                    return;
+                }
 
-        lockProfilerToolWindow.update(profile);
-        ToolWindow toolWindow = ToolWindowManager.getInstance(myProject).getToolWindow("Lock Profiler");
+                indicator.setText("Comparing profiles");
+                ProfileDiff diff = ProfileDiff.compare(base.schema, other.schema);
+                List<PreparedFile> prepared = new ArrayList<>();
+                for (int fileId = 0; fileId < diff.fileCount(); fileId++) {
+                    checkCanceled(indicator, generation);
+                    PreparedFile preparedFile = prepareDiffFile(diff, fileId);
+                    if (preparedFile != null) {
+                        prepared.add(preparedFile);
+                    }
+                }
+                TableModel lockDiffModel = LockProfilerToolWindow.createLockDiffModel(diff);
+                TableModel lineDiffModel = LockProfilerToolWindow.createLineDiffModel(diff);
 
-        if (toolWindow != null) {
-            toolWindow.show();
-            toolWindow.activate(null, true);
+                indicator.setText("Showing comparison");
+                runOnEdt(indicator, generation, () -> disposeAllVisualizations());
+                showPreparedFiles(indicator, generation, prepared);
+                runOnEdt(indicator, generation, () -> {
+                    lockProfilerToolWindow.showDiff(lockDiffModel, lineDiffModel);
+                    showToolWindow();
+                });
+            }
+
+            @Override
+            public void onCancel() {
+                if (generation == loadGeneration.get()) {
+                    disposeAllVisualizations();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether a profile is shown, which {@link #compareProfiles} can use as base
+     */
+    public boolean hasProfile() {
+        return currentProfile != null;
+    }
+
+    /**
+     * Opens the editors of prepared files and adds their inlays, on the EDT one file or one chunk of the lines of
+     * a large file at a time
+     *
+     * Each chunk is added as one batch of the inlay model, see {@link #addInlays}. Batches keep the layout cost
+     * of a chunk down, chunks keep the EDT responsive while a large file is shown.
+     */
+    private void showPreparedFiles(ProgressIndicator indicator, int generation, List<PreparedFile> prepared) {
+        for (int i = 0; i < prepared.size(); i++) {
+            indicator.setFraction((double) i / prepared.size());
+            PreparedFile preparedFile = prepared.get(i);
+            FileProfileData[] data = new FileProfileData[1];
+            runOnEdt(indicator, generation,
+                    () -> data[0] = openFile(preparedFile, timeFractionCalculation, true));
+            if (data[0] == null) {
+                continue;
+            }
+            long[] edtTime = new long[1];
+            for (int from = 0; from < preparedFile.lines.length; from += INLAY_CHUNK) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(preparedFile.lines.length, from + INLAY_CHUNK);
+                runOnEdt(indicator, generation, () -> {
+                    long start = System.nanoTime();
+                    addInlays(data[0], preparedFile, chunkFrom, chunkTo);
+                    edtTime[0] += System.nanoTime() - start;
+                });
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Added %d inlays to %s in %.1f ms", preparedFile.lines.length,
+                        preparedFile.fileName, edtTime[0] / 1e6));
+            }
         }
     }
 
     /**
-     * Visualizes the registered profile in files of this project
+     * Shows a profile without opening files: open profiled files get inlays now, other files when they are opened
      *
-     * @param timeFractionCalculation method to calculate the time fraction
+     * Inlays are only kept for the lines around the visible area of an editor, see {@link ViewportInlays}.
+     * Must be called on the EDT.
      */
-    public void visualizeProfile(TimeFractionCalculation timeFractionCalculation) {
-        if (currentProfile == null) {
-            logger.error("No profile was given to load");
+    private void showLazily(Profile profile) {
+        lazyProfile = profile;
+        for (VirtualFile file : FileEditorManager.getInstance(myProject).getOpenFiles()) {
+            fileOpened(file);
+        }
+    }
+
+    /**
+     * Adds the inlays of the lazily shown profile to a file that was opened, see {@link ProfiledFileListener}
+     */
+    void fileOpened(VirtualFile file) {
+        Profile profile = lazyProfile;
+        if (profile == null || fileData.containsKey(file)) {
+            return;
+        }
+        int fileId = profile.getProfiledFiles().findFile(file.getPath());
+        if (fileId < 0) {
             return;
         }
+        // Decoding and formatting the stats of a large file is left to a pooled thread
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            PreparedFile preparedFile = prepareFile(myProject, profile, fileId, timeFractionCalculation);
+            if (preparedFile == null) {
+                return;
+            }
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (profile != lazyProfile) {
+                    // A refresh of the live profile may have replaced it meanwhile
+                    fileOpened(file);
+                } else if (!fileData.containsKey(file)) {
+                    showInOpenEditor(preparedFile);
+                }
+            }, myProject.getDisposed());
+        });
+    }
 
-        // Dispose all existing highlighters because we will load new profile results
+    /**
+     * Adds the inlays of a prepared file to its editor, if it is open, following the visible area
+     */
+    private void showInOpenEditor(PreparedFile preparedFile) {
+        Editor editor = findTextEditor(preparedFile.file);
+        if (editor == null) {
+            return;
+        }
+        FileProfileData data = new FileProfileData(editor);
+        if (preparedFile.fractions != null) {
+            data.timeFractions = new TimeFractions(preparedFile.fractions, timeFractionCalculation);
+        }
+        fileData.put(preparedFile.file, data);
+        // Heat bars are bounded by the height of the scrollbar, so they are added for the whole file
+        HeatBars.add(data);
+        if (preparedFile.headers != null) {
+            preparedFile.headers.add(data);
+            data.headers = preparedFile.headers;
+        }
+        data.viewportInlays = new ViewportInlays(data, preparedFile);
+        data.viewportInlays.attach(data.disposable);
+    }
+
+    /**
+     * Removes the inlays of a lazily shown profile from a file that was closed, they are added again when it is opened
+     */
+    void fileClosed(VirtualFile file) {
+        if (lazyProfile != null) {
+            disposeVisualizations(file);
+        }
+    }
+
+    @Nullable
+    private Editor findTextEditor(VirtualFile file) {
+        for (FileEditor fileEditor : FileEditorManager.getInstance(myProject).getEditors(file)) {
+            if (fileEditor instanceof TextEditor) {
+                return ((TextEditor) fileEditor).getEditor();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts showing the profile of a running execution, refreshed from its delta log
+     *
+     * Does nothing when live profiles are disabled in the settings. Stop with {@link #stopLiveProfile()}.
+     *
+     * @param deltaLog delta log written by the running execution, it does not need to exist yet
+     */
+    public void startLiveProfile(Path deltaLog) {
+        stopLiveProfile();
+        int intervalMs = SettingsState.getInstance().getLiveRefreshIntervalMs();
+        if (intervalMs <= 0) {
+            return;
+        }
+        // A load that is still in progress would overwrite the live profile
+        cancelLoading();
         disposeAllVisualizations();
+        currentProfile = null;
+        closedLiveFiles.clear();
+        liveRefresher = new LiveProfileRefresher(this, deltaLog, intervalMs);
+    }
 
-        currentProfile.getProfiledFiles().forEach((fileName, file_stats) -> {
-            VirtualFileManager vfm = VirtualFileManager.getInstance();
-            VirtualFile file = vfm.findFileByNioPath(Paths.get(fileName));
-            if (file == null) {
-                logger.warn("Could not find file: " + fileName);
-                return;
+    /**
+     * Stops refreshing the live profile, the last refresh stays visible
+     */
+    public void stopLiveProfile() {
+        if (liveRefresher != null) {
+            liveRefresher.stop();
+            liveRefresher = null;
+        }
+    }
+
+    /**
+     * Shows a refresh of the live profile, updating the inlays of the files that changed in place and removing those
+     * of the files that are no longer profiled
+     *
+     * Inlays only follow the visible area of an editor, see {@link ViewportInlays}. Unless profiled files are opened
+     * eagerly (see {@link SettingsState#isOpenProfiledFiles()}), only files that are open are refreshed, other files
+     * get the latest refresh when they are opened.
+     */
+    void applyLiveUpdate(LiveProfileRefresher refresher, Profile profile, List<PreparedFile> prepared,
+                         List<VirtualFile> removed, TableModel lockModel) {
+        if (refresher != liveRefresher || refresher.isStopped()) {
+            return;
+        }
+        currentProfile = profile;
+        boolean openProfiledFiles = SettingsState.getInstance().isOpenProfiledFiles();
+        if (!openProfiledFiles) {
+            lazyProfile = profile;
+        }
+        for (VirtualFile file : removed) {
+            disposeVisualizations(file);
+        }
+        for (PreparedFile preparedFile : prepared) {
+            FileProfileData data = fileData.get(preparedFile.file);
+            if (data != null && data.editor.isDisposed()) {
+                disposeVisualizations(preparedFile.file);
+                closedLiveFiles.add(preparedFile.file);
+                data = null;
             }
+            if (data != null && data.viewportInlays != null) {
+                refreshFile(data, preparedFile);
+            } else if (!openProfiledFiles) {
+                // A file that is not open gets its inlays when it is opened
+                disposeVisualizations(preparedFile.file);
+                showInOpenEditor(preparedFile);
+            } else if (!closedLiveFiles.contains(preparedFile.file)) {
+                disposeVisualizations(preparedFile.file);
+                // Editors are opened without focus, so a refresh does not take the focus from the user
+                data = openFile(preparedFile, timeFractionCalculation, false);
+                if (data != null) {
+                    data.viewportInlays = new ViewportInlays(data, preparedFile);
+                    data.viewportInlays.attach(data.disposable);
+                }
+            }
+        }
+        lockProfilerToolWindow.updateLive(profile, lockModel);
+    }
 
-            OpenFileDescriptor ofd = new OpenFileDescriptor(myProject, file);
-            Editor fileEditor = FileEditorManager.getInstance(myProject).openTextEditor(ofd, true);
-            if (fileEditor == null) {
-                logger.error("Could not open file in editor: " + fileName);
-                return;
+    /**
+     * Shows a refresh of a file of the live profile, updating its inlays in place
+     */
+    private void refreshFile(FileProfileData data, PreparedFile preparedFile) {
+        if (preparedFile.fractions != null) {
+            data.timeFractions = new TimeFractions(preparedFile.fractions, timeFractionCalculation);
+        }
+        // There are only a few heat bars per file, they are replaced
+        HeatBars.dispose(data);
+        HeatBars.add(data);
+        if (preparedFile.headers != null) {
+            if (data.headers != null) {
+                preparedFile.headers.replace(data, data.headers);
+            } else {
+                preparedFile.headers.add(data);
             }
+            data.headers = preparedFile.headers;
+        }
+        data.viewportInlays.update(preparedFile);
+    }
 
-            FileProfileData data = new FileProfileData(fileEditor);
-            fileData.put(file, data);
-
-//            System.out.print("start\n");
-            loadFileProfile(data, file_stats, timeFractionCalculation);
-
-//            // TODO force redraw editor to to redraw inlays with the latest tableAlignment position.
-//            //  Or if that's not possible, do ao first pass to compute the correct tableAlignment before creating the inlays
-//            System.out.print("repaint\n");
-//            System.out.printf("%d\n", data.desiredTableAlignment.getX());
-//            data.inlays.forEach(Inlay::repaint);
-//            System.out.printf("%d\n", data.desiredTableAlignment.getX());
-//            data.inlays.forEach(Inlay::repaint);
-//            System.out.printf("%d\n", data.desiredTableAlignment.getX());
-//            System.out.print("repaint done\n");
-        });
+    /**
+     * Cancels the indicator of a load when a newer load has been started, and checks for cancellation
+     */
+    private void checkCanceled(ProgressIndicator indicator, int generation) {
+        if (generation != loadGeneration.get()) {
+            indicator.cancel();
+        }
+        indicator.checkCanceled();
+    }
 
+    /**
+     * Runs a chunk of a load on the EDT and waits for it, unless the load was cancelled
+     */
+    private void runOnEdt(ProgressIndicator indicator, int generation, Runnable runnable) {
+        checkCanceled(indicator, generation);
+        ApplicationManager.getApplication().invokeAndWait(() -> {
+            if (generation == loadGeneration.get() && !indicator.isCanceled()) {
+                runnable.run();
+            }
+        }, ModalityState.defaultModalityState());
+        checkCanceled(indicator, generation);
+    }
+
+    private void showToolWindow() {
+        ToolWindow toolWindow = ToolWindowManager.getInstance(myProject).getToolWindow("Lock Profiler");
+
+        if (toolWindow != null) {
+            toolWindow.show();
+            toolWindow.activate(null, true);
+        }
     }
 
-    private void loadFileProfile(FileProfileData data, Map<Integer, Map<Long, ProfileSchema.LockStats>> line_stats,
-                                 TimeFractionCalculation timeFractionCalculation) {
+    /**
+     * Decodes the stats of a file and formats its inlay texts. This does not need the EDT.
+     *
+     * Also normalises the wait times of the lines, by the functions that the file has now. The longest line of the
+     * project is only found if the lines are colored by it, so that it is not found on the EDT later.
+     *
+     * @param calculation what the lines will be colored by
+     * @return prepared file, or null if the file can not be found
+     */
+    @Nullable
+    static PreparedFile prepareFile(Project project, Profile profile, int fileId,
+                                    TimeFractionCalculation calculation) {
+        ProfileFiles profiledFiles = profile.getProfiledFiles();
+        String fileName = profiledFiles.file(fileId);
+        VirtualFile file = findProfiledFile(fileName);
+        if (file == null) {
+            return null;
+        }
+
+        StatsCursor cursor = profiledFiles.cursor(fileId);
+        int[] lines = new int[16];
+        String[] texts = new String[16];
+        long[] waits = new long[16];
+        int numLines = 0;
+        while (cursor.nextLine()) {
+            if (numLines == lines.length) {
+                lines = Arrays.copyOf(lines, numLines * 2);
+                texts = Arrays.copyOf(texts, numLines * 2);
+                waits = Arrays.copyOf(waits, numLines * 2);
+            }
+            lines[numLines] = cursor.line();
+            texts[numLines] = LineProfileInlayRenderer.formatLocks(
+                    profile.schema, cursor.table(), cursor.row(), cursor.lineEnd());
+            waits[numLines] = Profile.lineWait(cursor);
+            numLines++;
+        }
+        lines = Arrays.copyOf(lines, numLines);
+        PyScopes scopes = PyScopes.of(project, file);
+        if (calculation == TimeFractionCalculation.PROJECT_MAX_LINE_TIME) {
+            profile.getMaxLineWait();
+        }
+        LineFractions fractions = LineFractions.compute(lines, Arrays.copyOf(waits, numLines),
+                scopes.functionStarts, scopes.functionEnds, profile::getMaxLineWait);
+        ScopeHeaders headers = ScopeHeaders.prepare(scopes, scopes.rollup(profile, fileId));
+        return new PreparedFile(file, fileName, lines, Arrays.copyOf(texts, numLines), null, fractions, headers);
+    }
 
+    /**
+     * Formats the signed inlay texts of a file of a profile diff. This does not need the EDT.
+     *
+     * @return prepared file, or null if the file can not be found
+     */
+    @Nullable
+    private static PreparedFile prepareDiffFile(ProfileDiff diff, int fileId) {
+        String fileName = diff.file(fileId);
+        VirtualFile file = findProfiledFile(fileName);
+        if (file == null) {
+            return null;
+        }
 
-        InlayModel inlayModel = data.editor.getInlayModel();
-//        long timeDenominator = 0;
-//        if (timeFractionCalculation == TimeFractionCalculation.FUNCTION_TOTAL) {
-//            timeDenominator = fProfile.getTotalTime();
-//        } else if (timeFractionCalculation == TimeFractionCalculation.FUNCTION_MAX_LINE_TIME) {
-//            timeDenominator = fProfile.getMaxLineTime();
-//        }
+        int start = diff.fileStart(fileId);
+        int numLines = diff.fileEnd(fileId) - start;
+        int[] lines = new int[numLines];
+        String[] texts = new String[numLines];
+        Color[] colors = new Color[numLines];
+        int waitMetric = Arrays.asList(ProfileDiff.METRICS).indexOf(Metric.TOTAL_WAIT);
+        for (int i = 0; i < numLines; i++) {
+            int row = start + i;
+            lines[i] = diff.line(row);
+            texts[i] = LineProfileInlayRenderer.formatLineDiff(diff, row);
+            colors[i] = InlayRendererUtils.getDiffColor(
+                    ProfileDiff.relative(diff.lineBase(row, waitMetric), diff.lineOther(row, waitMetric)));
+        }
+        return new PreparedFile(file, fileName, lines, texts, colors, null, null);
+    }
 
-        // Set the currently used TimeFractionCalculation
-        data.fileTFC = timeFractionCalculation;
+    @Nullable
+    static VirtualFile findProfiledFile(String fileName) {
+        VirtualFile file = VirtualFileManager.getInstance().findFileByNioPath(Paths.get(fileName));
+        if (file == null) {
+            logger.warn("Could not find file: " + fileName);
+        }
+        return file;
+    }
 
-        line_stats.forEach((lineNo, lock_stats) -> {
-            int offset;
+    /**
+     * Opens the editor of a prepared file and registers it for visualization
+     *
+     * @param focusEditor whether the opened editor gets the focus
+     * @return the file's profile data, or null if no editor could be opened
+     */
+    @Nullable
+    private FileProfileData openFile(PreparedFile preparedFile, TimeFractionCalculation timeFractionCalculation,
+                                     boolean focusEditor) {
+        OpenFileDescriptor ofd = new OpenFileDescriptor(myProject, preparedFile.file);
+        Editor fileEditor = FileEditorManager.getInstance(myProject).openTextEditor(ofd, focusEditor);
+        if (fileEditor == null) {
+            logger.error("Could not open file in editor: " + preparedFile.fileName);
+            return null;
+        }
 
-            // Highlighter for gutter color
-//            AddFunctionGutter(data, percentage);
+        FileProfileData data = new FileProfileData(fileEditor);
+        // The final alignment is known before the first inlay is painted
+        LineProfileInlayRenderer.precomputeAlignment(fileEditor, data.desiredTableAlignment, preparedFile.lines,
+                getMargin(getFontMetrics(fileEditor)));
+        if (preparedFile.fractions != null) {
+            data.timeFractions = new TimeFractions(preparedFile.fractions, timeFractionCalculation);
+        }
+        HeatBars.add(data);
+        if (preparedFile.headers != null) {
+            preparedFile.headers.add(data);
+            data.headers = preparedFile.headers;
+        }
+        fileData.put(preparedFile.file, data);
+        return data;
+    }
 
-            // Inlay for in text table and colormap
-            LineProfileInlayRenderer renderer = new LineProfileInlayRenderer(
-                    currentProfile.schema,
-                    lineNo,
-                    lock_stats,
-//                    timeDenominator,
-                    data.desiredTableAlignment,
-                    getMargin(getFontMetrics(data.editor))
-            );
+    /**
+     * Adds the inlays of the lines `from` up to `to` (exclusive) of a prepared file
+     *
+     * The inlays are added in offset order, as one batch when there are many of them. Callers that add the inlays
+     * of a whole profile pass at most {@link #INLAY_CHUNK} lines at a time.
+     */
+    private void addInlays(FileProfileData data, PreparedFile preparedFile, int from, int to) {
+        int margin = getMargin(getFontMetrics(data.editor));
 
-            offset = data.editor.logicalPositionToOffset(new LogicalPosition(lineNo - 1, 0));
-            Inlay<LineProfileInlayRenderer> inlay = inlayModel.addAfterLineEndElement(offset, true, renderer);
-            addInlay(inlay, data);
+        data.editor.getInlayModel().execute(to - from >= BATCH_MODE_MIN_INLAYS, () -> {
+            for (int i = from; i < to; i++) {
+                Inlay<LineProfileInlayRenderer> inlay = createInlay(data, preparedFile, i, margin);
+                if (inlay != null) {
+                    addInlay(inlay, data);
+                }
+            }
         });
     }
 
-//    private void AddFunctionGutter(Editor editor, FunctionProfile func, FileProfileData data) {
-//        ColorMapService colorMapService = ApplicationManager.getApplication().getService(ColorMapService.class);
-//
-//        double timeFraction = (double) func.getTotalTime() / data.fileTime;
-//        TextAttributesKey timeColorAttributes = colorMapService.getTimeFractionTextAttributesKey(timeFraction);
-//        Color timeColor = editor.getColorsScheme().getAttributes(timeColorAttributes).getBackgroundColor();
-//
-//        ProfileLineMarkerRenderer renderer = new ProfileLineMarkerRenderer(editor, timeColorAttributes,
-//                GUTTER_COLOR_THICKNESS, 0, LineMarkerRendererEx.Position.LEFT);
-//
-////        for (int l = func.getLineNrFromZero(); l < func.getLineNrFromZero() + func.getNumLines(); l++) {
-//            RangeHighlighter hl = editor.getMarkupModel()
-//                    .addLineHighlighter(
-//                            null,
-//                            l,
-//                            HighlighterLayer.SELECTION
-//                    );
-//
-//            // Set colors in gutter
-//            hl.setLineMarkerRenderer(renderer);
-//            // Set colors in scrollbar
-//            hl.setErrorStripeMarkColor(timeColor);
-//            hl.setErrorStripeTooltip(null);
-//            hl.setThinErrorStripeMark(true);
-//            addHighlighter(hl, data);
-////        }
-//    }
+    /**
+     * Creates the inlay of line `i` of a prepared file, without registering it
+     *
+     * @return the inlay, or null if the line is not in the file anymore
+     */
+    @Nullable
+    static Inlay<LineProfileInlayRenderer> createInlay(FileProfileData data, PreparedFile preparedFile, int i,
+                                                       int margin) {
+        int lineNo = preparedFile.lines[i];
+        if (lineNo < 1 || lineNo > data.editor.getDocument().getLineCount()) {
+            // The file changed after it was profiled
+            return null;
+        }
+
+        // Inlay for in text table and colormap
+        LineProfileInlayRenderer renderer;
+        if (preparedFile.colors != null || data.timeFractions == null) {
+            renderer = new LineProfileInlayRenderer(lineNo, preparedFile.texts[i], data.desiredTableAlignment, margin,
+                    preparedFile.colors == null ? null : preparedFile.colors[i]);
+        } else {
+            renderer = new LineProfileInlayRenderer(lineNo, preparedFile.texts[i], data.desiredTableAlignment, margin,
+                    data.timeFractions, i);
+        }
+
+        int offset = data.editor.logicalPositionToOffset(new LogicalPosition(lineNo - 1, 0));
+        return data.editor.getInlayModel().addAfterLineEndElement(offset, true, renderer);
+    }
 }
 
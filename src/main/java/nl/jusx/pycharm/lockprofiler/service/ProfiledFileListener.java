@@ -0,0 +1,30 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Adds the inlays of the shown profile to profiled files when the user opens them
+ *
+ * Only used when profiled files are not all opened at once, see {@link ProfileHighlightService#fileOpened}.
+ */
+public class ProfiledFileListener implements FileEditorManagerListener {
+    private final Project project;
+
+    public ProfiledFileListener(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void fileOpened(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+        project.getService(ProfileHighlightService.class).fileOpened(file);
+    }
+
+    @Override
+    public void fileClosed(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+        project.getService(ProfileHighlightService.class).fileClosed(file);
+    }
+}
@@ -0,0 +1,203 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.jetbrains.python.psi.PyClass;
+import com.jetbrains.python.psi.PyFunction;
+import nl.jusx.pycharm.lockprofiler.profile.FileGroups;
+import nl.jusx.pycharm.lockprofiler.profile.Profile;
+import nl.jusx.pycharm.lockprofiler.profile.ScopeStats;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Python functions and classes of a file, from its PSI
+ *
+ * Cached per file until the file is modified, together with the stats of the file rolled up into them per
+ * profile, see {@link #rollup}.
+ */
+public final class PyScopes {
+    private static final PyScopes EMPTY = new PyScopes(new String[0], new boolean[0], new int[0], new int[0],
+            new int[0]);
+
+    // In document order, so a nested scope comes after the scope that contains it
+    final String[] names;
+    final boolean[] classes;
+    // First and last line of each scope, starting at 1 like the profiler
+    final int[] starts;
+    final int[] ends;
+    // Column of the start of each scope on its first line
+    final int[] columns;
+    // First and last line of each function, without the classes
+    final int[] functionStarts;
+    final int[] functionEnds;
+    // Rolled up stats per profile, a profile that is no longer used drops its stats
+    private final Map<Profile, ScopeStats> rollups = ContainerUtil.createConcurrentWeakMap();
+
+    private PyScopes(String[] names, boolean[] classes, int[] starts, int[] ends, int[] columns) {
+        this.names = names;
+        this.classes = classes;
+        this.starts = starts;
+        this.ends = ends;
+        this.columns = columns;
+
+        int numFunctions = 0;
+        for (boolean isClass : classes) {
+            numFunctions += isClass ? 0 : 1;
+        }
+        functionStarts = new int[numFunctions];
+        functionEnds = new int[numFunctions];
+        int f = 0;
+        for (int i = 0; i < classes.length; i++) {
+            if (!classes[i]) {
+                functionStarts[f] = starts[i];
+                functionEnds[f] = ends[i];
+                f++;
+            }
+        }
+    }
+
+    /**
+     * Runs a read action, call it off the EDT
+     */
+    static PyScopes of(Project project, VirtualFile file) {
+        return ReadAction.compute(() -> {
+            PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+            if (psiFile == null) {
+                return EMPTY;
+            }
+            return CachedValuesManager.getCachedValue(psiFile,
+                    () -> CachedValueProvider.Result.create(compute(psiFile), psiFile));
+        });
+    }
+
+    /**
+     * Finds the functions and classes of a file of a profile. Runs a read action, call it off the EDT.
+     *
+     * @return scopes, null if the file can not be found
+     */
+    @Nullable
+    public static PyScopes of(Project project, Profile profile, int fileId) {
+        VirtualFile file = VirtualFileManager.getInstance().findFileByNioPath(
+                Paths.get(profile.getProfiledFiles().file(fileId)));
+        return file == null ? null : of(project, file);
+    }
+
+    /**
+     * Rolls up the stats of a file of a profile into its functions and classes. Runs a read action, call it
+     * off the EDT.
+     *
+     * @return rolled up stats, null if the file can not be found
+     */
+    @Nullable
+    public static ScopeStats rollup(Project project, Profile profile, int fileId) {
+        PyScopes scopes = of(project, profile, fileId);
+        return scopes == null ? null : scopes.rollup(profile, fileId);
+    }
+
+    /**
+     * Groups the lines of a file of a profile by their innermost function or class, the lines of a file that can
+     * not be found are all grouped as the module. Runs a read action, call it off the EDT.
+     */
+    public static FileGroups group(Project project, Profile profile, int fileId) {
+        PyScopes scopes = of(project, profile, fileId);
+        if (scopes == null) {
+            scopes = EMPTY;
+        }
+        return FileGroups.compute(profile.getProfiledFiles(), fileId, scopes.names, scopes.classes,
+                scopes.starts, scopes.ends);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return name of the scope, qualified by the scopes it is nested in
+     */
+    public String name(int scope) {
+        return names[scope];
+    }
+
+    public boolean isClass(int scope) {
+        return classes[scope];
+    }
+
+    /**
+     * @return first line of the scope, starting at 1
+     */
+    public int start(int scope) {
+        return starts[scope];
+    }
+
+    /**
+     * @return last line of the scope, starting at 1
+     */
+    public int end(int scope) {
+        return ends[scope];
+    }
+
+    /**
+     * Rolls up the stats of this file of a profile into its functions and classes, once per profile
+     */
+    ScopeStats rollup(Profile profile, int fileId) {
+        return rollups.computeIfAbsent(profile, p -> ScopeStats.compute(names, classes, starts, ends,
+                p.getProfiledFiles().cursor(fileId)));
+    }
+
+    private static PyScopes compute(PsiFile psiFile) {
+        Document document = PsiDocumentManager.getInstance(psiFile.getProject()).getDocument(psiFile);
+        if (document == null) {
+            return EMPTY;
+        }
+        // In document order, so a nested scope comes after the scope that contains it
+        Collection<PsiNamedElement> scopes = PsiTreeUtil.findChildrenOfAnyType(psiFile, PyFunction.class,
+                PyClass.class);
+        Map<PsiElement, String> qualifiedNames = new HashMap<>();
+        List<String> names = new ArrayList<>(scopes.size());
+        boolean[] classes = new boolean[scopes.size()];
+        int[] starts = new int[scopes.size()];
+        int[] ends = new int[scopes.size()];
+        int[] columns = new int[scopes.size()];
+        int i = 0;
+        for (PsiNamedElement scope : scopes) {
+            boolean isClass = scope instanceof PyClass;
+            String name = StringUtil.notNullize(scope.getName(), "?");
+            PsiElement parent = PsiTreeUtil.getParentOfType(scope, PyFunction.class, PyClass.class);
+            String qualifiedName = parent != null && qualifiedNames.containsKey(parent)
+                    ? qualifiedNames.get(parent) + "." + name
+                    : name;
+            qualifiedNames.put(scope, qualifiedName);
+            names.add(qualifiedName);
+
+            TextRange range = scope.getTextRange();
+            int startLine = document.getLineNumber(range.getStartOffset());
+            classes[i] = isClass;
+            starts[i] = startLine + 1;
+            ends[i] = document.getLineNumber(range.getEndOffset()) + 1;
+            columns[i] = range.getStartOffset() - document.getLineStartOffset(startLine);
+            i++;
+        }
+        return new PyScopes(names.toArray(new String[0]), classes, starts, ends, columns);
+    }
+}
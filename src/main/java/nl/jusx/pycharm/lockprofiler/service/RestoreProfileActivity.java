@@ -0,0 +1,18 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Restores the profile that was visualized last in a project from the profile cache when the project is opened
+ *
+ * Also starts the {@link ColorMapService}, so its lookup table is built before the first inlay is painted.
+ */
+public class RestoreProfileActivity implements StartupActivity.DumbAware {
+    @Override
+    public void runActivity(@NotNull Project project) {
+        ColorMapService.getInstance();
+        project.getService(ProfileHighlightService.class).restoreLastProfile();
+    }
+}
@@ -0,0 +1,119 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Inlay;
+import nl.jusx.pycharm.lockprofiler.profile.ScopeStats;
+import nl.jusx.pycharm.lockprofiler.render.ScopeHeaderRenderer;
+
+import java.util.Arrays;
+
+/**
+ * Header inlays above the functions and classes of a profiled file, with the stats of their lines rolled up
+ *
+ * There is one header per scope with profiled lines, so they are added for the whole file at once.
+ */
+final class ScopeHeaders {
+    // Line of each header, starting at 1 like the profiler
+    private final int[] lines;
+    private final int[] columns;
+    private final String[] texts;
+    // Inlay of each header once they are added, null if its line is not in the file
+    private final Inlay<?>[] inlays;
+
+    private ScopeHeaders(int[] lines, int[] columns, String[] texts) {
+        this.lines = lines;
+        this.columns = columns;
+        this.texts = texts;
+        this.inlays = new Inlay<?>[lines.length];
+    }
+
+    /**
+     * Formats the headers of the scopes that have profiled lines. This does not need the EDT.
+     */
+    static ScopeHeaders prepare(PyScopes scopes, ScopeStats stats) {
+        int[] lines = new int[stats.size()];
+        int[] columns = new int[stats.size()];
+        String[] texts = new String[stats.size()];
+        int numHeaders = 0;
+        for (int scope = 0; scope < stats.size(); scope++) {
+            if (stats.lineCount(scope) == 0) {
+                continue;
+            }
+            lines[numHeaders] = stats.start(scope);
+            columns[numHeaders] = scopes.columns[scope];
+            texts[numHeaders] = ScopeHeaderRenderer.formatScope(stats, scope);
+            numHeaders++;
+        }
+        return new ScopeHeaders(Arrays.copyOf(lines, numHeaders), Arrays.copyOf(columns, numHeaders),
+                Arrays.copyOf(texts, numHeaders));
+    }
+
+    /**
+     * Adds the header inlays to the editor of a file, must be called on the EDT
+     */
+    void add(FileProfileData data) {
+        data.editor.getInlayModel().execute(lines.length >= ProfileHighlightService.BATCH_MODE_MIN_INLAYS, () -> {
+            for (int i = 0; i < lines.length; i++) {
+                addInlay(data, i);
+            }
+        });
+    }
+
+    /**
+     * Adds the header inlays in place of those of an older version of the headers of the same file, such as
+     * before a refresh of a live profile. The header of a scope that had one already is updated in place.
+     * Must be called on the EDT.
+     */
+    void replace(FileProfileData data, ScopeHeaders previous) {
+        data.editor.getInlayModel().execute(lines.length >= ProfileHighlightService.BATCH_MODE_MIN_INLAYS, () -> {
+            // Both are in document order, so the headers of the same scope are found in one pass
+            int p = 0;
+            for (int i = 0; i < lines.length; i++) {
+                while (p < previous.lines.length && (previous.lines[p] < lines[i]
+                        || (previous.lines[p] == lines[i] && previous.columns[p] < columns[i]))) {
+                    previous.release(data, p++);
+                }
+                if (p == previous.lines.length || previous.lines[p] != lines[i]
+                        || previous.columns[p] != columns[i] || previous.inlays[p] == null) {
+                    addInlay(data, i);
+                    continue;
+                }
+                Inlay<?> inlay = previous.inlays[p++];
+                // An inlay that is no longer valid was disposed by an edit of its line and is not added again
+                if (inlay.isValid() && ((ScopeHeaderRenderer) inlay.getRenderer()).setText(texts[i])) {
+                    inlay.update();
+                }
+                inlays[i] = inlay;
+            }
+            while (p < previous.lines.length) {
+                previous.release(data, p++);
+            }
+        });
+    }
+
+    private void addInlay(FileProfileData data, int i) {
+        Document document = data.editor.getDocument();
+        if (lines[i] < 1 || lines[i] > document.getLineCount()) {
+            // The file changed after it was profiled
+            return;
+        }
+        Inlay<ScopeHeaderRenderer> inlay = data.editor.getInlayModel().addBlockElement(
+                document.getLineStartOffset(lines[i] - 1), false, true, 0,
+                new ScopeHeaderRenderer(texts[i], columns[i]));
+        if (inlay != null) {
+            data.inlays.add(inlay);
+            inlays[i] = inlay;
+        }
+    }
+
+    private void release(FileProfileData data, int i) {
+        Inlay<?> inlay = inlays[i];
+        if (inlay == null || !inlay.isValid()) {
+            return;
+        }
+        // Removed while it is valid, its offset is how the index finds it
+        data.inlays.remove(inlay);
+        inlay.dispose();
+        inlays[i] = null;
+    }
+}
@@ -1,6 +1,40 @@
 package nl.jusx.pycharm.lockprofiler.service;
 
+import nl.jusx.pycharm.lockprofiler.profile.LineFractions;
+
+/**
+ * What the wait time of a line is divided by to color it
+ */
 public enum TimeFractionCalculation {
-    FUNCTION_TOTAL,
-    FUNCTION_MAX_LINE_TIME
+    FILE_TOTAL("File Total"),
+    FUNCTION_TOTAL("Function Total"),
+    FUNCTION_MAX_LINE_TIME("Function Max Line"),
+    PROJECT_MAX_LINE_TIME("Project Max Line");
+
+    private final String label;
+
+    TimeFractionCalculation(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @param i index of the line in `fractions`
+     * @return wait time of the line as a fraction of the denominator of this calculation
+     */
+    public float fraction(LineFractions fractions, int i) {
+        switch (this) {
+            case FILE_TOTAL:
+                return LineFractions.fraction(fractions.wait(i), fractions.fileTotal());
+            case FUNCTION_TOTAL:
+                return LineFractions.fraction(fractions.wait(i), fractions.functionTotal(i));
+            case FUNCTION_MAX_LINE_TIME:
+                return LineFractions.fraction(fractions.wait(i), fractions.functionMax(i));
+            default:
+                return LineFractions.fraction(fractions.wait(i), fractions.projectMax());
+        }
+    }
 }
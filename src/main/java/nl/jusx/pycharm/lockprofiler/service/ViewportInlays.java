@@ -0,0 +1,156 @@
+package nl.jusx.pycharm.lockprofiler.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import nl.jusx.pycharm.lockprofiler.render.LineProfileInlayRenderer;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.getFontMetrics;
+import static nl.jusx.pycharm.lockprofiler.render.InlayRendererUtils.getMargin;
+
+/**
+ * Keeps inlays only for the profiled lines of an editor that are visible, or close to the visible area
+ *
+ * Inlays are created when their line scrolls into view and released when it scrolls far out of view, so
+ * a file with many profiled lines costs no more than the lines that fit on screen. A refresh of a live profile
+ * updates the inlays in place, see {@link #update(PreparedFile)}.
+ */
+final class ViewportInlays implements VisibleAreaListener {
+    // Lines above and below the visible area that also get inlays, so that scrolling does not show missing inlays
+    private static final int MARGIN_LINES = 100;
+
+    private final FileProfileData data;
+    private PreparedFile preparedFile;
+    private final int margin;
+    // Inlay of each line of the prepared file, null if it has none
+    // An inlay that is no longer valid was disposed by an edit of its line and is not created again
+    private Inlay<?>[] inlays;
+    // Indices of the prepared lines that may have an inlay are from until to (exclusive)
+    private int from;
+    private int to;
+
+    ViewportInlays(FileProfileData data, PreparedFile preparedFile) {
+        this.data = data;
+        this.preparedFile = preparedFile;
+        this.margin = getMargin(getFontMetrics(data.editor));
+        this.inlays = new Inlay<?>[preparedFile.lines.length];
+        // Lines that are not visible yet also count for the alignment, so it does not change while scrolling
+        LineProfileInlayRenderer.precomputeAlignment(data.editor, data.desiredTableAlignment, preparedFile.lines, margin);
+    }
+
+    /**
+     * Adds the inlays of the visible area and follows the visible area until `parent` is disposed
+     */
+    void attach(Disposable parent) {
+        data.editor.getScrollingModel().addVisibleAreaListener(this, parent);
+        update(data.editor.getScrollingModel().getVisibleArea());
+    }
+
+    /**
+     * Shows a newer version of the prepared file, such as a refresh of a live profile
+     *
+     * The inlays of lines that are still profiled get their new text and fraction in place, only an inlay whose
+     * text changed is laid out again. Lines that are new get an inlay if they are close to the visible area.
+     * The time fractions of {@link FileProfileData} must be those of the newer version.
+     */
+    void update(PreparedFile newer) {
+        LineProfileInlayRenderer.precomputeAlignment(data.editor, data.desiredTableAlignment, newer.lines, margin);
+        Inlay<?>[] newInlays = new Inlay<?>[newer.lines.length];
+        int newFrom = 0;
+        int newTo = 0;
+        if (from < to) {
+            newFrom = lowerBound(newer.lines, preparedFile.lines[from]);
+            newTo = lowerBound(newer.lines, preparedFile.lines[to - 1] + 1);
+        }
+        for (int i = from; i < to; i++) {
+            Inlay<?> inlay = inlays[i];
+            if (inlay == null) {
+                continue;
+            }
+            int j = Arrays.binarySearch(newer.lines, preparedFile.lines[i]);
+            if (j < 0) {
+                release(i);
+                continue;
+            }
+            if (inlay.isValid()) {
+                LineProfileInlayRenderer renderer = (LineProfileInlayRenderer) inlay.getRenderer();
+                if (renderer.update(newer.texts[j], data.timeFractions, j)) {
+                    inlay.update();
+                } else {
+                    inlay.repaint();
+                }
+            }
+            newInlays[j] = inlay;
+        }
+        preparedFile = newer;
+        inlays = newInlays;
+        from = newFrom;
+        to = newTo;
+        update(data.editor.getScrollingModel().getVisibleArea());
+    }
+
+    @Override
+    public void visibleAreaChanged(@NotNull VisibleAreaEvent e) {
+        update(e.getNewRectangle());
+    }
+
+    private void update(Rectangle visibleArea) {
+        Editor editor = data.editor;
+        // Profiled lines start at 1, logical lines at 0
+        int firstLine = editor.xyToLogicalPosition(new Point(0, visibleArea.y)).line + 1 - MARGIN_LINES;
+        int lastLine = editor.xyToLogicalPosition(new Point(0, visibleArea.y + visibleArea.height)).line + 1 + MARGIN_LINES;
+        int newFrom = lowerBound(preparedFile.lines, firstLine);
+        int newTo = lowerBound(preparedFile.lines, lastLine + 1);
+
+        for (int i = from; i < to; i++) {
+            if (i < newFrom || i >= newTo) {
+                release(i);
+            }
+        }
+        int missing = 0;
+        for (int i = newFrom; i < newTo; i++) {
+            if (inlays[i] == null) {
+                missing++;
+            }
+        }
+        // Scrolling adds a few inlays at a time, only attaching or jumping through the file adds a batch
+        editor.getInlayModel().execute(missing >= ProfileHighlightService.BATCH_MODE_MIN_INLAYS, () -> {
+            for (int i = newFrom; i < newTo; i++) {
+                if (inlays[i] == null) {
+                    inlays[i] = ProfileHighlightService.createInlay(data, preparedFile, i, margin);
+                    if (inlays[i] != null) {
+                        data.inlays.add(inlays[i]);
+                    }
+                }
+            }
+        });
+        from = newFrom;
+        to = newTo;
+    }
+
+    private void release(int i) {
+        Inlay<?> inlay = inlays[i];
+        if (inlay == null || !inlay.isValid()) {
+            return;
+        }
+        // Removed while it is valid, its offset is how the index finds it
+        data.inlays.remove(inlay);
+        inlay.dispose();
+        inlays[i] = null;
+    }
+
+    /**
+     * @return index of the first of some prepared lines at or after `line`
+     */
+    private static int lowerBound(int[] lines, int line) {
+        int i = Arrays.binarySearch(lines, line);
+        return i < 0 ? -i - 1 : i;
+    }
+}
@@ -2,6 +2,7 @@ package nl.jusx.pycharm.lockprofiler.settings;
 
 import com.intellij.openapi.ui.ComboBox;
 import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBCheckBox;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.util.ui.FormBuilder;
 import nl.jusx.pycharm.lockprofiler.service.ColorMapOption;
@@ -18,6 +19,10 @@ public class SettingsComponent {
     private final JPanel myMainPanel;
 
     private final JBIntSpinner myMaxTableAlignment = new JBIntSpinner(120, 0, 300);
+    private final JBIntSpinner myLiveRefreshInterval = new JBIntSpinner(1000, 0, 60000, 100);
+    private final JBIntSpinner myProfileCacheSize = new JBIntSpinner(1024, 0, 65536, 64);
+    private final JBCheckBox myCompressProfiles = new JBCheckBox("Write compressed profiles (.pclprof.gz)");
+    private final JBCheckBox myOpenProfiledFiles = new JBCheckBox("Open all profiled files when a profile is shown");
     private final ComboBox<ColorMapOption> myColorMap = new ComboBox<>(ColorMapOption.values());
 
 
@@ -25,6 +30,10 @@ public class SettingsComponent {
         myMainPanel = FormBuilder.createFormBuilder()
                 .addLabeledComponent(new JBLabel("Colormap: "), myColorMap, 1, false)
                 .addLabeledComponent(new JBLabel("Max table alignment at column: "), myMaxTableAlignment, 1, false)
+                .addLabeledComponent(new JBLabel("Live profile refresh interval in ms (0 = off): "), myLiveRefreshInterval, 1, false)
+                .addLabeledComponent(new JBLabel("Profile cache size in MB (0 = off): "), myProfileCacheSize, 1, false)
+                .addComponent(myCompressProfiles, 1)
+                .addComponent(myOpenProfiledFiles, 1)
                 .addComponentFillVertically(new JPanel(), 0)
                 .getPanel();
     }
@@ -52,4 +61,36 @@ public class SettingsComponent {
     public int getMaxTableAlignment() {
         return (int) myMaxTableAlignment.getValue();
     }
+
+    public void setLiveRefreshInterval(int liveRefreshInterval) {
+        myLiveRefreshInterval.setValue(liveRefreshInterval);
+    }
+
+    public int getLiveRefreshInterval() {
+        return (int) myLiveRefreshInterval.getValue();
+    }
+
+    public void setProfileCacheSize(int profileCacheSize) {
+        myProfileCacheSize.setValue(profileCacheSize);
+    }
+
+    public int getProfileCacheSize() {
+        return (int) myProfileCacheSize.getValue();
+    }
+
+    public void setCompressProfiles(boolean compressProfiles) {
+        myCompressProfiles.setSelected(compressProfiles);
+    }
+
+    public boolean getCompressProfiles() {
+        return myCompressProfiles.isSelected();
+    }
+
+    public void setOpenProfiledFiles(boolean openProfiledFiles) {
+        myOpenProfiledFiles.setSelected(openProfiledFiles);
+    }
+
+    public boolean getOpenProfiledFiles() {
+        return myOpenProfiledFiles.isSelected();
+    }
 }
@@ -2,6 +2,8 @@ package nl.jusx.pycharm.lockprofiler.settings;
 
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.project.Project;
+import nl.jusx.pycharm.lockprofiler.render.InlayRenderCache;
+import nl.jusx.pycharm.lockprofiler.service.ColorMapService;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,14 +46,28 @@ public class SettingsConfigurable implements Configurable {
         SettingsState settings = SettingsState.getInstance();
 
         return mySettingsComponent.getColorMap() != settings.getColorMap() ||
-                mySettingsComponent.getMaxTableAlignment() != settings.getTableAlignmentMaxColumns();
+                mySettingsComponent.getMaxTableAlignment() != settings.getTableAlignmentMaxColumns() ||
+                mySettingsComponent.getLiveRefreshInterval() != settings.getLiveRefreshIntervalMs() ||
+                mySettingsComponent.getProfileCacheSize() != settings.getProfileCacheSizeMb() ||
+                mySettingsComponent.getCompressProfiles() != settings.isCompressProfiles() ||
+                mySettingsComponent.getOpenProfiledFiles() != settings.isOpenProfiledFiles();
     }
 
     @Override
     public void apply() {
         SettingsState settings = SettingsState.getInstance();
-        settings.setColorMap(mySettingsComponent.getColorMap());
-        settings.setTableAlignmentMaxColumns(mySettingsComponent.getMaxTableAlignment());
+        if (settings.getColorMap() != mySettingsComponent.getColorMap()) {
+            settings.setColorMap(mySettingsComponent.getColorMap());
+            ColorMapService.getInstance().colorMapChanged();
+        }
+        if (settings.getTableAlignmentMaxColumns() != mySettingsComponent.getMaxTableAlignment()) {
+            settings.setTableAlignmentMaxColumns(mySettingsComponent.getMaxTableAlignment());
+            InlayRenderCache.outdateAll();
+        }
+        settings.setLiveRefreshIntervalMs(mySettingsComponent.getLiveRefreshInterval());
+        settings.setProfileCacheSizeMb(mySettingsComponent.getProfileCacheSize());
+        settings.setCompressProfiles(mySettingsComponent.getCompressProfiles());
+        settings.setOpenProfiledFiles(mySettingsComponent.getOpenProfiledFiles());
     }
 
     @Override
@@ -59,6 +75,10 @@ public class SettingsConfigurable implements Configurable {
         SettingsState settings = SettingsState.getInstance();
         mySettingsComponent.setColorMap(settings.getColorMap());
         mySettingsComponent.setMaxTableAlignment(settings.getTableAlignmentMaxColumns());
+        mySettingsComponent.setLiveRefreshInterval(settings.getLiveRefreshIntervalMs());
+        mySettingsComponent.setProfileCacheSize(settings.getProfileCacheSizeMb());
+        mySettingsComponent.setCompressProfiles(settings.isCompressProfiles());
+        mySettingsComponent.setOpenProfiledFiles(settings.isOpenProfiledFiles());
     }
 
     @Override
@@ -24,6 +24,14 @@ import org.jetbrains.annotations.Nullable;
 public class SettingsState implements PersistentStateComponent<SettingsState> {
     private int tableAlignmentMaxColumns = 120;
     private ColorMapOption colorMap = ColorMapOption.VIRIDIS;
+    // Interval at which the profile of a running Profile Lines execution is refreshed, 0 disables live profiles
+    private int liveRefreshIntervalMs = 1000;
+    // Size budget of the cache of parsed profiles, 0 disables the cache
+    private int profileCacheSizeMb = 1024;
+    // Whether Profile Lines executions ask the helper package for a gzip-compressed .pclprof.gz file
+    private boolean compressProfiles = true;
+    // Whether showing a profile opens all profiled files, otherwise inlays are only added to files the user opens
+    private boolean openProfiledFiles = false;
 
     public static SettingsState getInstance() {
         return ApplicationManager.getApplication().getService(SettingsState.class);
@@ -45,6 +53,38 @@ public class SettingsState implements PersistentStateComponent<SettingsState> {
         this.tableAlignmentMaxColumns = tableAlignmentMaxColumns;
     }
 
+    public int getLiveRefreshIntervalMs() {
+        return liveRefreshIntervalMs;
+    }
+
+    public void setLiveRefreshIntervalMs(int liveRefreshIntervalMs) {
+        this.liveRefreshIntervalMs = liveRefreshIntervalMs;
+    }
+
+    public int getProfileCacheSizeMb() {
+        return profileCacheSizeMb;
+    }
+
+    public void setProfileCacheSizeMb(int profileCacheSizeMb) {
+        this.profileCacheSizeMb = profileCacheSizeMb;
+    }
+
+    public boolean isCompressProfiles() {
+        return compressProfiles;
+    }
+
+    public void setCompressProfiles(boolean compressProfiles) {
+        this.compressProfiles = compressProfiles;
+    }
+
+    public boolean isOpenProfiledFiles() {
+        return openProfiledFiles;
+    }
+
+    public void setOpenProfiledFiles(boolean openProfiledFiles) {
+        this.openProfiledFiles = openProfiledFiles;
+    }
+
     @Nullable
     @Override
     public SettingsState getState() {
@@ -0,0 +1,89 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static nl.jusx.pycharm.lockprofiler.profile.LockTableTest.values;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrayLineTableTest {
+    @Test
+    void rowsAreSortedByFileLineAndLock() {
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        int b = builder.internFile("/b.py");
+        int a = builder.internFile("/a.py");
+        assertEquals(b, builder.internFile("/b.py"));
+        builder.add(b, 1, 5, values(1, 10));
+        builder.add(a, 9, 5, values(2, 20));
+        builder.add(a, 2, 5, values(3, 30));
+        builder.add(a, 9, -5, values(4, 40));
+        LineTable table = builder.build();
+
+        assertEquals(4, table.size());
+        assertEquals(2, table.fileCount());
+        assertEquals("/a.py", table.file(0));
+        assertEquals("/b.py", table.file(1));
+        assertEquals(0, table.fileStart(0));
+        assertEquals(3, table.fileEnd(0));
+        assertEquals(3, table.fileStart(1));
+        assertEquals(4, table.fileEnd(1));
+
+        int[] lines = {2, 9, 9, 1};
+        long[] locks = {5, -5, 5, 5};
+        long[] waits = {30, 40, 20, 10};
+        for (int row = 0; row < table.size(); row++) {
+            assertEquals(lines[row], table.line(row));
+            assertEquals(locks[row], table.lockHash(row));
+            assertEquals(waits[row], table.get(row, Metric.TOTAL_WAIT));
+            assertEquals(row < 3 ? 0 : 1, table.fileId(row));
+        }
+    }
+
+    @Test
+    void findsFilesAndLineEnds() {
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        int file = builder.internFile("/src/x.py");
+        builder.add(file, 4, 1, values(1, 1));
+        builder.add(file, 4, 2, values(1, 1));
+        builder.add(file, 6, 1, values(1, 1));
+        LineTable table = builder.build();
+
+        assertEquals(0, table.findFile("/src/x.py"));
+        assertTrue(table.findFile("/src/y.py") < 0);
+        assertEquals(2, table.lineEnd(0));
+        assertEquals(2, table.lineEnd(1));
+        assertEquals(3, table.lineEnd(2));
+    }
+
+    @Test
+    void emptyTable() {
+        LineTable table = new ArrayLineTable.Builder().build();
+
+        assertEquals(0, table.size());
+        assertEquals(0, table.fileCount());
+    }
+
+    @Test
+    void builderGrows() {
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        for (int f = 0; f < 40; f++) {
+            int file = builder.internFile("/f" + (char) ('a' + f % 26) + f + ".py");
+            for (int line = 100; line > 0; line--) {
+                builder.add(file, line, 0, values(line, line));
+            }
+        }
+        LineTable table = builder.build();
+
+        assertEquals(4000, table.size());
+        assertEquals(40, table.fileCount());
+        for (int f = 0; f < table.fileCount(); f++) {
+            assertEquals(100, table.fileEnd(f) - table.fileStart(f));
+            if (f > 0) {
+                assertTrue(table.file(f - 1).compareTo(table.file(f)) < 0);
+            }
+            for (int row = table.fileStart(f); row < table.fileEnd(f); row++) {
+                assertEquals(row - table.fileStart(f) + 1, table.line(row));
+                assertEquals(table.line(row), table.get(row, Metric.HITS));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.assertSameRows;
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.fixture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProfileFormatTest {
+    // Header positions, see BinaryProfileFormat
+    private static final int NUM_STRINGS = 16;
+    private static final int NUM_ROWS = 32;
+    private static final int STRING_TABLE_OFFSET = 40;
+    private static final int LOCK_TABLE_OFFSET = 48;
+    private static final int FILE_INDEX_OFFSET = 56;
+    private static final int FILE_RECORD_SIZE = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeFixture() throws IOException {
+        Path path = tempDir.resolve("small.bin.pclprof");
+        BinaryProfileFormat.write(ProfileSchema.parseJson(fixture("small.pclprof")), path);
+        return path;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        ProfileSchema parsed = ProfileSchema.parseJson(fixture("small.pclprof"));
+        Path path = writeFixture();
+
+        assertTrue(BinaryProfileFormat.isBinaryProfile(path));
+        assertFalse(BinaryProfileFormat.isBinaryProfile(fixture("small.pclprof")));
+        ProfileSchema read = BinaryProfileFormat.read(path);
+        assertSameRows(parsed.file_stats.all(), read.file_stats.all());
+        assertEquals(parsed.lock_stats.size(), read.lock_stats.size());
+        for (int row = 0; row < parsed.lock_stats.size(); row++) {
+            assertEquals(parsed.lock_stats.hash(row), read.lock_stats.hash(row));
+            assertEquals(parsed.lock_stats.name(row), read.lock_stats.name(row));
+            for (Metric metric : Metric.values()) {
+                assertEquals(parsed.lock_stats.get(row, metric), read.lock_stats.get(row, metric));
+            }
+        }
+    }
+
+    @Test
+    void writesIndexedProfilesFileByFile() throws IOException {
+        Path path = tempDir.resolve("indexed.bin.pclprof");
+        BinaryProfileFormat.write(JsonProfileIndex.load(fixture("small.pclprof")), path);
+
+        ProfileSchema read = BinaryProfileFormat.read(path);
+        assertSameRows(ProfileSchema.parseJson(fixture("small.pclprof")).file_stats.all(), read.file_stats.all());
+        assertEquals(2, read.lock_stats.size());
+    }
+
+    @Test
+    void roundTripWithEmptyProfile() throws IOException {
+        ProfileSchema empty = new ProfileSchema(new LockTable.Builder().build(),
+                ProfileFiles.of(new ArrayLineTable.Builder().build()));
+        Path path = tempDir.resolve("empty.bin.pclprof");
+        BinaryProfileFormat.write(empty, path);
+
+        ProfileSchema read = BinaryProfileFormat.read(path);
+        assertEquals(0, read.lock_stats.size());
+        assertEquals(0, read.file_stats.all().size());
+    }
+
+    @Test
+    void truncatedFilesAreNotRead() throws IOException {
+        byte[] bytes = Files.readAllBytes(writeFixture());
+        for (int length = 0; length < bytes.length; length++) {
+            Path truncated = tempDir.resolve("truncated" + length + ".pclprof");
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+
+            assertThrows(IOException.class, () -> BinaryProfileFormat.read(truncated), "length " + length);
+            if (BinaryProfileFormat.isBinaryProfile(truncated)) {
+                assertNull(ProfileSchema.FromFile(truncated.toString()), "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void corruptCountsAndIndicesAreNotRead() throws IOException {
+        byte[] bytes = Files.readAllBytes(writeFixture());
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int stringTable = (int) header.getLong(STRING_TABLE_OFFSET);
+        int lockTable = (int) header.getLong(LOCK_TABLE_OFFSET);
+        int fileIndex = (int) header.getLong(FILE_INDEX_OFFSET);
+        long numRows = header.getLong(NUM_ROWS);
+
+        assertCorrupt(bytes, NUM_STRINGS, -1);
+        assertCorrupt(bytes, NUM_STRINGS, Integer.MAX_VALUE);
+        assertCorrupt(bytes, NUM_ROWS, numRows + 1);
+        assertCorrupt(bytes, NUM_ROWS, -1L);
+        assertCorrupt(bytes, LOCK_TABLE_OFFSET, (long) stringTable - 8);
+        // Length of the first string
+        assertCorrupt(bytes, stringTable, 1 << 30);
+        assertCorrupt(bytes, stringTable, -2);
+        // Name of the first lock
+        assertCorrupt(bytes, lockTable + 8, 1000);
+        assertCorrupt(bytes, lockTable + 8, -1);
+        // Path and row range of the first file
+        assertCorrupt(bytes, fileIndex, 1000);
+        assertCorrupt(bytes, fileIndex + 4, 1);
+        assertCorrupt(bytes, fileIndex + 8, (int) numRows + 5);
+        assertCorrupt(bytes, fileIndex + 8, -1);
+    }
+
+    @Test
+    void unsortedPathsAreNotRead() throws IOException {
+        byte[] bytes = Files.readAllBytes(writeFixture());
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int fileIndex = (int) header.getLong(FILE_INDEX_OFFSET);
+
+        // Both files with the path of the first
+        assertCorrupt(bytes, fileIndex + FILE_RECORD_SIZE, 0);
+        // The paths of the files swapped
+        ByteBuffer swapped = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        swapped.putInt(fileIndex, 1);
+        swapped.putInt(fileIndex + FILE_RECORD_SIZE, 0);
+        assertCorrupt(swapped.array(), "swapped paths");
+    }
+
+    private void assertCorrupt(byte[] bytes, int position, int value) throws IOException {
+        ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putInt(position, value);
+        assertCorrupt(corrupt.array(), position + " = " + value);
+    }
+
+    private void assertCorrupt(byte[] bytes, int position, long value) throws IOException {
+        ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putLong(position, value);
+        assertCorrupt(corrupt.array(), position + " = " + value);
+    }
+
+    private void assertCorrupt(byte[] bytes, String description) throws IOException {
+        Path path = tempDir.resolve("corrupt.pclprof");
+        Files.write(path, bytes);
+        IOException e = assertThrows(IOException.class, () -> BinaryProfileFormat.read(path), description);
+        assertTrue(e.getMessage().startsWith("Corrupt binary profile"), description + ": " + e.getMessage());
+    }
+}
@@ -0,0 +1,128 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static nl.jusx.pycharm.lockprofiler.profile.LockTableTest.values;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IcicleLayoutTest {
+    private static LockTable locks() {
+        LockTable.Builder builder = new LockTable.Builder();
+        builder.addName(1, "db_lock");
+        builder.addName(2, "cache_lock");
+        return builder.build();
+    }
+
+    /**
+     * /a.py waits 10 on line 2 of the module and 55 in `def f` on lines 4 to 8: 50 on line 5, 0 on line 6 and 5
+     * on line 7 for a lock without a name. /b.py waits 40 on line 1 and /c.py does not wait.
+     */
+    private static IcicleLayout layout(Metric metric) {
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        int c = builder.internFile("/c.py");
+        int b = builder.internFile("/b.py");
+        int a = builder.internFile("/a.py");
+        builder.add(a, 2, 1, values(1, 10));
+        builder.add(a, 5, 1, values(1, 30));
+        builder.add(a, 5, 2, values(1, 20));
+        builder.add(a, 6, 2, values(1, 0));
+        builder.add(a, 7, 3, values(1, 5));
+        builder.add(b, 1, 1, values(1, 40));
+        builder.add(c, 1, 1, values(1, 0));
+        ProfileFiles files = ProfileFiles.of(builder.build());
+
+        FileGroups[] groups = new FileGroups[files.fileCount()];
+        for (int fileId = 0; fileId < groups.length; fileId++) {
+            groups[fileId] = files.file(fileId).equals("/a.py")
+                    ? FileGroups.compute(files, fileId, new String[]{"f"}, new boolean[]{false}, new int[]{4},
+                    new int[]{8})
+                    : FileGroups.compute(files, fileId, new String[0], new boolean[0], new int[0], new int[0]);
+        }
+        return IcicleLayout.compute(files, groups, locks(), metric);
+    }
+
+    private static void assertFrame(IcicleLayout layout, int frame, String label, long value, long x, int line) {
+        assertEquals(label, layout.label(frame));
+        assertEquals(value, layout.value(frame), label);
+        assertEquals((double) x / layout.total(), layout.x(frame), 1e-12, label);
+        assertEquals((double) value / layout.total(), layout.width(frame), 1e-12, label);
+        assertEquals(line, layout.line(frame), label);
+    }
+
+    @Test
+    void framesAreOrderedByDepthAndThenByValue() {
+        IcicleLayout layout = layout(Metric.TOTAL_WAIT);
+
+        assertEquals(105, layout.total());
+        assertEquals(2, layout.depthEnd(IcicleLayout.FILE_DEPTH) - layout.depthStart(IcicleLayout.FILE_DEPTH));
+        int files = layout.depthStart(IcicleLayout.FILE_DEPTH);
+        assertFrame(layout, files, "/a.py", 65, 0, 0);
+        assertFrame(layout, files + 1, "/b.py", 40, 65, 0);
+
+        assertEquals(3, layout.depthEnd(IcicleLayout.SCOPE_DEPTH) - layout.depthStart(IcicleLayout.SCOPE_DEPTH));
+        int scopes = layout.depthStart(IcicleLayout.SCOPE_DEPTH);
+        // A scope navigates to its first line, the module to its first profiled line
+        assertFrame(layout, scopes, "def f", 55, 0, 4);
+        assertFrame(layout, scopes + 1, "<module>", 10, 55, 2);
+        assertFrame(layout, scopes + 2, "<module>", 40, 65, 1);
+
+        // Lines and locks that do not wait get no frame
+        assertEquals(4, layout.depthEnd(IcicleLayout.LINE_DEPTH) - layout.depthStart(IcicleLayout.LINE_DEPTH));
+        int lines = layout.depthStart(IcicleLayout.LINE_DEPTH);
+        assertFrame(layout, lines, "Line 5", 50, 0, 5);
+        assertFrame(layout, lines + 1, "Line 7", 5, 50, 7);
+        assertFrame(layout, lines + 2, "Line 2", 10, 55, 2);
+        assertFrame(layout, lines + 3, "Line 1", 40, 65, 1);
+
+        assertEquals(5, layout.depthEnd(IcicleLayout.LOCK_DEPTH) - layout.depthStart(IcicleLayout.LOCK_DEPTH));
+        int locks = layout.depthStart(IcicleLayout.LOCK_DEPTH);
+        assertFrame(layout, locks, "db_lock", 30, 0, 5);
+        assertFrame(layout, locks + 1, "cache_lock", 20, 30, 5);
+        assertFrame(layout, locks + 2, "?", 5, 50, 7);
+        assertFrame(layout, locks + 3, "db_lock", 10, 55, 2);
+        assertFrame(layout, locks + 4, "db_lock", 40, 65, 1);
+        assertEquals(layout.size(), layout.depthEnd(IcicleLayout.LOCK_DEPTH));
+    }
+
+    @Test
+    void framesAreFoundByPosition() {
+        IcicleLayout layout = layout(Metric.TOTAL_WAIT);
+        int files = layout.depthStart(IcicleLayout.FILE_DEPTH);
+        int lines = layout.depthStart(IcicleLayout.LINE_DEPTH);
+
+        assertEquals(files, layout.frameAt(IcicleLayout.FILE_DEPTH, 0));
+        assertEquals(files, layout.frameAt(IcicleLayout.FILE_DEPTH, 64.0 / 105));
+        assertEquals(files + 1, layout.frameAt(IcicleLayout.FILE_DEPTH, 65.0 / 105));
+        assertEquals(-1, layout.frameAt(IcicleLayout.FILE_DEPTH, 1.0));
+        assertEquals(lines + 1, layout.frameAt(IcicleLayout.LINE_DEPTH, 52.0 / 105));
+        assertEquals(lines + 2, layout.firstEndingAfter(IcicleLayout.LINE_DEPTH, 55.0 / 105));
+        assertEquals(layout.depthEnd(IcicleLayout.LINE_DEPTH), layout.firstEndingAfter(IcicleLayout.LINE_DEPTH, 1));
+    }
+
+    @Test
+    void framesAreSizedByTheMetric() {
+        IcicleLayout layout = layout(Metric.HITS);
+
+        assertEquals(Metric.HITS, layout.metric());
+        assertEquals(7, layout.total());
+        int files = layout.depthStart(IcicleLayout.FILE_DEPTH);
+        assertFrame(layout, files, "/a.py", 5, 0, 0);
+        assertEquals(3, layout.depthEnd(IcicleLayout.FILE_DEPTH) - files);
+    }
+
+    @Test
+    void averagesAndMaximaCanNotSizeFrames() {
+        assertThrows(IllegalArgumentException.class, () -> layout(Metric.AVG_WAIT));
+        assertThrows(IllegalArgumentException.class, () -> layout(Metric.MAX_WAIT));
+    }
+
+    @Test
+    void emptyProfilesHaveNoFrames() {
+        ProfileFiles files = ProfileFiles.of(new ArrayLineTable.Builder().build());
+        IcicleLayout layout = IcicleLayout.compute(files, new FileGroups[0], locks(), Metric.TOTAL_WAIT);
+
+        assertEquals(0, layout.total());
+        assertEquals(0, layout.size());
+        assertEquals(-1, layout.frameAt(IcicleLayout.FILE_DEPTH, 0));
+    }
+}
@@ -0,0 +1,103 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexSortTest {
+    @Test
+    void rangeHoldsTheIndices() {
+        assertArrayEquals(new int[]{3, 4, 5}, IndexSort.range(3, 6));
+        assertEquals(0, IndexSort.range(2, 2).length);
+    }
+
+    @Test
+    void sortIsStable() {
+        int[] keys = new int[1000];
+        Random random = new Random(1);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(10);
+        }
+        int[] idx = IndexSort.range(0, keys.length);
+        IndexSort.sort(idx, (a, b) -> Integer.compare(keys[a], keys[b]));
+
+        assertArrayEquals(referenceOrder(keys.length, Comparator.comparingInt(i -> keys[i])), idx);
+    }
+
+    @Test
+    void sortByKeyOrdersSignedKeysOnBothPaths() {
+        // Below and above the size from which the radix sort is used
+        for (int size : new int[]{0, 1, 2, 15, 100, 5000, 70000}) {
+            long[] keys = randomKeys(size, new Random(size));
+            int[] idx = IndexSort.range(0, size);
+            IndexSort.sortByKey(idx, keys);
+
+            assertArrayEquals(referenceOrder(size, Comparator.comparingLong(i -> keys[i])), idx, "size " + size);
+        }
+    }
+
+    @Test
+    void sortByKeyIsStable() {
+        for (int size : new int[]{500, 50000}) {
+            long[] keys = new long[size];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                // Few distinct keys, on both sides of zero and differing only in high digits
+                keys[i] = (random.nextInt(7) - 3) * (1L << 40);
+            }
+            int[] idx = IndexSort.range(0, size);
+            IndexSort.sortByKey(idx, keys);
+
+            assertArrayEquals(referenceOrder(size, Comparator.comparingLong(i -> keys[i])), idx, "size " + size);
+        }
+    }
+
+    @Test
+    void sortByKeySortsASubsetOfIndices() {
+        long[] keys = randomKeys(10000, new Random(7));
+        int[] idx = new int[5000];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = 2 * i + 1;
+        }
+        IndexSort.sortByKey(idx, keys);
+
+        for (int i = 1; i < idx.length; i++) {
+            assertTrue(keys[idx[i - 1]] <= keys[idx[i]]);
+            assertEquals(1, idx[i] % 2);
+        }
+    }
+
+    private static long[] randomKeys(int size, Random random) {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            switch (i % 5) {
+                case 0:
+                    keys[i] = Long.MIN_VALUE + random.nextInt(3);
+                    break;
+                case 1:
+                    keys[i] = Long.MAX_VALUE - random.nextInt(3);
+                    break;
+                case 2:
+                    keys[i] = random.nextInt(2001) - 1000;
+                    break;
+                default:
+                    keys[i] = random.nextLong();
+            }
+        }
+        return keys;
+    }
+
+    // Indices 0 up to size ordered with the stable sort of the JDK
+    private static int[] referenceOrder(int size, Comparator<Integer> comparator) {
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, comparator);
+        return Arrays.stream(boxed).mapToInt(Integer::intValue).toArray();
+    }
+}
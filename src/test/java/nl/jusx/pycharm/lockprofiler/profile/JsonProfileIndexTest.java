@@ -0,0 +1,99 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.assertSameRows;
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.fixture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonProfileIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void indexesFilesInPathOrder() throws IOException {
+        ProfileFiles files = JsonProfileIndex.load(fixture("small.pclprof")).file_stats;
+
+        assertEquals(2, files.fileCount());
+        assertEquals("/src/app/a.py", files.file(0));
+        assertEquals("/src/app/b.py", files.file(1));
+        assertEquals(1, files.findFile("/src/app/b.py"));
+        assertTrue(files.findFile("/src/app/c.py") < 0);
+    }
+
+    @Test
+    void decodedFilesMatchTheParsedProfile() throws IOException {
+        assertMatchesParsed(fixture("small.pclprof"));
+    }
+
+    @Test
+    void stringsDoNotEndRanges() throws IOException {
+        // Braces, quotes and escapes in keys and names, and lock_stats after file_stats
+        Path path = write("{\"lock_hashes\": {\"5\": \"a \\\"}\\\" {\", \"6\": \"b\\\\\"},\n"
+                + " \"file_stats\": {\"/x/{\\u00e9}.py\": {\"3\": {\"5\": [1, 2, 3]}, \"4\": {}},\n"
+                + "                \"/a\\\"}.py\": {\"9\": {\"6\": [4, 5, 6], \"5\": [7]}},\n"
+                + "                \"/empty.py\": {}},\n"
+                + " \"lock_stats\": {\"5\": [2, 2, 3], \"6\": [1, 1, 6]}}");
+        ProfileSchema indexed = JsonProfileIndex.load(path);
+
+        assertEquals("a \"}\" {", indexed.getLockName(5));
+        assertEquals("b\\", indexed.getLockName(6));
+        assertEquals(2, indexed.lock_stats.get(indexed.lock_stats.indexOf(5), Metric.HITS));
+        assertEquals("/x/{é}.py", indexed.file_stats.file(2));
+        assertMatchesParsed(path);
+    }
+
+    @Test
+    void allMatchesTheParsedProfile() throws IOException {
+        ProfileFiles files = JsonProfileIndex.load(fixture("small.pclprof")).file_stats;
+        // Decode one file first, all() replaces the per file tables
+        files.stats(0);
+
+        assertSameRows(ProfileSchema.parseJson(fixture("small.pclprof")).file_stats.all(), files.all());
+        assertSame(files.all(), files.stats(1));
+    }
+
+    @Test
+    void filesChangedAfterIndexingAreNotDecoded() throws IOException {
+        Path path = tempDir.resolve("changed.pclprof");
+        Files.copy(fixture("small.pclprof"), path);
+        ProfileFiles files = JsonProfileIndex.load(path).file_stats;
+        Files.write(path, "{}".getBytes(StandardCharsets.UTF_8));
+
+        for (int fileId = 0; fileId < files.fileCount(); fileId++) {
+            assertFalse(files.cursor(fileId).next(), files.file(fileId));
+        }
+    }
+
+    private Path write(String json) throws IOException {
+        Path path = tempDir.resolve("profile.pclprof");
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static void assertMatchesParsed(Path path) throws IOException {
+        LineTable parsed = ProfileSchema.parseJson(path).file_stats.all();
+        ProfileFiles indexed = JsonProfileIndex.load(path).file_stats;
+
+        assertEquals(parsed.fileCount(), indexed.fileCount());
+        for (int fileId = 0; fileId < parsed.fileCount(); fileId++) {
+            assertEquals(parsed.file(fileId), indexed.file(fileId));
+            StatsCursor cursor = indexed.cursor(fileId);
+            for (int row = parsed.fileStart(fileId); row < parsed.fileEnd(fileId); row++) {
+                assertTrue(cursor.next(), parsed.file(fileId));
+                assertEquals(parsed.line(row), cursor.line());
+                assertEquals(parsed.lockHash(row), cursor.lockHash());
+                for (Metric metric : Metric.values()) {
+                    assertEquals(parsed.get(row, metric), cursor.get(metric), metric.getLabel());
+                }
+            }
+            assertFalse(cursor.next(), parsed.file(fileId));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineFractionsTest {
+    @Test
+    void linesBelongToTheirInnermostFunction() {
+        // f spans lines 1-8 with g nested on lines 3-5, h spans lines 10-12, line 9 is on the module level
+        LineFractions fractions = LineFractions.compute(new int[]{2, 4, 6, 9, 11}, new long[]{1, 2, 3, 4, 5},
+                new int[]{1, 3, 10}, new int[]{8, 5, 12}, () -> 100);
+
+        assertEquals(15, fractions.fileTotal());
+        // Line 6 is back in f once g has ended
+        assertEquals(4, fractions.functionTotal(0));
+        assertEquals(4, fractions.functionTotal(2));
+        assertEquals(3, fractions.functionMax(0));
+        assertEquals(2, fractions.functionTotal(1));
+        assertEquals(4, fractions.functionTotal(3));
+        assertEquals(5, fractions.functionMax(4));
+    }
+
+    @Test
+    void nestedFunctionsEndBeforeTheNextOneStarts() {
+        // g on lines 2-3 and k on lines 6-8 are both nested in f on lines 1-10
+        LineFractions fractions = LineFractions.compute(new int[]{7, 9}, new long[]{10, 20},
+                new int[]{1, 2, 6}, new int[]{10, 3, 8}, () -> 100);
+
+        assertEquals(10, fractions.functionTotal(0));
+        assertEquals(20, fractions.functionTotal(1));
+        assertEquals(20, fractions.functionMax(1));
+    }
+
+    @Test
+    void projectMaxIsOnlyFoundWhenAskedFor() {
+        int[] calls = new int[1];
+        LineFractions fractions = LineFractions.compute(new int[]{1}, new long[]{5}, new int[0], new int[0],
+                () -> {
+                    calls[0]++;
+                    return 20;
+                });
+
+        assertEquals(0, calls[0]);
+        assertEquals(5, fractions.functionTotal(0));
+        assertEquals(0.25f, LineFractions.fraction(fractions.wait(0), fractions.projectMax()), 1e-6);
+        assertEquals(1, calls[0]);
+    }
+}
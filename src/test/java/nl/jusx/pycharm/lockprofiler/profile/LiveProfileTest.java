@@ -0,0 +1,124 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveProfileTest {
+    @TempDir
+    Path tempDir;
+
+    private Path log;
+
+    private void append(String delta) throws IOException {
+        Files.write(log, delta.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static long totalWait(ProfileSchema schema, String file, int line) {
+        StatsCursor cursor = schema.file_stats.cursor(schema.file_stats.findFile(file));
+        long wait = 0;
+        while (cursor.next()) {
+            if (cursor.line() == line) {
+                wait += cursor.get(Metric.TOTAL_WAIT);
+            }
+        }
+        return wait;
+    }
+
+    @Test
+    void mergesAppendedDeltas() throws IOException {
+        log = tempDir.resolve("delta.log");
+        LiveProfile live = new LiveProfile(log);
+        assertNull(live.update());
+
+        append("{\"lock_hashes\": {\"1\": \"db\"}, \"file_stats\": {\"/a.py\": {\"3\": {\"1\": [1, 1, 0, 10, 10]}}},"
+                + " \"lock_stats\": {\"1\": [1, 1, 0, 10, 10]}}\n");
+        append("{\"file_stats\": {\"/a.py\": {\"3\": {\"1\": [1, 1, 0, 5, 5]}}, \"/b.py\": {\"1\": {\"1\": [1]}}}}\n"
+                + "{\"file_stats\": {\"/b.py\": {\"2\": {\"1\": [1");
+        LiveProfile.Update update = live.update();
+
+        assertNotNull(update);
+        assertEquals(Set.of("/a.py", "/b.py"), new HashSet<>(update.changedFiles));
+        assertEquals(15, totalWait(update.schema, "/a.py", 3));
+        assertEquals("db", update.schema.getLockName(1));
+        // The last line is not complete yet
+        assertNull(live.update());
+
+        append("]}}}}\n");
+        update = live.update();
+        assertEquals(List.of("/b.py"), update.changedFiles);
+        assertEquals(2, update.schema.file_stats.fileCount());
+    }
+
+    @Test
+    void truncatedLogRemovesFilesThatWereNotProfiledSince() throws IOException {
+        log = tempDir.resolve("delta.log");
+        LiveProfile live = new LiveProfile(log);
+        append("{\"file_stats\": {\"/a.py\": {\"3\": {\"1\": [1, 1, 0, 10, 10]}},"
+                + " \"/b.py\": {\"4\": {\"1\": [1, 1, 0, 20, 20]}}}}\n");
+        assertNotNull(live.update());
+
+        // The process restarted and profiled only b.py so far
+        Files.write(log, "{\"file_stats\": {\"/b.py\": {\"4\": {\"1\": [1, 1, 0, 7, 7]}}}}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        LiveProfile.Update update = live.update();
+
+        assertNotNull(update);
+        assertEquals(List.of("/b.py"), update.changedFiles);
+        assertEquals(List.of("/a.py"), update.removedFiles);
+        assertEquals(1, update.schema.file_stats.fileCount());
+        assertEquals(7, totalWait(update.schema, "/b.py", 4));
+    }
+
+    @Test
+    void truncatedToEmptyLogRemovesAllFiles() throws IOException {
+        log = tempDir.resolve("delta.log");
+        LiveProfile live = new LiveProfile(log);
+        append("{\"file_stats\": {\"/a.py\": {\"3\": {\"1\": [1, 1, 0, 10, 10]}}}}\n");
+        assertNotNull(live.update());
+
+        Files.write(log, new byte[0]);
+        LiveProfile.Update update = live.update();
+
+        assertNotNull(update);
+        assertEquals(List.of(), update.changedFiles);
+        assertEquals(List.of("/a.py"), update.removedFiles);
+        assertEquals(0, update.schema.file_stats.fileCount());
+    }
+
+    @Test
+    void malformedDeltasAreReported() throws IOException {
+        log = tempDir.resolve("delta.log");
+        LiveProfile live = new LiveProfile(log);
+        append("{\"file_stats\": {\"/a.py\": {\"not a line\": {}}}}\n");
+        append("{\"file_stats\": {\"/b.py\": {\"4\": {\"1\": [1, 1, 0, 7, 7]}}}}\n");
+
+        assertThrows(IOException.class, live::update);
+        // The delta after the malformed one was merged
+        LiveProfile.Update update = live.update();
+        assertNotNull(update);
+        assertEquals(7, totalWait(update.schema, "/b.py", 4));
+
+        // A half written malformed delta does not stay in front of the ones after it
+        append("{\"file_stats\": {\"/b.py\": {\"x");
+        assertNull(live.update());
+        append("\": {}}}}\n{\"file_stats\": {\"/b.py\": {\"4\": {\"1\": [1, 1, 0, 3, 3]}}}}\n");
+        assertThrows(IOException.class, live::update);
+        update = live.update();
+        assertNotNull(update);
+        assertEquals(10, totalWait(update.schema, "/b.py", 4));
+        append("{\"file_stats\": {\"/b.py\": {\"4\": {\"1\": [1, 1, 0, 5, 5]}}}}\n");
+        assertEquals(15, totalWait(live.update().schema, "/b.py", 4));
+    }
+}
@@ -0,0 +1,77 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LockTableTest {
+    static long[] values(long hits, long totalWait) {
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        values[Metric.HITS.ordinal()] = hits;
+        values[Metric.ACQUIRES.ordinal()] = hits;
+        values[Metric.TOTAL_WAIT.ordinal()] = totalWait;
+        return values;
+    }
+
+    @Test
+    void joinsStatsAndNamesOrderedByHash() {
+        LockTable.Builder builder = new LockTable.Builder();
+        builder.addStats(30, values(1, 100));
+        builder.addName(-5, "only named");
+        builder.addStats(-5, values(2, 200));
+        builder.addName(30, "thirty");
+        LockTable locks = builder.build();
+
+        assertEquals(2, locks.size());
+        assertEquals(-5, locks.hash(0));
+        assertEquals(30, locks.hash(1));
+        assertEquals("only named", locks.nameOf(-5));
+        assertEquals("thirty", locks.nameOf(30));
+        assertEquals(200, locks.get(locks.indexOf(-5), Metric.TOTAL_WAIT));
+        assertEquals(100, locks.get(locks.indexOf(30), Metric.AVG_WAIT));
+    }
+
+    @Test
+    void locksWithOnlyStatsOrOnlyANameAreKept() {
+        LockTable.Builder builder = new LockTable.Builder();
+        builder.addStats(Long.MIN_VALUE, values(1, 1));
+        builder.addName(Long.MAX_VALUE, "idle");
+        LockTable locks = builder.build();
+
+        assertEquals(2, locks.size());
+        assertEquals(Long.toString(Long.MIN_VALUE), locks.nameOf(Long.MIN_VALUE));
+        assertEquals("idle", locks.nameOf(Long.MAX_VALUE));
+        assertEquals(0, locks.get(locks.indexOf(Long.MAX_VALUE), Metric.HITS));
+        assertTrue(locks.indexOf(0) < 0);
+        assertNull(locks.nameOf(0));
+    }
+
+    @Test
+    void duplicateEntriesAreCollapsedAndTheLastOneWins() {
+        LockTable.Builder builder = new LockTable.Builder();
+        builder.addStats(7, values(1, 10));
+        builder.addStats(7, values(2, 20));
+        builder.addName(7, "first");
+        builder.addName(7, "second");
+        LockTable locks = builder.build();
+
+        assertEquals(1, locks.size());
+        assertEquals(20, locks.get(0, Metric.TOTAL_WAIT));
+        assertEquals("second", locks.name(0));
+    }
+
+    @Test
+    void builderGrows() {
+        LockTable.Builder builder = new LockTable.Builder();
+        for (int i = 999; i >= 0; i--) {
+            builder.addStats(i, values(i, i * 10L));
+        }
+        LockTable locks = builder.build();
+
+        assertEquals(1000, locks.size());
+        for (int row = 0; row < locks.size(); row++) {
+            assertEquals(row, locks.hash(row));
+            assertEquals(row * 10L, locks.get(row, Metric.TOTAL_WAIT));
+        }
+    }
+}
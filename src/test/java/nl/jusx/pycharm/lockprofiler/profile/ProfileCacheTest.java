@@ -0,0 +1,103 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.assertSameRows;
+import static nl.jusx.pycharm.lockprofiler.profile.ProfileSchemaTest.fixture;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private static String sha256(Path path) throws IOException, NoSuchAlgorithmException {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(path))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Path copyFixture(String name) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.copy(fixture("small.pclprof"), path);
+        return path;
+    }
+
+    @Test
+    void missIsCachedUnderTheContentHash() throws Exception {
+        Path profile = copyFixture("small.pclprof");
+        Path directory = tempDir.resolve("cache");
+        ProfileCache cache = new ProfileCache(directory, 1 << 20, Runnable::run);
+
+        assertNull(cache.get(profile));
+        ProfileSchema loaded = cache.load(profile);
+        assertNotNull(loaded);
+        // Indexed, not parsed
+        assertTrue(loaded.file_stats instanceof JsonProfileIndex);
+        assertTrue(Files.exists(directory.resolve(sha256(profile) + ".pclprof")));
+
+        ProfileSchema cached = cache.get(profile);
+        assertNotNull(cached);
+        assertSameRows(loaded.file_stats.all(), cached.file_stats.all());
+        assertEquals(loaded.lock_stats.size(), cached.lock_stats.size());
+        assertEquals("db_lock", cached.getLockName(11));
+    }
+
+    @Test
+    void compressedProfilesAreHashedAsStored() throws Exception {
+        Path compressed = tempDir.resolve("small.pclprof.gz");
+        try (InputStream in = Files.newInputStream(fixture("small.pclprof"));
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            in.transferTo(out);
+        }
+        Path directory = tempDir.resolve("cache");
+        ProfileCache cache = new ProfileCache(directory, 1 << 20, Runnable::run);
+
+        assertNotNull(cache.load(compressed));
+        assertTrue(Files.exists(directory.resolve(sha256(compressed) + ".pclprof")));
+        assertNotNull(cache.get(compressed));
+    }
+
+    @Test
+    void copiesShareAnEntry() throws Exception {
+        Path directory = tempDir.resolve("cache");
+        ProfileCache cache = new ProfileCache(directory, 1 << 20, Runnable::run);
+        cache.load(copyFixture("first.pclprof"));
+        cache.load(copyFixture("second.pclprof"));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".pclprof")).count());
+        }
+        assertNotNull(cache.get(tempDir.resolve("second.pclprof")));
+    }
+
+    @Test
+    void evictionSkipsEntriesAndKeysItCanNotRead() throws Exception {
+        Path directory = tempDir.resolve("cache");
+        // Every entry is over the budget
+        ProfileCache cache = new ProfileCache(directory, 1, Runnable::run);
+        Files.createDirectories(directory.resolve("unreadable.key"));
+        Path profile = copyFixture("small.pclprof");
+
+        assertNotNull(cache.load(profile));
+        cache.evict();
+
+        assertFalse(Files.exists(directory.resolve(sha256(profile) + ".pclprof")));
+        assertNull(cache.get(profile));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
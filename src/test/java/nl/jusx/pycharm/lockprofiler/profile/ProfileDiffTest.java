@@ -0,0 +1,152 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static nl.jusx.pycharm.lockprofiler.profile.LockTableTest.values;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileDiffTest {
+    private static final int HITS = Arrays.asList(ProfileDiff.METRICS).indexOf(Metric.HITS);
+    private static final int WAIT = Arrays.asList(ProfileDiff.METRICS).indexOf(Metric.TOTAL_WAIT);
+
+    private static ProfileSchema base() {
+        LockTable.Builder locks = new LockTable.Builder();
+        locks.addStats(1, values(2, 100));
+        locks.addStats(2, values(1, 10));
+        locks.addStats(3, values(1, 5));
+        locks.addName(1, "db");
+        locks.addName(2, "cache");
+        // Another lock of the same name, created in another place
+        locks.addName(3, "db");
+
+        ArrayLineTable.Builder lines = new ArrayLineTable.Builder();
+        int a = lines.internFile("/a.py");
+        int b = lines.internFile("/b.py");
+        lines.add(a, 1, 1, values(1, 10));
+        lines.add(a, 1, 2, values(1, 5));
+        lines.add(a, 5, 1, values(1, 20));
+        lines.add(b, 2, 3, values(1, 7));
+        return new ProfileSchema(locks.build(), ProfileFiles.of(lines.build()));
+    }
+
+    private static ProfileSchema other() {
+        // Lock hashes differ between runs
+        LockTable.Builder locks = new LockTable.Builder();
+        locks.addStats(7, values(3, 300));
+        locks.addStats(8, values(1, 1));
+        locks.addName(7, "db");
+        locks.addName(8, "new");
+
+        ArrayLineTable.Builder lines = new ArrayLineTable.Builder();
+        int a = lines.internFile("/a.py");
+        int c = lines.internFile("/c.py");
+        lines.add(a, 5, 7, values(2, 40));
+        lines.add(a, 9, 8, values(1, 1));
+        lines.add(c, 1, 7, values(1, 2));
+        return new ProfileSchema(locks.build(), ProfileFiles.of(lines.build()));
+    }
+
+    private static int lockRow(ProfileDiff diff, String name) {
+        for (int row = 0; row < diff.lockCount(); row++) {
+            if (name.equals(diff.lockName(row))) {
+                return row;
+            }
+        }
+        throw new AssertionError("No lock " + name);
+    }
+
+    @Test
+    void locksAreMatchedAndSummedByName() {
+        ProfileDiff diff = ProfileDiff.compare(base(), other());
+
+        assertEquals(3, diff.lockCount());
+        int db = lockRow(diff, "db");
+        assertEquals(3, diff.lockBase(db, HITS));
+        assertEquals(105, diff.lockBase(db, WAIT));
+        assertEquals(300, diff.lockOther(db, WAIT));
+        int cache = lockRow(diff, "cache");
+        assertEquals(10, diff.lockBase(cache, WAIT));
+        assertEquals(0, diff.lockOther(cache, WAIT));
+        int added = lockRow(diff, "new");
+        assertEquals(0, diff.lockBase(added, WAIT));
+        assertEquals(1, diff.lockOther(added, WAIT));
+    }
+
+    @Test
+    void linesAreMergedByFileAndLine() {
+        ProfileDiff diff = ProfileDiff.compare(base(), other());
+
+        assertEquals(3, diff.fileCount());
+        assertEquals("/a.py", diff.file(0));
+        assertEquals("/b.py", diff.file(1));
+        assertEquals("/c.py", diff.file(2));
+        assertEquals(5, diff.lineCount());
+
+        int[] lines = {1, 5, 9, 2, 1};
+        long[] baseWaits = {15, 20, 0, 7, 0};
+        long[] otherWaits = {0, 40, 1, 0, 2};
+        for (int row = 0; row < diff.lineCount(); row++) {
+            assertEquals(lines[row], diff.line(row));
+            assertEquals(baseWaits[row], diff.lineBase(row, WAIT), "row " + row);
+            assertEquals(otherWaits[row], diff.lineOther(row, WAIT), "row " + row);
+        }
+        assertEquals(0, diff.fileStart(0));
+        assertEquals(3, diff.fileEnd(0));
+        assertEquals(4, diff.fileEnd(1));
+        assertEquals(5, diff.fileEnd(2));
+        assertEquals(2, diff.lineBase(0, HITS));
+    }
+
+    @Test
+    void rowsAreMappedToTheirFiles() {
+        ProfileDiff diff = ProfileDiff.compare(base(), other());
+
+        int[] fileIds = {0, 0, 0, 1, 2};
+        for (int row = 0; row < diff.lineCount(); row++) {
+            assertEquals(fileIds[row], diff.fileId(row));
+        }
+    }
+
+    @Test
+    void unnamedLocksAreNotMatched() {
+        long[][] columns = StatColumns.newColumns(2);
+        columns[Metric.HITS.column][0] = 1;
+        columns[Metric.HITS.column][1] = 2;
+        ProfileSchema unnamed = new ProfileSchema(new LockTable(new long[]{1, 2}, new String[]{null, null}, columns),
+                ProfileFiles.of(new ArrayLineTable.Builder().build()));
+        ProfileDiff diff = ProfileDiff.compare(unnamed, unnamed);
+
+        assertEquals(4, diff.lockCount());
+        long[] hits = {1, 2, 0, 0};
+        for (int row = 0; row < diff.lockCount(); row++) {
+            assertNull(diff.lockName(row));
+            assertEquals(hits[row], diff.lockBase(row, HITS));
+            assertEquals(hits[(row + 2) % 4], diff.lockOther(row, HITS));
+        }
+    }
+
+    @Test
+    void comparingWithAnEmptyProfile() {
+        ProfileSchema empty = new ProfileSchema(new LockTable.Builder().build(),
+                ProfileFiles.of(new ArrayLineTable.Builder().build()));
+        ProfileDiff diff = ProfileDiff.compare(empty, base());
+
+        assertEquals(2, diff.lockCount());
+        assertEquals(2, diff.fileCount());
+        assertEquals(3, diff.lineCount());
+        for (int row = 0; row < diff.lineCount(); row++) {
+            assertEquals(0, diff.lineBase(row, WAIT));
+        }
+    }
+
+    @Test
+    void relativeChange() {
+        assertEquals(0.5, ProfileDiff.relative(100, 150));
+        assertEquals(-1.0, ProfileDiff.relative(100, 0));
+        assertEquals(0.0, ProfileDiff.relative(0, 0));
+        assertEquals(Double.POSITIVE_INFINITY, ProfileDiff.relative(0, 5));
+        assertEquals(Double.NEGATIVE_INFINITY, ProfileDiff.relative(0, -5));
+    }
+}
@@ -0,0 +1,90 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileMergerTest {
+    private static final List<String> WORKERS = List.of("w1", "w2");
+
+    private static long[] values(long hits, long totalWait, long maxWait) {
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        values[Metric.HITS.ordinal()] = hits;
+        values[Metric.ACQUIRES.ordinal()] = hits;
+        values[Metric.TOTAL_WAIT.ordinal()] = totalWait;
+        values[Metric.MAX_WAIT.ordinal()] = maxWait;
+        return values;
+    }
+
+    /**
+     * Profile of a worker with lock 1 on line 3 of /a.py and lock 2 on line 1 of `numFiles` other files
+     */
+    private static ProfileSchema worker(long wait, int numFiles) {
+        LockTable.Builder locks = new LockTable.Builder();
+        locks.addStats(1, values(1, wait, wait));
+        locks.addStats(2, values(numFiles, numFiles, 1));
+        locks.addName(1, "db");
+        locks.addName(2, "cache");
+
+        ArrayLineTable.Builder lines = new ArrayLineTable.Builder();
+        lines.add(lines.internFile("/a.py"), 3, 1, values(1, wait, wait));
+        for (int i = 0; i < numFiles; i++) {
+            lines.add(lines.internFile("/f" + i + ".py"), 1, 2, values(1, 1, 1));
+        }
+        return new ProfileSchema(locks.build(), ProfileFiles.of(lines.build()));
+    }
+
+    @Test
+    void sumsTotalsAndTakesMaxima() {
+        ProfileSchema merged = ProfileMerger.merge(List.of(worker(100, 10), worker(30, 12)), WORKERS, false);
+
+        LockTable locks = merged.lock_stats;
+        assertEquals(2, locks.size());
+        int db = locks.indexOf(1);
+        assertEquals("db", locks.name(db));
+        assertEquals(2, locks.get(db, Metric.HITS));
+        assertEquals(130, locks.get(db, Metric.TOTAL_WAIT));
+        assertEquals(100, locks.get(db, Metric.MAX_WAIT));
+        assertEquals(65, locks.get(db, Metric.AVG_WAIT));
+        assertEquals(22, locks.get(locks.indexOf(2), Metric.TOTAL_WAIT));
+
+        LineTable lines = merged.file_stats.all();
+        // /a.py and /f0.py up to /f11.py, enough to be split over several tasks
+        assertEquals(13, lines.fileCount());
+        StatsCursor a = merged.file_stats.cursor(merged.file_stats.findFile("/a.py"));
+        assertTrue(a.next());
+        assertEquals(3, a.line());
+        assertEquals(130, a.get(Metric.TOTAL_WAIT));
+        assertEquals(100, a.get(Metric.MAX_WAIT));
+        assertFalse(a.next());
+        assertEquals(2, lines.get(lines.fileStart(lines.findFile("/f9.py")), Metric.HITS));
+        assertEquals(1, lines.get(lines.fileStart(lines.findFile("/f11.py")), Metric.HITS));
+    }
+
+    @Test
+    void keepsLocksOfWorkersApart() {
+        ProfileSchema merged = ProfileMerger.merge(List.of(worker(100, 1), worker(30, 1)), WORKERS, true);
+
+        LockTable locks = merged.lock_stats;
+        assertEquals(4, locks.size());
+        Set<String> names = new HashSet<>();
+        for (int row = 0; row < locks.size(); row++) {
+            names.add(locks.name(row));
+        }
+        assertEquals(Set.of("db [w1]", "db [w2]", "cache [w1]", "cache [w2]"), names);
+
+        StatsCursor a = merged.file_stats.cursor(merged.file_stats.findFile("/a.py"));
+        Set<Long> waits = new HashSet<>();
+        while (a.next()) {
+            assertEquals(3, a.line());
+            assertNotEquals(1, a.lockHash());
+            waits.add(a.get(Metric.TOTAL_WAIT));
+            assertTrue(locks.nameOf(a.lockHash()).startsWith("db ["));
+        }
+        assertEquals(Set.of(100L, 30L), waits);
+    }
+}
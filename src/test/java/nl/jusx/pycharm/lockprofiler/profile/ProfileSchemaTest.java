@@ -0,0 +1,207 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormatSymbols;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileSchemaTest {
+    @TempDir
+    Path tempDir;
+
+    static Path fixture(String name) {
+        try {
+            return Paths.get(ProfileSchemaTest.class.getResource(name).toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void parsesLockStatsAndNames() throws IOException {
+        ProfileSchema schema = ProfileSchema.parseJson(fixture("small.pclprof"));
+        LockTable locks = schema.lock_stats;
+
+        assertEquals(2, locks.size());
+        assertEquals("db_lock", schema.getLockName(11));
+        assertEquals("cache_lock", schema.getLockName(-22));
+        assertNull(schema.getLockName(33));
+        int row = locks.indexOf(11);
+        assertEquals(3, locks.get(row, Metric.HITS));
+        assertEquals(400, locks.get(row, Metric.TOTAL_WAIT));
+        assertEquals(200, locks.get(row, Metric.MAX_WAIT));
+        // Averages are derived from the totals, not read from the file
+        assertEquals(100, locks.get(row, Metric.AVG_WAIT));
+        assertEquals(50, locks.get(row, Metric.AVG_BLOCK));
+    }
+
+    @Test
+    void parsesLineStatsOrderedByFileAndLine() throws IOException {
+        LineTable lines = ProfileSchema.parseJson(fixture("small.pclprof")).file_stats.all();
+
+        assertEquals(2, lines.fileCount());
+        assertEquals(4, lines.size());
+        int a = lines.findFile("/src/app/a.py");
+        int b = lines.findFile("/src/app/b.py");
+        assertTrue(a >= 0 && b >= 0);
+        assertEquals(3, lines.fileEnd(a) - lines.fileStart(a));
+        assertEquals(3, lines.line(lines.fileStart(a)));
+        assertEquals(12, lines.line(lines.fileStart(a) + 1));
+        assertEquals(12, lines.line(lines.fileStart(a) + 2));
+        assertEquals(7, lines.line(lines.fileStart(b)));
+        assertEquals(300, lines.get(lines.fileStart(b), Metric.TOTAL_WAIT));
+    }
+
+    @Test
+    void padsShortStatArraysWithZeros() throws IOException {
+        LineTable lines = ProfileSchema.parseJson(fixture("small.pclprof")).file_stats.all();
+        int row = lines.fileStart(lines.findFile("/src/app/a.py"));
+
+        assertEquals(-22, lines.lockHash(row));
+        assertEquals(1, lines.get(row, Metric.HITS));
+        assertEquals(1, lines.get(row, Metric.ACQUIRES));
+        assertEquals(0, lines.get(row, Metric.TOTAL_WAIT));
+        assertEquals(0, lines.get(row, Metric.MAX_BLOCK));
+    }
+
+    @Test
+    void indexedAndCompressedProfilesMatchTheParsedOne() throws IOException {
+        Path compressed = tempDir.resolve("small.pclprof.gz");
+        try (InputStream in = Files.newInputStream(fixture("small.pclprof"));
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            in.transferTo(out);
+        }
+        LineTable parsed = ProfileSchema.parseJson(fixture("small.pclprof")).file_stats.all();
+
+        for (Path path : new Path[]{fixture("small.pclprof"), compressed}) {
+            ProfileSchema schema = ProfileSchema.FromFile(path.toString());
+            assertNotNull(schema, path.toString());
+            assertSameRows(parsed, schema.file_stats.all());
+            assertEquals(2, schema.lock_stats.size());
+        }
+    }
+
+    @Test
+    void malformedProfilesAreNotLoaded() throws IOException {
+        String[] malformed = {
+                "{\"lock_stats\": {\"not a hash\": [1]}}",
+                "{\"lock_stats\": [1, 2]}",
+                "{\"lock_stats\": {\"1\": [1, 2",
+                "{\"lock_hashes\": {\"1\": {\"name\": 2}}}",
+        };
+        for (int i = 0; i < malformed.length; i++) {
+            Path path = tempDir.resolve("malformed" + i + ".pclprof");
+            Files.write(path, malformed[i].getBytes(StandardCharsets.UTF_8));
+            assertNull(ProfileSchema.FromFile(path.toString()), malformed[i]);
+        }
+        assertNull(ProfileSchema.FromFile(tempDir.resolve("missing.pclprof").toString()));
+
+        // Gzip magic bytes followed by a corrupt header
+        Path corruptGzip = tempDir.resolve("corrupt.pclprof.gz");
+        Files.write(corruptGzip, new byte[]{0x1f, (byte) 0x8b, 0, 0, 0});
+        assertNull(ProfileSchema.FromFile(corruptGzip.toString()));
+        assertThrows(IOException.class, () -> ProfileSchema.parseJson(corruptGzip));
+    }
+
+    @Test
+    void appendTimeMatchesStringFormat() {
+        long[] times = {0, 1, 999, 1000, 1001, 1_000_499, 1_000_500, 999_999_499, 999_999_500, 1_000_000_001,
+                59_999_999_999L, 1L << 40, Long.MAX_VALUE / 1000};
+        for (long time : times) {
+            assertEquals(formatWithString(time), ProfileSchema.formatTime(time), Long.toString(time));
+        }
+        Random random = new Random(21);
+        for (int i = 0; i < 100_000; i++) {
+            long time = (long) Math.pow(10, random.nextDouble() * 13);
+            assertEquals(formatWithString(time), ProfileSchema.formatTime(time), Long.toString(time));
+        }
+    }
+
+    @Test
+    void appendTimeAppends() {
+        StringBuilder text = new StringBuilder("wait ");
+        ProfileSchema.appendTime(text, 1_500_000);
+        ProfileSchema.appendTime(text.append(", "), 12);
+
+        assertEquals("wait " + formatWithString(1_500_000) + ", 12 ns", text.toString());
+    }
+
+    @Test
+    void formattedTimesParseBack() {
+        Random random = new Random(22);
+        for (int i = 0; i < 100_000; i++) {
+            long time = (long) Math.pow(10, random.nextDouble() * 13);
+            String text = ProfileSchema.formatTime(time);
+            long parsed = ProfileSchema.parseTime(text);
+
+            // Formatted times keep three digits of their unit
+            assertTrue(Math.abs(parsed - time) <= time / 1000, text + " " + parsed);
+            // A parsed time has no more digits than its text, so it formats to a text that parses back to it.
+            // Not always to the same text, a time of exactly 1000 of a unit is formatted in that unit.
+            assertEquals(parsed, ProfileSchema.parseTime(ProfileSchema.formatTime(parsed)), text);
+        }
+        assertEquals("1000.000 ms", ProfileSchema.formatTime(ProfileSchema.parseTime(
+                ProfileSchema.formatTime(999_999_999))).replace(decimalSeparator(), '.'));
+        assertEquals(999, ProfileSchema.parseTime(ProfileSchema.formatTime(999)));
+    }
+
+    @Test
+    void parsesTimesWithAndWithoutUnits() {
+        assertEquals(7, ProfileSchema.parseTime("7 ns"));
+        assertEquals(3000, ProfileSchema.parseTime(" 3us "));
+        assertEquals(3000, ProfileSchema.parseTime("3 \u03BCs"));
+        assertEquals(1_500_000, ProfileSchema.parseTime("1.5 ms"));
+        assertEquals(4_000_000_000L, ProfileSchema.parseTime("4 s"));
+        // Milliseconds without a unit
+        assertEquals(2_000_000, ProfileSchema.parseTime("2"));
+        assertEquals(0, ProfileSchema.parseTime("0"));
+
+        String[] invalid = {"", "ms", "abc", "-1 ms", "5 min", "1.5.1 ms", "1 ms s"};
+        for (String text : invalid) {
+            assertEquals(-1, ProfileSchema.parseTime(text), text);
+        }
+    }
+
+    private static char decimalSeparator() {
+        return DecimalFormatSymbols.getInstance().getDecimalSeparator();
+    }
+
+    /**
+     * Formats a time the way formatTime did before appendTime
+     */
+    private static String formatWithString(long time) {
+        String[] formats = {"%.0f ns", "%.3f \u03BCs", "%.3f ms", "%.3f s"};
+        double timeNs = time;
+        int idx = 0;
+        while (idx < formats.length - 1 && timeNs > 1000) {
+            timeNs /= 1000;
+            idx++;
+        }
+        return String.format(formats[idx], timeNs);
+    }
+
+    static void assertSameRows(LineTable expected, LineTable actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.fileCount(), actual.fileCount());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.file(expected.fileId(row)), actual.file(actual.fileId(row)));
+            assertEquals(expected.line(row), actual.line(row));
+            assertEquals(expected.lockHash(row), actual.lockHash(row));
+            for (Metric metric : Metric.values()) {
+                assertEquals(expected.get(row, metric), actual.get(row, metric), metric.getLabel());
+            }
+        }
+    }
+}
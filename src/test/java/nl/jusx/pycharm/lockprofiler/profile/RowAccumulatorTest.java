@@ -0,0 +1,71 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowAccumulatorTest {
+    private static long[] delta(long hits, long totalWait, long maxWait) {
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        values[Metric.HITS.ordinal()] = hits;
+        values[Metric.TOTAL_WAIT.ordinal()] = totalWait;
+        values[Metric.MAX_WAIT.ordinal()] = maxWait;
+        return values;
+    }
+
+    private static long value(RowAccumulator rows, int row, Metric metric) {
+        long[] values = new long[ProfileSchema.NUM_LOCK_STATS];
+        rows.values(row, values);
+        return values[metric.ordinal()];
+    }
+
+    @Test
+    void mergesDeltasOfTheSameLineAndLock() {
+        RowAccumulator rows = new RowAccumulator();
+        rows.merge(10, 5, delta(1, 100, 100));
+        rows.merge(10, 6, delta(1, 7, 7));
+        rows.merge(10, 5, delta(2, 50, 40));
+
+        assertEquals(2, rows.size());
+        assertEquals(10, rows.line(0));
+        assertEquals(5, rows.lockHash(0));
+        assertEquals(3, value(rows, 0, Metric.HITS));
+        assertEquals(150, value(rows, 0, Metric.TOTAL_WAIT));
+        assertEquals(100, value(rows, 0, Metric.MAX_WAIT));
+        assertEquals(6, rows.lockHash(1));
+        assertEquals(7, value(rows, 1, Metric.TOTAL_WAIT));
+    }
+
+    @Test
+    void keepsRowsWhenGrowing() {
+        RowAccumulator rows = new RowAccumulator();
+        // Keys that differ in line or sign only, past several rehashes
+        for (int round = 0; round < 2; round++) {
+            for (int line = 0; line < 1000; line++) {
+                rows.merge(line, line % 7 - 3, delta(1, line, line));
+            }
+        }
+
+        assertEquals(1000, rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            assertEquals(row, rows.line(row));
+            assertEquals(row % 7 - 3, rows.lockHash(row));
+            assertEquals(2, value(rows, row, Metric.HITS));
+            assertEquals(2L * row, value(rows, row, Metric.TOTAL_WAIT));
+            assertEquals(row, value(rows, row, Metric.MAX_WAIT));
+        }
+    }
+
+    @Test
+    void clearRemovesAllRows() {
+        RowAccumulator rows = new RowAccumulator();
+        rows.merge(1, 1, delta(1, 10, 10));
+        rows.clear();
+
+        assertEquals(0, rows.size());
+        rows.merge(1, 1, delta(1, 20, 20));
+        assertEquals(1, rows.size());
+        assertEquals(1, value(rows, 0, Metric.HITS));
+        assertEquals(20, value(rows, 0, Metric.TOTAL_WAIT));
+    }
+}
@@ -0,0 +1,104 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static nl.jusx.pycharm.lockprofiler.profile.LockTableTest.values;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowFilterIndexTest {
+    private static LockTable locks() {
+        LockTable.Builder builder = new LockTable.Builder();
+        builder.addStats(1, values(2, 40));
+        builder.addName(1, "db_lock");
+        builder.addStats(2, values(2, 20));
+        builder.addName(2, "cache_lock");
+        return builder.build();
+    }
+
+    /**
+     * Rows, in table order: /src/a.py with db_lock (10) and cache_lock (20), /src/ab.py with db_lock (30),
+     * /src/b.py with a lock that is not in the lock table (20) and /test/a.py with cache_lock (0)
+     */
+    private static RowFilterIndex lines() {
+        ArrayLineTable.Builder builder = new ArrayLineTable.Builder();
+        int test = builder.internFile("/test/a.py");
+        int b = builder.internFile("/src/b.py");
+        int ab = builder.internFile("/src/ab.py");
+        int a = builder.internFile("/src/a.py");
+        builder.add(test, 1, 2, values(1, 0));
+        builder.add(b, 1, 3, values(1, 20));
+        builder.add(ab, 1, 1, values(1, 30));
+        builder.add(a, 2, 2, values(1, 20));
+        builder.add(a, 1, 1, values(1, 10));
+        return RowFilterIndex.forLines(builder.build(), locks());
+    }
+
+    private static BitSet rows(int... rows) {
+        BitSet set = new BitSet();
+        for (int row : rows) {
+            set.set(row);
+        }
+        return set;
+    }
+
+    @Test
+    void noConditionsFilterNothing() {
+        assertNull(lines().filter("", "", 0));
+        assertNull(RowFilterIndex.forLocks(locks()).filter("", "/src", 0));
+    }
+
+    @Test
+    void pathPrefixesAreRangesOfFiles() {
+        RowFilterIndex index = lines();
+
+        assertTrue(index.hasFiles());
+        assertEquals(rows(0, 1, 2, 3, 4), index.filter("", "/", 0));
+        assertEquals(rows(0, 1, 2, 3), index.filter("", "/src/", 0));
+        assertEquals(rows(0, 1, 2), index.filter("", "/src/a", 0));
+        assertEquals(rows(0, 1), index.filter("", "/src/a.py", 0));
+        assertEquals(rows(3), index.filter("", "/src/b", 0));
+        assertEquals(rows(4), index.filter("", "/test", 0));
+        assertEquals(rows(), index.filter("", "/src/a.pyc", 0));
+        assertEquals(rows(), index.filter("", "/a", 0));
+        assertEquals(rows(), index.filter("", "/x", 0));
+    }
+
+    @Test
+    void minWaitIsInclusive() {
+        RowFilterIndex index = lines();
+
+        assertEquals(rows(0, 1, 2, 3), index.filter("", "", 1));
+        assertEquals(rows(0, 1, 2, 3), index.filter("", "", 10));
+        assertEquals(rows(1, 2, 3), index.filter("", "", 11));
+        assertEquals(rows(1, 2, 3), index.filter("", "", 20));
+        assertEquals(rows(2), index.filter("", "", 30));
+        assertEquals(rows(), index.filter("", "", 31));
+        assertEquals(rows(), index.filter("", "", Long.MAX_VALUE));
+    }
+
+    @Test
+    void conditionsAreCombined() {
+        RowFilterIndex index = lines();
+
+        assertEquals(rows(0, 2), index.filter("DB", "", 0));
+        assertEquals(rows(0, 1, 2, 4), index.filter("lock", "", 0));
+        assertEquals(rows(), index.filter("rw_lock", "", 0));
+        assertEquals(rows(0, 1, 2), index.filter("lock", "/src/", 0));
+        assertEquals(rows(1, 2), index.filter("lock", "/src/", 20));
+        assertEquals(rows(1), index.filter("cache", "/src/a", 11));
+        assertEquals(rows(), index.filter("cache", "/src/ab", 0));
+    }
+
+    @Test
+    void lockRowsAreTheLocks() {
+        LockTable locks = locks();
+        RowFilterIndex index = RowFilterIndex.forLocks(locks);
+
+        assertFalse(index.hasFiles());
+        assertEquals(rows(locks.indexOf(2)), index.filter("cache", "/ignored", 0));
+        assertEquals(rows(locks.indexOf(1)), index.filter("", "", 21));
+        assertEquals(rows(0, 1), index.filter("_LOCK", "", 20));
+    }
+}
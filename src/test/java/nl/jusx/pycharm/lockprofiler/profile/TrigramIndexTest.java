@@ -0,0 +1,66 @@
+package nl.jusx.pycharm.lockprofiler.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+    private static final String[] NAMES = {"DB_lock", "cache_lock", "lolol", "", "ab", "lockLOCK"};
+
+    @Test
+    void shortQueriesAreMatchedWithoutTrigrams() {
+        TrigramIndex index = new TrigramIndex(NAMES);
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, index.find(""));
+        assertArrayEquals(new int[]{0, 1, 2, 5}, index.find("Lo"));
+        assertArrayEquals(new int[]{0, 4}, index.find("b"));
+        assertArrayEquals(new int[]{4}, index.find("ab"));
+        assertArrayEquals(new int[0], index.find("z"));
+    }
+
+    @Test
+    void repeatedTrigramsFindANameOnce() {
+        TrigramIndex index = new TrigramIndex(NAMES);
+
+        assertArrayEquals(new int[]{2}, index.find("lol"));
+        assertArrayEquals(new int[]{2}, index.find("LOLOL"));
+        assertArrayEquals(new int[0], index.find("ololo"));
+        assertArrayEquals(new int[]{0, 1, 5}, index.find("lock"));
+        assertArrayEquals(new int[]{5}, index.find("klo"));
+        // Every trigram of the query occurs, but not in this order
+        assertArrayEquals(new int[0], index.find("lockbd_"));
+    }
+
+    @Test
+    void findsTheSameNamesAsContains() {
+        Random random = new Random(22);
+        String[] names = new String[200];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = randomText(random, random.nextInt(12));
+        }
+        TrigramIndex index = new TrigramIndex(names);
+
+        assertEquals(names.length, index.size());
+        for (int i = 0; i < 1000; i++) {
+            String query = randomText(random, random.nextInt(6));
+            int[] expected = IntStream.range(0, names.length)
+                    .filter(id -> names[id].toLowerCase(Locale.ROOT).contains(query.toLowerCase(Locale.ROOT)))
+                    .toArray();
+            assertArrayEquals(expected, index.find(query), query + " in " + Arrays.toString(names));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        // Few letters, so that names share and repeat trigrams
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = "abAB_".charAt(random.nextInt(5));
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,86 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatRowSorterTest {
+    private static final String[] NAMES = {"db", null, "cache", "db"};
+    private static final long[] WAITS = {5, 30, 10, 20};
+
+    private static StatRowSorter sorter() {
+        return new StatRowSorter(new StatTableModel.Builder(NAMES.length)
+                .text("Name", row -> NAMES[row])
+                .number("Wait", row -> WAITS[row])
+                .build());
+    }
+
+    private static int[] viewToModel(StatRowSorter sorter) {
+        int[] rows = new int[sorter.getViewRowCount()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = sorter.convertRowIndexToModel(i);
+        }
+        return rows;
+    }
+
+    @Test
+    void sortsTextWithMissingNames() {
+        StatRowSorter sorter = sorter();
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+
+        assertEquals("?", sorter.getModel().getValueAt(1, 0));
+        // "?" sorts before letters, equal names keep their model order
+        assertArrayEquals(new int[]{1, 2, 0, 3}, viewToModel(sorter));
+
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.DESCENDING)));
+        assertArrayEquals(new int[]{0, 3, 2, 1}, viewToModel(sorter));
+    }
+
+    @Test
+    void sortsByLaterKeysWithinEqualFirstKeys() {
+        StatRowSorter sorter = sorter();
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING),
+                new RowSorter.SortKey(1, SortOrder.DESCENDING)));
+
+        assertArrayEquals(new int[]{1, 2, 3, 0}, viewToModel(sorter));
+        for (int view = 0; view < NAMES.length; view++) {
+            assertEquals(view, sorter.convertRowIndexToView(sorter.convertRowIndexToModel(view)));
+        }
+    }
+
+    @Test
+    void sortsDecimalsByValue() {
+        double[] fractions = {0.5, Double.NEGATIVE_INFINITY, -0.25, Double.POSITIVE_INFINITY, 0, -2};
+        StatRowSorter sorter = new StatRowSorter(new StatTableModel.Builder(fractions.length)
+                .decimal("Fraction", Metric.TOTAL_WAIT, row -> fractions[row])
+                .build());
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+
+        assertArrayEquals(new int[]{1, 5, 2, 4, 0, 3}, viewToModel(sorter));
+        assertEquals(Double.class, sorter.getModel().getColumnClass(0));
+        assertEquals(-0.25, ((Number) sorter.getModel().getValueAt(2, 0)).doubleValue(), 0.0);
+        assertEquals(0, sorter.getModel().getMaxColumnValue(0));
+
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(0, SortOrder.DESCENDING)));
+        assertArrayEquals(new int[]{3, 0, 4, 2, 5, 1}, viewToModel(sorter));
+    }
+
+    @Test
+    void filtersRows() {
+        StatRowSorter sorter = sorter();
+        BitSet rows = new BitSet();
+        rows.set(1);
+        rows.set(3);
+        sorter.setRowFilter(rows);
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(1, SortOrder.ASCENDING)));
+
+        assertArrayEquals(new int[]{3, 1}, viewToModel(sorter));
+        assertEquals(-1, sorter.convertRowIndexToView(0));
+    }
+}
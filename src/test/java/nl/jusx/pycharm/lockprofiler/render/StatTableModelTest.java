@@ -0,0 +1,30 @@
+package nl.jusx.pycharm.lockprofiler.render;
+
+import nl.jusx.pycharm.lockprofiler.profile.Metric;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatTableModelTest {
+    private static StatTableModel lines(String[] files, long[] lines, long[] waits) {
+        return new StatTableModel.Builder(files.length)
+                .text("File", row -> files[row])
+                .number("Line", row -> lines[row])
+                .metric(Metric.TOTAL_WAIT, row -> waits[row])
+                .build();
+    }
+
+    @Test
+    void findsRowsByTheirKeyColumns() {
+        StatTableModel before = lines(new String[]{"/a.py", "/a.py", null}, new long[]{3, 4, 1},
+                new long[]{10, 20, 30});
+        // A refresh added a row and changed the waits
+        StatTableModel after = lines(new String[]{"/a.py", "/b.py", "/a.py", null}, new long[]{4, 3, 3, 1},
+                new long[]{25, 5, 10, 35});
+
+        assertEquals(2, after.findRow(before, 0));
+        assertEquals(0, after.findRow(before, 1));
+        assertEquals(3, after.findRow(before, 2));
+        assertEquals(-1, before.findRow(after, 1));
+    }
+}